@@ -0,0 +1,55 @@
+package ru.javaboys.vibe_data.bench;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+import ru.javaboys.vibe_data.domain.jsonb.TaskInputPayload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Realistic benchmark inputs: task payloads from dataset/flights.json and dataset/questsH.json.
+ * The directory is taken from -Dvibe.bench.dataset-dir (set by the jmh Gradle task).
+ */
+public final class BenchmarkDatasets {
+
+    public static final String FLIGHTS = "flights.json";
+    public static final String QUESTS = "questsH.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private BenchmarkDatasets() {
+    }
+
+    public static TaskInputPayload load(String name) {
+        Path dir = Path.of(System.getProperty("vibe.bench.dataset-dir", "dataset"));
+        Path file = dir.resolve(name);
+        try {
+            return MAPPER.readValue(Files.readString(file), TaskInputPayload.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read benchmark dataset " + file.toAbsolutePath(), e);
+        }
+    }
+
+    /** All query texts of the given dataset. */
+    public static List<String> queries(String name) {
+        List<String> out = new ArrayList<>();
+        for (QueryInput q : load(name).getQueries()) {
+            out.add(q.getQuery());
+        }
+        return out;
+    }
+
+    /** Catalog of the first DDL statement, e.g. "flights" for CREATE TABLE flights.public.flights. */
+    public static String catalog(String name) {
+        String ddl = load(name).getDdl().get(0).getStatement();
+        String fqtn = ddl.replaceFirst("(?is)^\\s*CREATE\\s+TABLE\\s+", "");
+        return fqtn.substring(0, fqtn.indexOf('.'));
+    }
+}
@@ -0,0 +1,43 @@
+package ru.javaboys.vibe_data.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.javaboys.vibe_data.service.CacheKeyUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheKeyUtils.normalize runs on every EXPLAIN cache lookup (key of trino-db-explain-cache).
+ * One invocation normalizes every query of the dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheKeyNormalizeBenchmark {
+
+    @Param({BenchmarkDatasets.FLIGHTS, BenchmarkDatasets.QUESTS})
+    public String dataset;
+
+    private final CacheKeyUtils cacheKeyUtils = new CacheKeyUtils();
+    private List<String> queries;
+
+    @Setup
+    public void setUp() {
+        queries = BenchmarkDatasets.queries(dataset);
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String sql : queries) {
+            bh.consume(cacheKeyUtils.normalize(sql));
+        }
+    }
+}
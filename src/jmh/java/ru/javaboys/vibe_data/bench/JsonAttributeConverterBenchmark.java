@@ -0,0 +1,82 @@
+package ru.javaboys.vibe_data.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.javaboys.vibe_data.domain.converter.RewrittenQueryListJsonConverter;
+import ru.javaboys.vibe_data.domain.converter.SqlBlockListJsonConverter;
+import ru.javaboys.vibe_data.domain.converter.TaskInputPayloadJsonConverter;
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+import ru.javaboys.vibe_data.domain.jsonb.RewrittenQuery;
+import ru.javaboys.vibe_data.domain.jsonb.SqlBlock;
+import ru.javaboys.vibe_data.domain.jsonb.TaskInputPayload;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AbstractJsonAttributeConverter: Bean Validation + Jackson on every JSONB write,
+ * strict deserialization on every read. Inputs mirror what a task stores:
+ * the input payload and the result lists (DDL blocks, rewritten queries).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonAttributeConverterBenchmark {
+
+    @Param({BenchmarkDatasets.FLIGHTS, BenchmarkDatasets.QUESTS})
+    public String dataset;
+
+    private final TaskInputPayloadJsonConverter payloadConverter = new TaskInputPayloadJsonConverter();
+    private final SqlBlockListJsonConverter sqlBlockConverter = new SqlBlockListJsonConverter();
+    private final RewrittenQueryListJsonConverter rewrittenQueryConverter = new RewrittenQueryListJsonConverter();
+
+    private TaskInputPayload payload;
+    private Object payloadColumn;
+    private List<SqlBlock> ddlBlocks;
+    private List<RewrittenQuery> rewrittenQueries;
+
+    @Setup
+    public void setUp() {
+        payload = BenchmarkDatasets.load(dataset);
+        payloadColumn = payloadConverter.convertToDatabaseColumn(payload);
+        ddlBlocks = payload.getDdl().stream()
+                .map(d -> SqlBlock.builder().statement(d.getStatement()).build())
+                .toList();
+        rewrittenQueries = payload.getQueries().stream()
+                .map(this::toRewritten)
+                .toList();
+    }
+
+    private RewrittenQuery toRewritten(QueryInput q) {
+        return RewrittenQuery.builder()
+                .queryid(q.getQueryid())
+                .query(q.getQuery())
+                .build();
+    }
+
+    @Benchmark
+    public Object writeTaskInputPayload() {
+        return payloadConverter.convertToDatabaseColumn(payload);
+    }
+
+    @Benchmark
+    public TaskInputPayload readTaskInputPayload() {
+        return payloadConverter.convertToEntityAttribute(payloadColumn);
+    }
+
+    @Benchmark
+    public Object writeDdlBlocks() {
+        return sqlBlockConverter.convertToDatabaseColumn(ddlBlocks);
+    }
+
+    @Benchmark
+    public Object writeRewrittenQueries() {
+        return rewrittenQueryConverter.convertToDatabaseColumn(rewrittenQueries);
+    }
+}
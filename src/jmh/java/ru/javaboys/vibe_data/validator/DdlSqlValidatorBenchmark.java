@@ -0,0 +1,118 @@
+package ru.javaboys.vibe_data.validator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.javaboys.vibe_data.bench.BenchmarkDatasets;
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pure-CPU helpers of DdlSqlValidator that run per statement / per sampled value:
+ * schema suffixing of every query and DDL before local runs, and literal rendering
+ * for every cell copied from prod into the local sample tables.
+ * Lives in the validator package to reach the protected methods; no Trino is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DdlSqlValidatorBenchmark {
+
+    private static final Pattern COLUMN = Pattern.compile(
+            "(?i)([a-z_][a-z0-9_]*)\\s+(integer|bigint|smallint|tinyint|double|real|decimal\\(\\d+,\\s*\\d+\\)|varchar|char|date|timestamp(?:\\(\\d\\))?|boolean)\\s*[,)]");
+
+    private static final String[] STRINGS = {
+            "DL", "Dallas/Fort Worth, TX", "N123AA", "O'Hare", "1100-1159", "Texas", "ATL", "AA_CODESHARE"
+    };
+
+    /** Enough values to cover one LIMIT 50 sample of a wide table. */
+    private static final int VALUES = 5_000;
+
+    @Param({BenchmarkDatasets.FLIGHTS, BenchmarkDatasets.QUESTS})
+    public String dataset;
+
+    private final DdlSqlValidator validator = new DdlSqlValidator(null, null, null);
+
+    private List<String> statements;
+    private String catalog;
+    private Object[] values;
+    private String[] types;
+
+    @Setup
+    public void setUp() {
+        var payload = BenchmarkDatasets.load(dataset);
+        catalog = BenchmarkDatasets.catalog(dataset);
+
+        statements = new ArrayList<>(BenchmarkDatasets.queries(dataset));
+        List<String> columnTypes = new ArrayList<>();
+        for (DdlStatement d : payload.getDdl()) {
+            statements.add(d.getStatement());
+            Matcher m = COLUMN.matcher(d.getStatement());
+            while (m.find()) {
+                columnTypes.add(m.group(2).toLowerCase(Locale.ROOT));
+            }
+        }
+
+        // Значения раскладываются по колонкам DDL циклически, как строки выборки
+        Random rnd = new Random(42);
+        values = new Object[VALUES];
+        types = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            String type = columnTypes.get(i % columnTypes.size());
+            types[i] = type;
+            values[i] = sampleValue(type, rnd);
+        }
+    }
+
+    private static Object sampleValue(String type, Random rnd) {
+        if (rnd.nextInt(20) == 0) {
+            return null;
+        }
+        if (type.startsWith("double") || type.startsWith("real")) {
+            return Math.round((rnd.nextDouble() * 2000 - 100) * 100) / 100.0;
+        }
+        if (type.startsWith("decimal")) {
+            return new java.math.BigDecimal(rnd.nextInt(100_000)).movePointLeft(2);
+        }
+        if (type.startsWith("boolean")) {
+            return rnd.nextBoolean();
+        }
+        if (type.startsWith("date")) {
+            return java.sql.Date.valueOf(java.time.LocalDate.of(2022, 1, 1).plusDays(rnd.nextInt(365)));
+        }
+        if (type.startsWith("timestamp")) {
+            return java.sql.Timestamp.valueOf(java.time.LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(rnd.nextInt(31_536_000)));
+        }
+        if (type.endsWith("int") || type.startsWith("integer") || type.startsWith("bigint")) {
+            return rnd.nextInt(10_000);
+        }
+        return STRINGS[rnd.nextInt(STRINGS.length)];
+    }
+
+    @Benchmark
+    public void addSchemaSuffixToSql(Blackhole bh) {
+        for (String sql : statements) {
+            bh.consume(validator.addSchemaSuffixToSql(sql, catalog, "r1a2b3c4"));
+        }
+    }
+
+    @Benchmark
+    public void sqlLiteralForType(Blackhole bh) {
+        for (int i = 0; i < values.length; i++) {
+            bh.consume(validator.sqlLiteralForType(values[i], types[i]));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.javaboys.vibe_data.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal "--name=value" argument parser; a repeated option collects all its values.
+ */
+final class CliArgs {
+
+    private final Map<String, List<String>> values;
+
+    private CliArgs(Map<String, List<String>> values) {
+        this.values = values;
+    }
+
+    static CliArgs parse(String[] args) {
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg + ", expected --name=value");
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            values.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+        return new CliArgs(values);
+    }
+
+    String get(String name, String defaultValue) {
+        List<String> v = values.get(name);
+        return v == null ? defaultValue : v.get(v.size() - 1);
+    }
+
+    List<String> all(String name) {
+        List<String> out = new ArrayList<>();
+        for (String v : values.getOrDefault(name, List.of())) {
+            for (String part : v.split(",")) {
+                if (!part.isBlank()) {
+                    out.add(part.trim());
+                }
+            }
+        }
+        return out;
+    }
+
+    int getInt(String name, int defaultValue) {
+        String v = get(name, null);
+        return v == null ? defaultValue : Integer.parseInt(v);
+    }
+
+    long getLong(String name, long defaultValue) {
+        String v = get(name, null);
+        return v == null ? defaultValue : Long.parseLong(v);
+    }
+
+    double getDouble(String name, double defaultValue) {
+        String v = get(name, null);
+        return v == null ? defaultValue : Double.parseDouble(v);
+    }
+
+    /** Durations as in application.properties: "500ms", "30s", "20m". */
+    Duration getDuration(String name, Duration defaultValue) {
+        String v = get(name, null);
+        if (v == null) {
+            return defaultValue;
+        }
+        if (v.endsWith("ms")) return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+        if (v.endsWith("s")) return Duration.ofSeconds(Long.parseLong(v.substring(0, v.length() - 1)));
+        if (v.endsWith("m")) return Duration.ofMinutes(Long.parseLong(v.substring(0, v.length() - 1)));
+        return Duration.ofMillis(Long.parseLong(v));
+    }
+}
@@ -0,0 +1,59 @@
+package ru.javaboys.vibe_data.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Log-normal response latency given by its median and p99 (milliseconds), which is how
+ * LLM latencies are usually quoted. Spec format: "median:p99", e.g. "4000:15000";
+ * per model: "gpt-4o:4000:15000". A spec with equal values is a fixed latency.
+ */
+public record LatencyModel(long medianMs, long p99Ms) {
+
+    // z-score of the 99th percentile of the standard normal distribution
+    private static final double Z99 = 2.3263;
+
+    public long sample(long seed) {
+        if (p99Ms <= medianMs) {
+            return medianMs;
+        }
+        double sigma = Math.log((double) p99Ms / medianMs) / Z99;
+        double gaussian = gaussian(new SplittableRandom(seed));
+        return Math.round(medianMs * Math.exp(sigma * gaussian));
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller; 1 - u keeps the logarithm argument in (0, 1]
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+    }
+
+    public static LatencyModel parse(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Latency must be <median>:<p99> in ms, got " + spec);
+        }
+        return new LatencyModel(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+    }
+
+    /** Parses "model:median:p99" specs (model names may not contain ':'). */
+    public static Map<String, LatencyModel> parseAll(List<String> specs) {
+        Map<String, LatencyModel> out = new LinkedHashMap<>();
+        for (String spec : specs) {
+            int i = spec.indexOf(':');
+            if (i <= 0) {
+                throw new IllegalArgumentException("Model latency must be <model>:<median>:<p99>, got " + spec);
+            }
+            out.put(spec.substring(0, i), parse(spec.substring(i + 1)));
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + medianMs + "ms/p99=" + p99Ms + "ms";
+    }
+}
@@ -0,0 +1,199 @@
+package ru.javaboys.vibe_data.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Open-loop load generator for the /new → /status → /getresult pipeline.
+ *
+ * Task payloads (bodies of POST /new) are taken from --payloads: a directory (every *.json is one payload,
+ * every *.jsonl line is one payload) or a single file; they are replayed round-robin at --rate tasks per minute
+ * regardless of how fast the service answers, so queueing shows up as latency. For each task the end-to-end
+ * latency is measured from POST /new until /getresult is returned.
+ *
+ * Run: ./gradlew loadTest -PloadTestArgs="--target=http://localhost:8080 --rate=30 --tasks=60"
+ * Basic auth is taken from --user/--password or BASIC_AUTH_USERNAME/BASIC_AUTH_PASSWORD.
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final String target;
+    private final String authHeader;
+    private final Duration pollInterval;
+    private final Duration taskTimeout;
+
+    private final ConcurrentLinkedQueue<TaskOutcome> outcomes = new ConcurrentLinkedQueue<>();
+
+    record TaskOutcome(String status, long latencyMs, long finishedAtNs) {}
+
+    LoadGenerator(String target, String user, String password, Duration pollInterval, Duration taskTimeout) {
+        this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        this.authHeader = user == null || user.isBlank() ? null
+                : "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.pollInterval = pollInterval;
+        this.taskTimeout = taskTimeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CliArgs cli = CliArgs.parse(args);
+        List<String> payloads = loadPayloads(Path.of(cli.get("payloads", "dataset")), cli.get("model", null));
+        if (payloads.isEmpty()) {
+            throw new IllegalArgumentException("No payloads found in " + cli.get("payloads", "dataset"));
+        }
+        LoadGenerator generator = new LoadGenerator(
+                cli.get("target", "http://localhost:8080"),
+                cli.get("user", System.getenv("BASIC_AUTH_USERNAME")),
+                cli.get("password", System.getenv("BASIC_AUTH_PASSWORD")),
+                cli.getDuration("poll-interval", Duration.ofSeconds(1)),
+                cli.getDuration("task-timeout", Duration.ofMinutes(20)));
+        generator.run(payloads, cli.getDouble("rate", 30), cli.getInt("tasks", 2 * payloads.size()));
+    }
+
+    void run(List<String> payloads, double tasksPerMinute, int tasks) throws InterruptedException {
+        long intervalNs = (long) (TimeUnit.MINUTES.toNanos(1) / tasksPerMinute);
+        System.out.printf(Locale.ROOT, "Replaying %d payloads: %d tasks at %.1f tasks/min against %s%n",
+                payloads.size(), tasks, tasksPerMinute, target);
+
+        long startNs = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < tasks; i++) {
+                long dueNs = startNs + i * intervalNs;
+                long waitNs = dueNs - System.nanoTime();
+                if (waitNs > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNs);
+                }
+                String payload = payloads.get(i % payloads.size());
+                executor.execute(() -> outcomes.add(runTask(payload)));
+            }
+            // close() waits for the submitted tasks to finish
+        }
+        report(startNs);
+    }
+
+    private TaskOutcome runTask(String payload) {
+        long submittedNs = System.nanoTime();
+        String status;
+        try {
+            JsonNode created = send(HttpRequest.newBuilder(URI.create(target + "/new"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(payload)));
+            String taskId = created.path("taskid").asText();
+            status = awaitStatus(taskId, submittedNs);
+            if ("DONE".equals(status)) {
+                send(HttpRequest.newBuilder(URI.create(target + "/getresult?task_id=" + taskId)).GET());
+            }
+        } catch (Exception e) {
+            System.err.println("Task failed on the client side: " + e);
+            status = "ERROR";
+        }
+        long finishedNs = System.nanoTime();
+        return new TaskOutcome(status, TimeUnit.NANOSECONDS.toMillis(finishedNs - submittedNs), finishedNs);
+    }
+
+    private String awaitStatus(String taskId, long submittedNs) throws IOException, InterruptedException {
+        URI uri = URI.create(target + "/status?task_id=" + taskId);
+        while (System.nanoTime() - submittedNs < taskTimeout.toNanos()) {
+            String status = send(HttpRequest.newBuilder(uri).GET()).path("status").asText();
+            if (!"RUNNING".equals(status)) {
+                return status;
+            }
+            Thread.sleep(pollInterval.toMillis());
+        }
+        return "TIMEOUT";
+    }
+
+    private JsonNode send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        if (authHeader != null) {
+            request.header("Authorization", authHeader);
+        }
+        HttpResponse<String> response = http.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("HTTP " + response.statusCode() + " from " + response.uri() + ": " + response.body());
+        }
+        return MAPPER.readTree(response.body());
+    }
+
+    private void report(long startNs) {
+        List<TaskOutcome> all = new ArrayList<>(outcomes);
+        long[] latencies = all.stream().filter(o -> "DONE".equals(o.status())).mapToLong(TaskOutcome::latencyMs).sorted().toArray();
+        long lastFinishNs = all.stream().mapToLong(TaskOutcome::finishedAtNs).max().orElse(startNs);
+        double minutes = Math.max(1e-9, (lastFinishNs - startNs) / 60e9);
+
+        System.out.println();
+        System.out.printf("Tasks: %d, DONE: %d, FAILED: %d, TIMEOUT: %d, client errors: %d%n",
+                all.size(), latencies.length, count(all, "FAILED"), count(all, "TIMEOUT"), count(all, "ERROR"));
+        System.out.printf(Locale.ROOT, "Throughput: %.2f tasks/min (DONE over %.1f min)%n", latencies.length / minutes, minutes);
+        if (latencies.length > 0) {
+            System.out.printf("End-to-end latency, ms: p50=%d p90=%d p99=%d max=%d%n",
+                    percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), latencies[latencies.length - 1]);
+        }
+    }
+
+    private static long count(List<TaskOutcome> all, String status) {
+        return all.stream().filter(o -> status.equals(o.status())).count();
+    }
+
+    /** Nearest-rank percentile of a sorted array. */
+    static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    static List<String> loadPayloads(Path source, String modelOverride) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> list = Files.list(source)) {
+                list.filter(p -> p.toString().endsWith(".json") || p.toString().endsWith(".jsonl")).sorted().forEach(files::add);
+            }
+        } else {
+            files.add(source);
+        }
+        List<String> payloads = new ArrayList<>();
+        for (Path file : files) {
+            if (file.toString().endsWith(".jsonl")) {
+                for (String line : Files.readAllLines(file)) {
+                    if (!line.isBlank()) {
+                        payloads.add(withModel(line, modelOverride));
+                    }
+                }
+            } else {
+                payloads.add(withModel(Files.readString(file), modelOverride));
+            }
+        }
+        return payloads;
+    }
+
+    private static String withModel(String payload, String model) throws IOException {
+        JsonNode node = MAPPER.readTree(payload);
+        if (!node.has("ddl") || !node.has("queries")) {
+            throw new IllegalArgumentException("Not a /new payload (expected url, ddl, queries): "
+                    + payload.substring(0, Math.min(120, payload.length())));
+        }
+        if (model != null) {
+            ((ObjectNode) node).put("llmModel", model);
+        }
+        return MAPPER.writeValueAsString(node);
+    }
+}
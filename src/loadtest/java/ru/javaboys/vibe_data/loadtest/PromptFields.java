@@ -0,0 +1,35 @@
+package ru.javaboys.vibe_data.loadtest;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the values the agent substitutes into PromptTemplates, so canned answers
+ * can echo the query id, the query text and the catalog back.
+ */
+final class PromptFields {
+
+    private static final Pattern QUERY_ID = Pattern.compile("queryid:\\s*(\\S+)");
+    private static final Pattern QUERY_SQL = Pattern.compile(
+            "SQL-запрос, который нужно оптимизировать:\\s*(.*?)\\s*\\n\\s*Важно:", Pattern.DOTALL);
+    private static final Pattern CATALOG = Pattern.compile(
+            "CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?\"?(\\w+)\"?\\.", Pattern.CASE_INSENSITIVE);
+
+    private PromptFields() {
+    }
+
+    static String queryId(String prompt) {
+        Matcher m = QUERY_ID.matcher(prompt);
+        return m.find() ? m.group(1) : "";
+    }
+
+    static String querySql(String prompt) {
+        Matcher m = QUERY_SQL.matcher(prompt);
+        return m.find() ? m.group(1) : "SELECT 1";
+    }
+
+    static String catalog(String prompt) {
+        Matcher m = CATALOG.matcher(prompt);
+        return m.find() ? m.group(1) : "iceberg";
+    }
+}
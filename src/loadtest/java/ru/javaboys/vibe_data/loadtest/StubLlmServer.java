@@ -0,0 +1,363 @@
+package ru.javaboys.vibe_data.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OpenAI-compatible chat completions server with scripted, reproducible behaviour.
+ *
+ * Point the service at it with OPENAI_BASE_URL=http://localhost:&lt;port&gt; (any OPENAI_API_KEY).
+ * For every request the stub:
+ * - sleeps for a latency drawn from the model's distribution (seeded by the request content,
+ *   so the same conversation always gets the same latency);
+ * - in the per-query prompt, first answers with up to --tool-calls calls of the TrinoExplainTools
+ *   functions offered in "tools", then with the canned PerQueryOptimizationOutput;
+ * - answers the migration prompt with the canned FinalMigrationOutput and the autofix prompt with an AutoFixOutput.
+ * Both plain and streaming (SSE, with usage chunk) responses are supported.
+ *
+ * Run: ./gradlew stubLlm -PstubArgs="--port=8089 --latency=gpt-4o:4000:15000 --tool-calls=1"
+ */
+public class StubLlmServer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final List<String> EXPLAIN_TOOLS = List.of("explainLogical", "explainIo", "explainDistributed");
+
+    private final StubResponses responses;
+    private final Map<String, LatencyModel> latencies;
+    private final LatencyModel defaultLatency;
+    private final int toolCalls;
+    private final long seed;
+    private final int streamChunkChars;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    StubLlmServer(StubResponses responses,
+                  Map<String, LatencyModel> latencies,
+                  LatencyModel defaultLatency,
+                  int toolCalls,
+                  long seed,
+                  int streamChunkChars) {
+        this.responses = responses;
+        this.latencies = latencies;
+        this.defaultLatency = defaultLatency;
+        this.toolCalls = toolCalls;
+        this.seed = seed;
+        this.streamChunkChars = Math.max(1, streamChunkChars);
+    }
+
+    public static void main(String[] args) throws IOException {
+        CliArgs cli = CliArgs.parse(args);
+        StubLlmServer stub = new StubLlmServer(
+                StubResponses.load(cli.get("responses", null)),
+                LatencyModel.parseAll(cli.all("latency")),
+                LatencyModel.parse(cli.get("default-latency", "3000:12000")),
+                cli.getInt("tool-calls", 1),
+                cli.getLong("seed", 42L),
+                cli.getInt("stream-chunk-chars", 16));
+
+        int port = cli.getInt("port", 8089);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 256);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/v1/chat/completions", stub::handleChat);
+        server.createContext("/v1/models", stub::handleModels);
+        server.start();
+        System.out.printf("Stub LLM listening on http://localhost:%d (tool calls per query: %d, latencies: %s, default: %s)%n",
+                port, stub.toolCalls, stub.latencies, stub.defaultLatency);
+    }
+
+    private void handleModels(HttpExchange exchange) throws IOException {
+        ObjectNode body = MAPPER.createObjectNode().put("object", "list");
+        ArrayNode data = body.putArray("data");
+        for (String model : latencies.keySet()) {
+            data.addObject().put("id", model).put("object", "model").put("owned_by", "stub");
+        }
+        sendJson(exchange, 200, body);
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, error("Only POST is supported"));
+                return;
+            }
+            JsonNode request;
+            try {
+                request = MAPPER.readTree(exchange.getRequestBody());
+            } catch (JsonProcessingException e) {
+                sendJson(exchange, 400, error("Malformed JSON: " + e.getOriginalMessage()));
+                return;
+            }
+            String model = request.path("model").asText("gpt-4o");
+            Conversation conversation = Conversation.of(request);
+
+            long requestSeed = seed ^ conversation.fingerprint();
+            LatencyModel latency = latencies.getOrDefault(model, defaultLatency);
+            long latencyMs = latency.sample(requestSeed);
+
+            Reply reply = reply(conversation);
+            long promptTokens = estimateTokens(conversation.totalChars());
+            long completionTokens = estimateTokens(reply.content() == null ? 64 : reply.content().length());
+            long n = requests.incrementAndGet();
+            System.out.printf("#%d %s %s %dms%n", n, model, reply.kind(), latencyMs);
+
+            if (request.path("stream").asBoolean(false)) {
+                boolean usage = request.path("stream_options").path("include_usage").asBoolean(false);
+                stream(exchange, model, reply, latencyMs, usage ? new long[]{promptTokens, completionTokens} : null);
+            } else {
+                sleep(latencyMs);
+                sendJson(exchange, 200, completion(model, reply, promptTokens, completionTokens));
+            }
+        } catch (Exception e) {
+            System.err.println("Stub request failed: " + e);
+        }
+    }
+
+    private Reply reply(Conversation conversation) {
+        String prompt = conversation.lastUserText();
+        if (prompt.contains("IN_DDL")) {
+            return Reply.content("autofix", responses.autofix());
+        }
+        if (prompt.contains("queryid:")) {
+            int done = conversation.toolResultsAfterLastUser();
+            List<String> offered = conversation.toolNames();
+            if (done < toolCalls) {
+                String tool = pickTool(offered, done);
+                if (tool != null) {
+                    ObjectNode arguments = MAPPER.createObjectNode().put("sql", PromptFields.querySql(prompt));
+                    return Reply.toolCall("tool:" + tool, tool, arguments.toString());
+                }
+            }
+            return Reply.content("per-query", responses.perQuery(PromptFields.queryId(prompt), PromptFields.querySql(prompt)));
+        }
+        if (prompt.contains("Финальная задача")) {
+            return Reply.content("final", responses.finalMigration(PromptFields.catalog(prompt)));
+        }
+        return Reply.content("other", "{}");
+    }
+
+    private static String pickTool(List<String> offered, int index) {
+        List<String> available = new ArrayList<>();
+        for (String tool : EXPLAIN_TOOLS) {
+            if (offered.contains(tool)) {
+                available.add(tool);
+            }
+        }
+        return available.isEmpty() ? null : available.get(index % available.size());
+    }
+
+    // ===== responses =====
+
+    private ObjectNode completion(String model, Reply reply, long promptTokens, long completionTokens) {
+        ObjectNode body = MAPPER.createObjectNode()
+                .put("id", "chatcmpl-" + UUID.randomUUID())
+                .put("object", "chat.completion")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+        ObjectNode choice = body.putArray("choices").addObject().put("index", 0);
+        ObjectNode message = choice.putObject("message").put("role", "assistant");
+        if (reply.toolName() != null) {
+            message.putNull("content");
+            toolCallNode(message.putArray("tool_calls").addObject(), reply, false);
+            choice.put("finish_reason", "tool_calls");
+        } else {
+            message.put("content", reply.content());
+            choice.put("finish_reason", "stop");
+        }
+        usage(body, promptTokens, completionTokens);
+        return body;
+    }
+
+    private void stream(HttpExchange exchange, String model, Reply reply, long latencyMs, long[] usage) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        String id = "chatcmpl-" + UUID.randomUUID();
+        OutputStream out = exchange.getResponseBody();
+
+        if (reply.toolName() != null) {
+            sleep(latencyMs);
+            ObjectNode chunk = chunk(id, model);
+            ObjectNode delta = chunk.putArray("choices").addObject().put("index", 0).putObject("delta").put("role", "assistant");
+            toolCallNode(delta.putArray("tool_calls").addObject(), reply, true);
+            sse(out, chunk);
+            sse(out, finish(id, model, "tool_calls"));
+        } else {
+            // a third of the latency is the time to first token, the rest is spread over the chunks
+            String content = reply.content();
+            int chunks = Math.max(1, (content.length() + streamChunkChars - 1) / streamChunkChars);
+            long firstTokenMs = latencyMs / 3;
+            long perChunkMs = (latencyMs - firstTokenMs) / chunks;
+            sleep(firstTokenMs);
+            for (int i = 0; i < chunks; i++) {
+                String piece = content.substring(i * streamChunkChars, Math.min(content.length(), (i + 1) * streamChunkChars));
+                ObjectNode chunk = chunk(id, model);
+                ObjectNode delta = chunk.putArray("choices").addObject().put("index", 0).putObject("delta");
+                if (i == 0) {
+                    delta.put("role", "assistant");
+                }
+                delta.put("content", piece);
+                sse(out, chunk);
+                sleep(perChunkMs);
+            }
+            sse(out, finish(id, model, "stop"));
+        }
+        if (usage != null) {
+            ObjectNode chunk = chunk(id, model);
+            chunk.putArray("choices");
+            usage(chunk, usage[0], usage[1]);
+            sse(out, chunk);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static ObjectNode chunk(String id, String model) {
+        return MAPPER.createObjectNode()
+                .put("id", id)
+                .put("object", "chat.completion.chunk")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+    }
+
+    private static ObjectNode finish(String id, String model, String reason) {
+        ObjectNode chunk = chunk(id, model);
+        chunk.putArray("choices").addObject().put("index", 0).put("finish_reason", reason).putObject("delta");
+        return chunk;
+    }
+
+    private static void toolCallNode(ObjectNode call, Reply reply, boolean streaming) {
+        if (streaming) {
+            call.put("index", 0);
+        }
+        call.put("id", "call_" + UUID.randomUUID().toString().replace("-", "").substring(0, 24))
+                .put("type", "function")
+                .putObject("function")
+                .put("name", reply.toolName())
+                .put("arguments", reply.toolArguments());
+    }
+
+    private static void usage(ObjectNode body, long promptTokens, long completionTokens) {
+        body.putObject("usage")
+                .put("prompt_tokens", promptTokens)
+                .put("completion_tokens", completionTokens)
+                .put("total_tokens", promptTokens + completionTokens);
+    }
+
+    private static ObjectNode error(String message) {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.putObject("error").put("message", message).put("type", "invalid_request_error");
+        return body;
+    }
+
+    private static void sse(OutputStream out, JsonNode chunk) throws IOException {
+        out.write(("data: " + MAPPER.writeValueAsString(chunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    /** Rough OpenAI-like estimate: ~4 characters per token. */
+    private static long estimateTokens(long chars) {
+        return Math.max(1, chars / 4);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    record Reply(String kind, String content, String toolName, String toolArguments) {
+        static Reply content(String kind, String content) {
+            return new Reply(kind, content, null, null);
+        }
+
+        static Reply toolCall(String kind, String toolName, String toolArguments) {
+            return new Reply(kind, null, toolName, toolArguments);
+        }
+    }
+
+    /** The parts of a chat completions request the scenarios depend on. */
+    record Conversation(List<JsonNode> messages, List<String> toolNames) {
+
+        static Conversation of(JsonNode request) {
+            List<JsonNode> messages = new ArrayList<>();
+            request.path("messages").forEach(messages::add);
+            List<String> tools = new ArrayList<>();
+            request.path("tools").forEach(t -> tools.add(t.path("function").path("name").asText()));
+            return new Conversation(messages, tools);
+        }
+
+        String lastUserText() {
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                if ("user".equals(messages.get(i).path("role").asText())) {
+                    return text(messages.get(i));
+                }
+            }
+            return "";
+        }
+
+        int toolResultsAfterLastUser() {
+            int count = 0;
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                String role = messages.get(i).path("role").asText();
+                if ("user".equals(role)) {
+                    break;
+                }
+                if ("tool".equals(role)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        long totalChars() {
+            long chars = 0;
+            for (JsonNode m : messages) {
+                chars += text(m).length();
+            }
+            return chars;
+        }
+
+        /** Stable per conversation state: same prompt and same number of turns give the same value. */
+        long fingerprint() {
+            return (long) lastUserText().hashCode() * 31 + messages.size();
+        }
+
+        private static String text(JsonNode message) {
+            JsonNode content = message.path("content");
+            if (content.isArray()) {
+                StringBuilder sb = new StringBuilder();
+                content.forEach(part -> sb.append(part.path("text").asText("")));
+                return sb.toString();
+            }
+            return content.asText("");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.javaboys.vibe_data.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Canned JSON answers of the stub LLM. Templates live in src/loadtest/resources/stub-llm and can be
+ * replaced with --responses=&lt;dir&gt; (same file names). Placeholders {{queryid}} and {{query_sql}}
+ * are substituted as JSON string literals, {{catalog}} as a bare identifier (for use inside SQL strings).
+ */
+final class StubResponses {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final String PER_QUERY = "per-query-output.json";
+    static final String FINAL_MIGRATION = "final-migration-output.json";
+    static final String AUTOFIX = "autofix-output.json";
+
+    private final String perQuery;
+    private final String finalMigration;
+    private final String autofix;
+
+    private StubResponses(String perQuery, String finalMigration, String autofix) {
+        this.perQuery = perQuery;
+        this.finalMigration = finalMigration;
+        this.autofix = autofix;
+    }
+
+    static StubResponses load(String dir) {
+        return new StubResponses(read(dir, PER_QUERY), read(dir, FINAL_MIGRATION), read(dir, AUTOFIX));
+    }
+
+    String perQuery(String queryId, String querySql) {
+        return perQuery.replace("{{queryid}}", literal(queryId)).replace("{{query_sql}}", literal(querySql));
+    }
+
+    String finalMigration(String catalog) {
+        return finalMigration.replace("{{catalog}}", catalog);
+    }
+
+    String autofix() {
+        return autofix;
+    }
+
+    private static String literal(String value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String read(String dir, String name) {
+        try {
+            if (dir != null) {
+                Path file = Path.of(dir, name);
+                if (Files.exists(file)) {
+                    return Files.readString(file);
+                }
+            }
+            try (InputStream in = StubResponses.class.getResourceAsStream("/stub-llm/" + name)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing stub response template " + name);
+                }
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read stub response " + name, e);
+        }
+    }
+}
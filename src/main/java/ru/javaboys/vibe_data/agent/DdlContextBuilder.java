@@ -0,0 +1,208 @@
+package ru.javaboys.vibe_data.agent;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.javaboys.vibe_data.agent.rules.TableSchema;
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+import ru.javaboys.vibe_data.domain.jsonb.SqlBlock;
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Token;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Контекст DDL для промпта шага оптимизации одного запроса. Вместо всего исходного DDL в промпт идут
+ * только таблицы, на которые запрос ссылается полным именем, и в них — только колонки, упомянутые
+ * в запросе, плюс колонки партиционирования и сортировки. Из накопленного DDL остаются операторы,
+ * затрагивающие эти таблицы. Накопленный DDL пишет в новую схему, поэтому объект новой схемы относится
+ * к исходной таблице с тем же именем и к таблицам, из которых он построен (CREATE TABLE ... AS SELECT,
+ * INSERT ... SELECT). Если запрос не ссылается ни на одну известную таблицу, контекст не режется.
+ *
+ * Токены оцениваются как символы / 4; экономия по каждому вызову пишется в метрики llm.prompt.ddl.tokens.
+ */
+@Component
+public class DdlContextBuilder {
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    /** Оператор исходного DDL; table — null, если это не разобранный CREATE TABLE. */
+    public record Statement(String text, TableSchema table) {}
+
+    /**
+     * @param originalDdl    исходный DDL для промпта
+     * @param accumulatedDdl накопленный DDL для промпта
+     * @param fullTokens     оценка токенов полного контекста
+     * @param prunedTokens   оценка токенов отправленного контекста
+     */
+    public record Context(String originalDdl, String accumulatedDdl, int fullTokens, int prunedTokens) {
+        public int savedTokens() {
+            return fullTokens - prunedTokens;
+        }
+    }
+
+    private final boolean enabled;
+    private final DistributionSummary fullTokens;
+    private final DistributionSummary prunedTokens;
+
+    /**
+     * @param enabled false — в каждый промпт идёт весь DDL, как раньше
+     */
+    public DdlContextBuilder(MeterRegistry meterRegistry,
+                             @Value("${processing.ddl-pruning.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        this.fullTokens = summary(meterRegistry, "full");
+        this.prunedTokens = summary(meterRegistry, "pruned");
+    }
+
+    private static DistributionSummary summary(MeterRegistry registry, String stage) {
+        return DistributionSummary.builder("llm.prompt.ddl.tokens")
+                .description("Оценка токенов DDL в промпте шага оптимизации: полный и сокращённый контекст")
+                .baseUnit("tokens")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    /** Разбирает исходный DDL один раз на задачу. */
+    public List<Statement> prepare(List<DdlStatement> ddl) {
+        List<Statement> statements = new ArrayList<>();
+        if (ddl == null) return statements;
+        for (DdlStatement d : ddl) {
+            if (d == null || d.getStatement() == null) continue;
+            statements.add(new Statement(d.getStatement(), TableSchema.parse(d.getStatement())));
+        }
+        return statements;
+    }
+
+    public Context build(List<Statement> original, Collection<SqlBlock> accumulated, String querySql) {
+        String fullOriginal = original.stream().map(Statement::text).collect(Collectors.joining("\n\n"));
+        String fullAccumulated = accumulated.stream().map(SqlBlock::getStatement).collect(Collectors.joining("\n\n"));
+        int full = tokens(fullOriginal) + tokens(fullAccumulated);
+
+        List<Token> queryTokens = SqlTokenizer.tokenize(querySql);
+        Set<String> names = TableSchema.qualifiedNames(queryTokens);
+        Set<String> referenced = new HashSet<>();
+        Set<String> known = new HashSet<>();
+        for (Statement s : original) {
+            if (s.table() == null) continue;
+            known.add(s.table().name());
+            if (names.contains(s.table().name())) referenced.add(s.table().name());
+        }
+        if (!enabled || referenced.isEmpty()) {
+            return record(new Context(fullOriginal, fullAccumulated, full, full));
+        }
+
+        Set<String> identifiers = new HashSet<>();
+        boolean star = false;
+        for (int i = 0; i < queryTokens.size(); i++) {
+            Token t = queryTokens.get(i);
+            if (TableSchema.isIdentifier(t)) {
+                identifiers.add(TableSchema.identifier(t));
+            } else if (t.text().equals("*") && i > 0 && isStarContext(queryTokens.get(i - 1))) {
+                star = true;
+            }
+        }
+
+        List<String> prunedOriginal = new ArrayList<>();
+        for (Statement s : original) {
+            if (s.table() == null) {
+                prunedOriginal.add(s.text());
+            } else if (referenced.contains(s.table().name())) {
+                if (star) {
+                    prunedOriginal.add(s.text());
+                    continue;
+                }
+                Set<String> keep = new HashSet<>(s.table().layoutColumns());
+                for (String column : s.table().columns().keySet()) {
+                    if (identifiers.contains(column)) keep.add(column);
+                }
+                prunedOriginal.add(s.table().pruned(keep));
+            }
+        }
+
+        // оператор без ссылок на известные таблицы оставляем: по нему нельзя понять, к чему он относится
+        Map<String, Set<String>> bySimpleName = new HashMap<>();
+        for (String name : known) {
+            bySimpleName.computeIfAbsent(simpleName(name), k -> new HashSet<>()).add(name);
+        }
+        // объект новой схемы → исходные таблицы, из которых он построен предыдущими операторами
+        Map<String, Set<String>> origins = new HashMap<>();
+        List<String> prunedAccumulated = new ArrayList<>();
+        for (SqlBlock block : accumulated) {
+            List<Token> tokens = SqlTokenizer.tokenize(block.getStatement());
+            Set<String> touched = new HashSet<>();
+            for (String name : TableSchema.qualifiedNames(tokens)) {
+                touched.addAll(originalsOf(name, known, bySimpleName, origins));
+            }
+            String target = target(block.getStatement(), tokens);
+            if (target != null && !known.contains(target)) {
+                origins.computeIfAbsent(target, k -> new HashSet<>()).addAll(touched);
+            }
+            if (touched.isEmpty() || touched.stream().anyMatch(referenced::contains)) {
+                prunedAccumulated.add(block.getStatement());
+            }
+        }
+
+        String originalText = String.join("\n\n", prunedOriginal);
+        String accumulatedText = String.join("\n\n", prunedAccumulated);
+        return record(new Context(originalText, accumulatedText, full, tokens(originalText) + tokens(accumulatedText)));
+    }
+
+    // исходные таблицы, к которым относится имя из накопленного DDL
+    private static Set<String> originalsOf(String name, Set<String> known, Map<String, Set<String>> bySimpleName,
+                                           Map<String, Set<String>> origins) {
+        if (known.contains(name)) return Set.of(name);
+        Set<String> derived = origins.get(name);
+        if (derived != null) return derived;
+        // catalog.new_schema.table — копия исходной таблицы с тем же именем; a.b — столбец или схема, не таблица
+        if (name.chars().filter(c -> c == '.').count() < 2) return Set.of();
+        return bySimpleName.getOrDefault(simpleName(name), Set.of());
+    }
+
+    // таблица, которую создаёт или наполняет оператор: CREATE TABLE x ... / INSERT INTO x ...
+    private static String target(String statement, List<Token> tokens) {
+        String created = TableSchema.createdTable(statement);
+        if (created != null) return created;
+        if (tokens.size() > 2 && tokens.get(0).text().equalsIgnoreCase("insert") && tokens.get(1).text().equalsIgnoreCase("into")) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 2; i < tokens.size() && TableSchema.isIdentifier(tokens.get(i)); i += 2) {
+                if (!name.isEmpty()) name.append('.');
+                name.append(TableSchema.identifier(tokens.get(i)));
+                if (i + 1 >= tokens.size() || !tokens.get(i + 1).text().equals(".")) break;
+            }
+            return name.isEmpty() ? null : name.toString();
+        }
+        return null;
+    }
+
+    private static String simpleName(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private Context record(Context context) {
+        fullTokens.record(context.fullTokens());
+        prunedTokens.record(context.prunedTokens());
+        return context;
+    }
+
+    // SELECT *, SELECT DISTINCT *, a, * и t.* — нужны все колонки; count(*) к ним не относится
+    private static boolean isStarContext(Token prev) {
+        if (prev.type() == Type.WORD) {
+            return prev.text().equalsIgnoreCase("select") || prev.text().equalsIgnoreCase("distinct");
+        }
+        return prev.text().equals(",") || prev.text().equals(".");
+    }
+
+    private static int tokens(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -86,6 +86,9 @@ public final class PromptTemplates {
             - Оптимизированного DDL (накопленного):
             {optimized_ddl}
             
+            - Партиционирование, подсказанное статистикой фильтров нагрузки (учти для таблиц в новой схеме):
+            {partition_hints}
+            
             Сгенерируй:
             1) Итоговый набор DDL для новой структуры (перечисление SQL операторов). Первая команда обязательно — CREATE SCHEMA <каталог>.<новая_схема>.
             2) Набор SQL миграций INSERT ... SELECT ... для переноса данных из старой структуры в новую. Везде полные имена.
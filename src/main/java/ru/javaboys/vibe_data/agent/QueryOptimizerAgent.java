@@ -7,7 +7,9 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
+import ru.javaboys.vibe_data.agent.rules.RuleBasedOptimizer;
 import ru.javaboys.vibe_data.agent.tools.TrinoExplainTools;
+import ru.javaboys.vibe_data.agent.workload.QueryGroup;
 import ru.javaboys.vibe_data.domain.Optimization;
 import ru.javaboys.vibe_data.domain.Task;
 import ru.javaboys.vibe_data.domain.TaskResult;
@@ -17,18 +19,29 @@ import ru.javaboys.vibe_data.domain.jsonb.RewrittenQuery;
 import ru.javaboys.vibe_data.domain.jsonb.SqlBlock;
 import ru.javaboys.vibe_data.llm.LlmRequest;
 import ru.javaboys.vibe_data.llm.LlmService;
-import ru.javaboys.vibe_data.monitoring.MethodStatsRepository;
-import ru.javaboys.vibe_data.repository.OptimizationRepository;
+import ru.javaboys.vibe_data.llm.LlmUsage;
 import ru.javaboys.vibe_data.repository.TaskResultRepository;
+import ru.javaboys.vibe_data.service.OptimizationIndex;
+import ru.javaboys.vibe_data.service.QueryCheckpointService;
+import ru.javaboys.vibe_data.service.TaskResultQueryService;
 import ru.javaboys.vibe_data.validator.ValidationSwitcher;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -41,11 +54,15 @@ public class QueryOptimizerAgent {
     private final TrinoExplainTools trinoExplainTools;
     private final TaskResultRepository taskResultRepository;
     private final PlatformTransactionManager transactionManager;
-    private final OptimizationRepository optimizationRepository;
+    private final OptimizationIndex optimizationIndex;
     private final ValidationSwitcher validationSwitcher;
+    private final RuleBasedOptimizer ruleBasedOptimizer;
+    private final QueryCheckpointService checkpoints;
+    private final TaskResultQueryService taskResultQueries;
 
     // --- Time-budget configuration ---
-    private final MethodStatsRepository methodStatsRepository;
+    private final TimeBudgetPlanner budgetPlanner;
+    private final DdlContextBuilder ddlContextBuilder;
 
     @Value("${processing.max-total-duration-ms}")
     private long maxTotalDurationMs;
@@ -53,8 +70,21 @@ public class QueryOptimizerAgent {
     @Value("${validation.max-attempts}")
     private int validationMaxAttempts;
 
-    @Value("${processing.default-llm-avg-ms}")
-    private long defaultLlmAvgMs;
+    // Сколько запросов оптимизируется одновременно; 1 — прежний последовательный режим с общей историей диалога
+    @Value("${processing.optimization-concurrency:4}")
+    private int optimizationConcurrency;
+
+    // Потоковый режим: по дедлайну из недополученного ответа спасаются уже готовые поля
+    @Value("${llm.streaming.enabled:true}")
+    private boolean llmStreaming;
+
+    // Запросы, отличающиеся только литералами, оптимизируются одним вызовом LLM; false — группировка по точному тексту
+    @Value("${processing.fingerprint.enabled:true}")
+    private boolean fingerprintEnabled;
+
+    private record StepResult(PerQueryOptimizationOutput out, List<RewrittenQuery> queries) {}
+
+    private record SystemPrompt(String template, Map<String, Object> vars) {}
 
     public TaskResult optimize(Task task) {
         var payload = task.getInput().getPayload();
@@ -67,143 +97,172 @@ public class QueryOptimizerAgent {
                 payload.getQueries() != null ? payload.getQueries().size() : 0,
                 maxTotalDurationMs);
 
-        // 1. Системный промпт
+        // 1. Системный промпт: рекомендации, релевантные нагрузке задачи (шаг по запросу подбирает свои)
         String conversationId = task.getId().toString();
-        String system;
-        Map<String, Object> sysVars;
-
-        List<Optimization> optimizations = optimizationRepository.findAllByActiveIsTrue();
-        if (optimizations.isEmpty()) {
-            system = PromptTemplates.SYSTEM_ROLE;
-            sysVars = Map.of(
-                    "rules", PromptTemplates.RULES,
-                    "catalogSchemaRule", PromptTemplates.CATALOG_SCHEMA_RULE
-            );
-        } else {
-            String optimizationsLine = optimizations.stream()
-                    .map(Optimization::getText)
-                    .collect(Collectors.joining(System.lineSeparator()));
-            system = PromptTemplates.SYSTEM_ROLE_WIITH_OPTIMIZATIONS;
-            sysVars = Map.of(
-                    "optimizations", optimizationsLine,
-                    "rules", PromptTemplates.RULES,
-                    "catalogSchemaRule", PromptTemplates.CATALOG_SCHEMA_RULE
-            );
-        }
+        List<String> workloadSql = payload.getQueries() != null
+                ? payload.getQueries().stream().map(QueryInput::getQuery).toList()
+                : List.of();
+        SystemPrompt systemPrompt = systemPrompt(optimizationIndex.relevant(workloadSql));
+        String system = systemPrompt.template();
+        Map<String, Object> sysVars = systemPrompt.vars();
 
         // 2. исходный DDL как контекст
         String originalDdlJoined = payload.getDdl().stream()
                 .map(DdlStatement::getStatement)
                 .collect(Collectors.joining("\n\n"));
+        // тот же DDL, разобранный для сокращения контекста в промптах шагов
+        List<DdlContextBuilder.Statement> ddlStatements = ddlContextBuilder.prepare(payload.getDdl());
 
-        // 3. удаление дублей по полю QueryInput.query + сортировка по весу
+        // 3. группировка запросов одной формы (отличаются только литералами) + сортировка по суммарному весу группы
         List<QueryInput> inputQueries = payload.getQueries();
-        List<QueryInput> unique = dedupeQueriesByText(inputQueries);
-        if (inputQueries != null && unique != null && unique.size() < inputQueries.size()) {
-            log.info("Обнаружены дубли запросов: {} → {} (критерий уникальности — поле query)",
-                    inputQueries.size(), unique.size());
+        List<QueryGroup> groups = new ArrayList<>(QueryGroup.group(inputQueries, fingerprintEnabled, QueryOptimizerAgent::weightOf));
+        int inputCount = inputQueries != null ? inputQueries.size() : 0;
+        if (groups.size() < inputCount) {
+            log.info("Запросы сгруппированы: {} → {} (критерий — {})", inputCount, groups.size(),
+                    fingerprintEnabled ? "форма запроса без литералов" : "поле query");
         }
-        List<QueryInput> sorted = new ArrayList<>(unique);
-        sorted.sort((a, b) -> {
-            long wa = weightOf(a);
-            long wb = weightOf(b);
-            return Long.compare(wb, wa);
-        });
-        log.info("Запросов к оптимизации: {}. Запускаем итеративный цикл.", sorted.size());
+        log.info("Запросов к оптимизации: {}. Запускаем итеративный цикл.", groups.size());
 
         // 4. копим изменения DDL по шагам
         Set<SqlBlock> accumulatedDdl = new LinkedHashSet<>();
         // Карта optimizedQuery by id
         Map<String, RewrittenQuery> optimizedQueries = new LinkedHashMap<>();
+        // Завершённые шаги по позиции в отсортированном списке: порядок слияния не зависит от порядка завершения
+        Map<Integer, StepResult> completed = new TreeMap<>();
 
         // --- Вспомогательные значения бюджета ---
-        double avgLlmMsCached;
         // кол-во зарезервированных обязательных LLM-запросов
         int reserveCallsForMandatory = 1 + Math.max(0, validationMaxAttempts);
+        // размеры промптов без переменных частей: от них зависит ожидаемая длительность вызова
+        int systemPromptChars = system.length() + sysVars.values().stream().mapToInt(v -> String.valueOf(v).length()).sum();
+        int stepPromptBaseChars = systemPromptChars + PromptTemplates.QUERY_OPTIMIZATION_PROMPT.length() + originalDdlJoined.length();
+        int mandatoryPromptBaseChars = systemPromptChars + PromptTemplates.MIGRATION_SYNTHESIS_PROMPT.length() + originalDdlJoined.length();
+
+        // 5. Быстрый путь: детерминированные правила; закрытые ими группы в LLM не уходят
+        RulesApplied rules = applyRules(payload.getDdl(), groups, completed);
+        int next = rules.closedGroups();
+        if (!completed.isEmpty()) {
+            mergeCompletedSteps(completed, accumulatedDdl, optimizedQueries);
+            completed.forEach((pos, step) -> taskResultQueries.append(task.getId(), pos, step.queries()));
+            log.info("Правила закрыли групп запросов: {}, подсказок партиционирования: {}; в LLM уходит групп: {}",
+                    next, rules.partitionHints().size(), groups.size() - next);
+        }
 
-        // 5. Итеративная оптимизация
-        for (int i = 0; i < sorted.size(); i++) {
-            QueryInput q = sorted.get(i);
-            int idx = i + 1;
-            int total = sorted.size();
-            int remaining = total - idx;
-            log.info("Итерация {} из {} (осталось {}): оптимизация запроса id={}, runquantity={}, executiontime={}",
-                    idx, total, remaining, q.getQueryid(), q.getRunquantity(), Math.max(1, q.getExecutiontime()));
-
-            PerQueryOptimizationOutput out;
-            try {
-                out = runQueryOptimizationStep(
-                        task.getLlmModel(),
-                        task.getTemperature(),
-                        conversationId,
-                        system,
-                        sysVars,
-                        originalDdlJoined,
-                        accumulatedDdl,
-                        q
-                );
-            } catch (Exception e) {
-                if (isLlmTimeout(e)) {
-                    log.error("LLM timeout при оптимизации запроса id={} на итерации {}: {}. Продолжаем со следующим запросом.", q.getQueryid(), idx, e.getMessage());
-                    // пропускаем текущий запрос и продолжаем цикл
-                    continue;
-                }
-                log.error("Ошибка оптимизации запроса id={} на итерации {}: {}", q.getQueryid(), idx, e.getMessage(), e);
-                // Перед выбросом ошибки фиксируем накопленные результаты
-                persistToDb(task,
-                        new ArrayList<>(accumulatedDdl),
-                        List.of(),
-                        new ArrayList<>(optimizedQueries.values()));
-                throw e;
+        // 5a. Повторный запуск после падения узла: шаги с DONE-чекпоинтом восстанавливаются без LLM
+        int ruled = next;
+        next = restoreCheckpoints(task, groups, next, completed);
+        if (next > ruled) {
+            // строки прогресса этих шагов уже записаны прошлым запуском
+            mergeCompletedSteps(completed, accumulatedDdl, optimizedQueries);
+            log.info("Задача id={}: восстановлено из чекпоинтов шагов: {}; в LLM уходит групп: {}",
+                    task.getId(), next - ruled, groups.size() - next);
+        }
+
+        // 6. Итеративная оптимизация: скользящее окно из optimizationConcurrency запросов,
+        // новые запросы запускаются строго в порядке убывания веса
+        int window = Math.max(1, optimizationConcurrency);
+        // при параллельной работе шаги не должны делить одну историю диалога
+        boolean isolateConversations = window > 1;
+        Map<Future<PerQueryOptimizationOutput>, Integer> inFlight = new HashMap<>();
+        // расход токенов запущенных шагов по позиции группы; меняется только координирующим потоком
+        Map<Integer, LlmUsage> stepUsage = new HashMap<>();
+        boolean budgetExhausted = false;
+        log.info("Параллелизм оптимизации запросов: {}", window);
+
+        // План на старте: сколько групп успеем оптимизировать до дедлайна с резервом на обязательные шаги
+        TimeBudgetPlanner.Plan plan = planBudget(task, startedAtNs, reserveCallsForMandatory,
+                stepPromptBaseChars, mandatoryPromptBaseChars, accumulatedDdl, groups, next, window);
+        log.info("План бюджета (квантиль p{}): шаг ~{} мс, резерв {} мс на {} обязательных вызовов, доступно {} мс — "
+                        + "к оптимизации через LLM {} из {} групп",
+                Math.round(budgetPlanner.getQuantile() * 100), plan.stepMs(), plan.reserveMs(), reserveCallsForMandatory,
+                plan.availableMs(), plan.attempts(), groups.size() - next);
+        if (plan.attempts() == 0 && next < groups.size()) {
+            budgetExhausted = true;
+        }
+
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("query-opt-" + task.getId() + "-", 0).factory())) {
+            CompletionService<PerQueryOptimizationOutput> completion = new ExecutorCompletionService<>(executor);
+
+            while (!budgetExhausted && next < groups.size() && inFlight.size() < Math.min(window, plan.attempts())) {
+                submitOptimizationStep(completion, inFlight, stepUsage, task, conversationId, isolateConversations,
+                        ddlStatements, accumulatedDdl, groups, next++);
             }
 
-            // Сохраняем перезаписанный запрос
-            optimizedQueries.put(q.getQueryid(), RewrittenQuery.builder()
-                    .queryid(q.getQueryid())
-                    .query(out.rewrittenQuery())
-                    .build());
+            while (!inFlight.isEmpty()) {
+                Future<PerQueryOptimizationOutput> done = completion.take();
+                int i = inFlight.remove(done);
+                QueryInput q = groups.get(i).representative();
+                int idx = i + 1;
+                LlmUsage usage = stepUsage.remove(i);
+
+                PerQueryOptimizationOutput out = null;
+                try {
+                    out = done.get();
+                } catch (ExecutionException ee) {
+                    Throwable e = ee.getCause() != null ? ee.getCause() : ee;
+                    checkpoints.failed(task.getId(), q.getQueryid(), String.valueOf(e.getMessage()),
+                            usage.getPromptTokens(), usage.getCompletionTokens());
+                    if (isLlmTimeout(e)) {
+                        // пропускаем текущий запрос и продолжаем цикл
+                        log.error("LLM timeout при оптимизации запроса id={} на итерации {}: {}. Продолжаем со следующим запросом.", q.getQueryid(), idx, e.getMessage());
+                    } else {
+                        log.error("Ошибка оптимизации запроса id={} на итерации {}: {}", q.getQueryid(), idx, e.getMessage(), e);
+                        // завершённые шаги уже сохранены по отдельности (чекпоинты и task_result_query)
+                        executor.shutdownNow();
+                        if (e instanceof RuntimeException re) {
+                            throw re;
+                        }
+                        throw new IllegalStateException(e);
+                    }
+                }
 
-            int ddlChangesCount = out.ddlChanges() != null ? out.ddlChanges().size() : 0;
-            log.info("Итерация {}: оптимизация запроса id={} завершена, изменений DDL: {}", idx, q.getQueryid(), ddlChangesCount);
+                if (out != null) {
+                    checkpoints.done(task.getId(), q.getQueryid(), out.rewrittenQuery(), out.ddlChanges(),
+                            usage.getPromptTokens(), usage.getCompletionTokens());
+                    completed.put(i, new StepResult(out, spreadOverGroup(groups, i, next, out)));
+                    int ddlChangesCount = out.ddlChanges() != null ? out.ddlChanges().size() : 0;
+                    log.info("Итерация {}: оптимизация запроса id={} завершена, изменений DDL: {}, запросов в группе: {} (в работе ещё {})",
+                            idx, q.getQueryid(), ddlChangesCount, groups.get(i).members().size(), inFlight.size());
 
-            // Накапливаем DDL изменения, если пришли
-            if (out.ddlChanges() != null && !out.ddlChanges().isEmpty()) {
-                for (String stmt : out.ddlChanges()) {
-                    accumulatedDdl.add(SqlBlock.builder().statement(stmt).build());
+                    // Пересобираем DDL и запросы в порядке веса — результат детерминирован
+                    mergeCompletedSteps(completed, accumulatedDdl, optimizedQueries);
+
+                    // Промежуточный прогресс: дописываются только запросы этого шага, DDL шага — в его чекпоинте
+                    taskResultQueries.append(task.getId(), i, completed.get(i).queries());
+                    log.info("Итерация {}: промежуточный прогресс сохранён ({} запросов)", idx, completed.get(i).queries().size());
                 }
-            }
 
-            // Промежуточное сохранение прогресса (DDL и Queries), миграции пока пустые
-            TaskResult saved = persistToDb(task,
-                    new ArrayList<>(accumulatedDdl),
-                    List.of(),
-                    new ArrayList<>(optimizedQueries.values()));
-            log.info("Итерация {}: промежуточный прогресс сохранён в TaskResult id={}", idx, saved.getId());
-
-            // --- Проверка бюджета времени: хватит ли на обязательные шаги? ---
-            // Обновляем среднюю длительность LLM, чтобы подстраиваться по ходу выполнения
-            avgLlmMsCached = resolveAvgLlmMs();
-            // elapsedMs - сколько уже времени прошло
-            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNs);
-            // remainingMs - оставшееся время на всё
-            long remainingMs = maxTotalDurationMs - elapsedMs;
-            // резерв времени на обязательные шаги
-            long reserveMs = (long) Math.ceil(reserveCallsForMandatory * avgLlmMsCached);
-            // оставшееся время для оптимизаций
-            long availableForOptimizationMs = remainingMs - reserveMs;
-
-            if (availableForOptimizationMs < Math.ceil(avgLlmMsCached)) {
-                log.info("Остановка итеративной оптимизации на шаге {}: оставшееся время={} мс, резерв на обязательные шаги={} мс ({} LLM), средний LLM={} мс.",
-                        idx, remainingMs, reserveMs, reserveCallsForMandatory, Math.round(avgLlmMsCached));
-                break; // выходим из цикла, переходим к генерации миграций и валидации
-            } else {
-                long mayDo = (long) Math.floor(availableForOptimizationMs / Math.max(1.0, avgLlmMsCached));
+                if (budgetExhausted || next >= groups.size()) {
+                    continue; // дожидаемся уже запущенных шагов
+                }
+
+                // --- Проверка бюджета времени: хватит ли на обязательные шаги? ---
+                // Перепланируем по свежему распределению длительностей и текущему размеру промпта
+                plan = planBudget(task, startedAtNs, reserveCallsForMandatory,
+                        stepPromptBaseChars, mandatoryPromptBaseChars, accumulatedDdl, groups, next, window);
+
+                if (plan.attempts() == 0) {
+                    log.info("Остановка итеративной оптимизации на шаге {}: доступно {} мс после резерва {} мс ({} LLM), шаг по квантилю ~{} мс. Дожидаемся запущенных шагов: {}.",
+                            idx, plan.availableMs(), plan.reserveMs(), reserveCallsForMandatory, plan.stepMs(), inFlight.size());
+                    budgetExhausted = true; // новые шаги не запускаем, переходим к генерации миграций и валидации
+                    continue;
+                }
                 log.info("После итерации {} остаётся ~{} мс для оптимизации (без резерва). Этого хватит примерно на {} LLM-запрос(ов).",
-                        idx, availableForOptimizationMs, mayDo);
+                        idx, plan.availableMs(), plan.attempts());
+
+                // не больше шагов, чем укладывается в план: запущенные уже занимают часть бюджета
+                while (next < groups.size() && inFlight.size() < Math.min(window, plan.attempts())) {
+                    submitOptimizationStep(completion, inFlight, stepUsage, task, conversationId, isolateConversations,
+                            ddlStatements, accumulatedDdl, groups, next++);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Оптимизация задачи " + task.getId() + " прервана", e);
         }
 
-        // 6. Генерация миграций (финальный шаг)
+        // 7. Генерация миграций (финальный шаг)
         log.info("Начинаем генерацию миграций и финального DDL. Накоплено изменений DDL: {}", accumulatedDdl.size());
         FinalMigrationOutput migrationsOut;
         try {
@@ -212,25 +271,36 @@ public class QueryOptimizerAgent {
                     system,
                     sysVars,
                     originalDdlJoined,
-                    accumulatedDdl
+                    accumulatedDdl,
+                    rules.partitionHints()
             );
         } catch (Exception e) {
             log.error("Ошибка при генерации миграций: {}", e.getMessage(), e);
             throw e;
         }
 
-        // 7. Сбор финального результата
+        // 8. Сбор финального результата
         List<SqlBlock> finalDdl = normalizeDdlOrder(migrationsOut.newDdl());
         List<SqlBlock> migrations = toSqlBlocks(migrationsOut.migrations());
 
-        List<RewrittenQuery> finalQueries = new ArrayList<>(optimizedQueries.values());
+        // запросы правил не проходили шаг LLM — переводим их на таблицы новой схемы итогового DDL
+        List<String> finalDdlStatements = finalDdl != null ? finalDdl.stream().map(SqlBlock::getStatement).toList() : List.of();
+        List<RewrittenQuery> finalQueries = new ArrayList<>(optimizedQueries.size());
+        for (RewrittenQuery q : optimizedQueries.values()) {
+            if (rules.queryIds().contains(q.getQueryid())) {
+                q = RewrittenQuery.builder().queryid(q.getQueryid())
+                        .query(RuleBasedOptimizer.retargetToNewSchema(q.getQuery(), payload.getDdl(), finalDdlStatements))
+                        .build();
+            }
+            finalQueries.add(q);
+        }
 
         log.info("Формирование результата завершено: финальный DDL={}, миграций={}, переписанных запросов={}",
                 finalDdl != null ? finalDdl.size() : 0,
                 migrations != null ? migrations.size() : 0,
                 finalQueries != null ? finalQueries.size() : 0);
 
-        // 8. Валидация итогового результата
+        // 9. Валидация итогового результата
         var validated = validationSwitcher.validate(task, finalDdl, migrations, finalQueries);
 
         finalDdl = validated.finalDdl();
@@ -242,22 +312,204 @@ public class QueryOptimizerAgent {
         return savedFinal;
     }
 
+    private void submitOptimizationStep(CompletionService<PerQueryOptimizationOutput> completion,
+                                        Map<Future<PerQueryOptimizationOutput>, Integer> inFlight,
+                                        Map<Integer, LlmUsage> stepUsage,
+                                        Task task,
+                                        String conversationId,
+                                        boolean isolateConversations,
+                                        List<DdlContextBuilder.Statement> ddlStatements,
+                                        Set<SqlBlock> accumulatedDdl,
+                                        List<QueryGroup> groups,
+                                        int i) {
+        QueryInput q = groups.get(i).representative();
+        int idx = i + 1;
+        int total = groups.size();
+        log.info("Итерация {} из {} (осталось {}): оптимизация запроса id={}, runquantity={}, executiontime={}",
+                idx, total, total - idx, q.getQueryid(), q.getRunquantity(), Math.max(1, q.getExecutiontime()));
+
+        String stepConversationId = isolateConversations ? conversationId + ":" + q.getQueryid() : conversationId;
+        // снимок накопленного DDL на момент запуска шага: коллекцию дальше меняет только координирующий поток
+        Set<SqlBlock> ddlSnapshot = new LinkedHashSet<>(accumulatedDdl);
+        LlmUsage usage = new LlmUsage();
+        checkpoints.running(task.getId(), q.getQueryid());
+        Future<PerQueryOptimizationOutput> future = completion.submit(() -> runQueryOptimizationStep(
+                task.getLlmModel(),
+                task.getTemperature(),
+                stepConversationId,
+                ddlStatements,
+                ddlSnapshot,
+                q,
+                usage
+        ));
+        inFlight.put(future, i);
+        stepUsage.put(i, usage);
+    }
+
+    /**
+     * @param closedGroups   число групп, закрытых правилами, — с этой позиции начинается цикл LLM
+     * @param partitionHints подсказки партиционирования для синтеза итогового DDL
+     * @param queryIds       запросы, переписанные правилами (минуя шаг LLM)
+     */
+    private record RulesApplied(int closedGroups, List<String> partitionHints, Set<String> queryIds) {}
+
+    /**
+     * Применяет правила без LLM. Переписанные правилами группы переносятся в начало списка (с сохранением
+     * порядка по весу) и сразу попадают в completed. Партиционирование уровня нагрузки не попадает в накопленный
+     * DDL: таблицы должны создаваться в новой схеме, поэтому оно уходит подсказкой в синтез миграций.
+     * Участник группы, которого правила не переписали, оптимизируется отдельно через LLM.
+     */
+    private RulesApplied applyRules(List<DdlStatement> ddl, List<QueryGroup> groups, Map<Integer, StepResult> completed) {
+        RuleBasedOptimizer.Result rules = ruleBasedOptimizer.optimize(ddl, groups);
+        Set<String> queryIds = new HashSet<>();
+        if (rules.rewritten().isEmpty()) return new RulesApplied(0, rules.partitionHints(), queryIds);
+
+        List<QueryGroup> ruled = new ArrayList<>();
+        List<Map<String, String>> ruledQueries = new ArrayList<>();
+        List<QueryGroup> rest = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            Map<String, String> byId = rules.rewritten().get(i);
+            if (byId != null) {
+                ruled.add(groups.get(i));
+                ruledQueries.add(byId);
+            } else {
+                rest.add(groups.get(i));
+            }
+        }
+        groups.clear();
+        groups.addAll(ruled);
+        groups.addAll(rest);
+
+        for (int k = 0; k < ruled.size(); k++) {
+            QueryGroup group = ruled.get(k);
+            Map<String, String> byId = ruledQueries.get(k);
+            List<RewrittenQuery> queries = new ArrayList<>(group.members().size());
+            for (QueryGroup.Member m : group.members()) {
+                QueryInput member = m.query();
+                String sql = byId.get(member.getQueryid());
+                if (sql != null) {
+                    queries.add(RewrittenQuery.builder().queryid(member.getQueryid()).query(sql).build());
+                    queryIds.add(member.getQueryid());
+                    continue;
+                }
+                log.info("Запрос id={}: правила не применились к его литералам, оптимизируем через LLM", member.getQueryid());
+                QueryGroup single = QueryGroup.single(member, QueryOptimizerAgent::weightOf);
+                int pos = ruled.size();
+                while (pos < groups.size() && groups.get(pos).weight() >= single.weight()) pos++;
+                groups.add(pos, single);
+            }
+            QueryInput rep = group.representative();
+            completed.put(k, new StepResult(
+                    new PerQueryOptimizationOutput(rep.getQueryid(), byId.get(rep.getQueryid()), List.of()), queries));
+        }
+        return new RulesApplied(ruled.size(), rules.partitionHints(), queryIds);
+    }
+
+    /**
+     * Восстанавливает шаги, завершённые до падения предыдущего исполнителя задачи. Группа, у представителя
+     * которой есть DONE-чекпоинт, переносится на позицию next и попадает в completed, как будто шаг только
+     * что завершился.
+     *
+     * @return позиция, с которой начинается цикл LLM
+     */
+    private int restoreCheckpoints(Task task, List<QueryGroup> groups, int next, Map<Integer, StepResult> completed) {
+        Map<String, QueryCheckpointService.Checkpoint> done = checkpoints.loadDone(task.getId());
+        boolean found = !done.isEmpty();
+        while (found) {
+            found = false;
+            for (int i = next; i < groups.size(); i++) {
+                QueryCheckpointService.Checkpoint cp = done.remove(groups.get(i).representative().getQueryid());
+                if (cp == null) continue;
+                groups.add(next, groups.remove(i));
+                PerQueryOptimizationOutput out = new PerQueryOptimizationOutput(cp.queryId(), cp.rewrittenQuery(), cp.ddlChanges());
+                // spreadOverGroup может выделить участников в новые группы после next — скан начинается заново
+                completed.put(next, new StepResult(out, spreadOverGroup(groups, next, next + 1, out)));
+                next++;
+                found = true;
+                break;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Переносит переписанный запрос представителя на всех участников группы с их литералами.
+     * Участник, на которого перенос невозможен, выделяется в отдельную группу и встаёт в очередь
+     * по своему весу среди ещё не запущенных шагов.
+     */
+    private List<RewrittenQuery> spreadOverGroup(List<QueryGroup> groups, int i, int next, PerQueryOptimizationOutput out) {
+        QueryGroup group = groups.get(i);
+        List<RewrittenQuery> queries = new ArrayList<>(group.members().size());
+        for (QueryGroup.Member m : group.members()) {
+            QueryInput member = m.query();
+            boolean representative = member == group.representative();
+            Optional<String> rewritten = representative || out.rewrittenQuery() == null
+                    ? Optional.ofNullable(out.rewrittenQuery())
+                    : group.representativeShape().reapply(out.rewrittenQuery(), m.shape());
+            if (representative || rewritten.isPresent()) {
+                queries.add(RewrittenQuery.builder()
+                        .queryid(member.getQueryid())
+                        .query(rewritten.orElse(null))
+                        .build());
+            } else if (out.rewrittenQuery() != null) {
+                log.info("Запрос id={}: переписанный запрос представителя id={} не переносится на его литералы, оптимизируем отдельно",
+                        member.getQueryid(), group.representative().getQueryid());
+                QueryGroup single = QueryGroup.single(member, QueryOptimizerAgent::weightOf);
+                int pos = next;
+                while (pos < groups.size() && groups.get(pos).weight() >= single.weight()) pos++;
+                groups.add(pos, single);
+            }
+        }
+        return queries;
+    }
+
+    // Сливает завершённые шаги в порядке сортировки по весу, а не в порядке их завершения
+    private void mergeCompletedSteps(Map<Integer, StepResult> completed,
+                                     Set<SqlBlock> accumulatedDdl,
+                                     Map<String, RewrittenQuery> optimizedQueries) {
+        accumulatedDdl.clear();
+        optimizedQueries.clear();
+        for (StepResult step : completed.values()) {
+            PerQueryOptimizationOutput out = step.out();
+
+            // Сохраняем перезаписанные запросы всей группы
+            for (RewrittenQuery rq : step.queries()) {
+                optimizedQueries.put(rq.getQueryid(), rq);
+            }
+
+            // Накапливаем DDL изменения, если пришли
+            if (out.ddlChanges() != null) {
+                for (String stmt : out.ddlChanges()) {
+                    accumulatedDdl.add(SqlBlock.builder().statement(stmt).build());
+                }
+            }
+        }
+    }
+
     private PerQueryOptimizationOutput runQueryOptimizationStep(
             String llmModel,
             Double temperature,
             String conversationId,
-            String system,
-            Map<String, Object> sysVars,
-            String originalDdl,
+            List<DdlContextBuilder.Statement> ddlStatements,
             Set<SqlBlock> accumulatedDdl,
-            QueryInput q
+            QueryInput q,
+            LlmUsage usage
     ) {
         String userTemplate = PromptTemplates.QUERY_OPTIMIZATION_PROMPT;
 
+        // Рекомендации, релевантные таблицам и операторам этого запроса
+        SystemPrompt systemPrompt = systemPrompt(optimizationIndex.relevant(List.of(q.getQuery())));
+
+        // Только таблицы и колонки, к которым обращается запрос
+        DdlContextBuilder.Context ddlContext = ddlContextBuilder.build(ddlStatements, accumulatedDdl, q.getQuery());
+        if (ddlContext.savedTokens() > 0) {
+            log.info("Контекст DDL запроса id={}: ~{} → ~{} токенов (сэкономлено ~{})",
+                    q.getQueryid(), ddlContext.fullTokens(), ddlContext.prunedTokens(), ddlContext.savedTokens());
+        }
+
         Map<String, Object> userVars = new HashMap<>();
-        userVars.put("original_ddl", originalDdl);
-        userVars.put("accumulated_ddl", accumulatedDdl.stream()
-                .map(SqlBlock::getStatement).collect(Collectors.joining("\n\n")));
+        userVars.put("original_ddl", ddlContext.originalDdl());
+        userVars.put("accumulated_ddl", ddlContext.accumulatedDdl());
         userVars.put("runquantity", q.getRunquantity());
         userVars.put("executiontime", Math.max(1, q.getExecutiontime()));
         userVars.put("queryid", q.getQueryid());
@@ -266,19 +518,39 @@ public class QueryOptimizerAgent {
         // Tools: отдаём набор инструментов EXPLAIN/ANALYZE + чтение read-only
         List<Object> tools = List.of(trinoExplainTools);
 
-        return llmService.callAs(
-                LlmRequest.builder()
-                        .llmModel(llmModel)
-                        .temperature(temperature)
-                        .conversationId(conversationId)
-                        .systemMessage(system)
-                        .systemVariables(sysVars)
-                        .userMessage(userTemplate)
-                        .userVariables(userVars)
-                        .tools(tools)
-                        .build(),
-                PerQueryOptimizationOutput.class
-        );
+        LlmRequest request = LlmRequest.builder()
+                .llmModel(llmModel)
+                .temperature(temperature)
+                .conversationId(conversationId)
+                .systemMessage(systemPrompt.template())
+                .systemVariables(systemPrompt.vars())
+                .userMessage(userTemplate)
+                .userVariables(userVars)
+                .tools(tools)
+                .usage(usage)
+                .build();
+        if (llmStreaming) {
+            // Переписанный запрос без ddlChanges всё ещё полезен: его проверит валидация
+            return llmService.callAsStreaming(request, PerQueryOptimizationOutput.class, "rewrittenQuery");
+        }
+        return llmService.callAs(request, PerQueryOptimizationOutput.class);
+    }
+
+    private static SystemPrompt systemPrompt(List<Optimization> optimizations) {
+        if (optimizations.isEmpty()) {
+            return new SystemPrompt(PromptTemplates.SYSTEM_ROLE, Map.of(
+                    "rules", PromptTemplates.RULES,
+                    "catalogSchemaRule", PromptTemplates.CATALOG_SCHEMA_RULE
+            ));
+        }
+        String optimizationsLine = optimizations.stream()
+                .map(Optimization::getText)
+                .collect(Collectors.joining(System.lineSeparator()));
+        return new SystemPrompt(PromptTemplates.SYSTEM_ROLE_WIITH_OPTIMIZATIONS, Map.of(
+                "optimizations", optimizationsLine,
+                "rules", PromptTemplates.RULES,
+                "catalogSchemaRule", PromptTemplates.CATALOG_SCHEMA_RULE
+        ));
     }
 
     private FinalMigrationOutput runMigrationSynthesis(
@@ -286,32 +558,38 @@ public class QueryOptimizerAgent {
             String system,
             Map<String, Object> sysVars,
             String originalDdl,
-            Set<SqlBlock> accumulatedDdl
+            Set<SqlBlock> accumulatedDdl,
+            List<String> partitionHints
     ) {
         String userTemplate = PromptTemplates.MIGRATION_SYNTHESIS_PROMPT;
 
         Map<String, Object> userVars = Map.of(
                 "original_ddl", originalDdl,
                 "optimized_ddl", accumulatedDdl.stream()
-                        .map(SqlBlock::getStatement).collect(Collectors.joining("\n\n"))
+                        .map(SqlBlock::getStatement).collect(Collectors.joining("\n\n")),
+                "partition_hints", partitionHints.isEmpty()
+                        ? "нет"
+                        : partitionHints.stream().map(h -> "- " + h).collect(Collectors.joining("\n"))
         );
 
         List<Object> tools = List.of(trinoExplainTools);
 
-        return llmService.callAs(
-                LlmRequest.builder()
-                        .conversationId(conversationId)
-                        .systemMessage(system)
-                        .systemVariables(sysVars)
-                        .userMessage(userTemplate)
-                        .userVariables(userVars)
-                        .tools(tools)
-                        .build(),
-                FinalMigrationOutput.class
-        );
+        LlmRequest request = LlmRequest.builder()
+                .conversationId(conversationId)
+                .systemMessage(system)
+                .systemVariables(sysVars)
+                .userMessage(userTemplate)
+                .userVariables(userVars)
+                .tools(tools)
+                .build();
+        if (llmStreaming) {
+            return llmService.callAsStreaming(request, FinalMigrationOutput.class, "newDdl", "migrations");
+        }
+        return llmService.callAs(request, FinalMigrationOutput.class);
     }
 
-    // Сохранение текущего прогресса в отдельной новой транзакции (мгновенная фиксация)
+    // Сохранение итогового результата в отдельной новой транзакции (мгновенная фиксация).
+    // Запросы пишутся строками в task_result_query, в JSONB-колонке queries остаётся пустой массив
     private TaskResult persistToDb(Task task,
                                    List<SqlBlock> ddl,
                                    List<SqlBlock> migrations,
@@ -331,9 +609,10 @@ public class QueryOptimizerAgent {
             entity.setTask(task);
             entity.setDdl(ddl != null ? ddl : List.of());
             entity.setMigrations(migrations != null ? migrations : List.of());
-            entity.setQueries(queries != null ? queries : List.of());
+            entity.setQueries(List.of());
 
             TaskResult saved = taskResultRepository.saveAndFlush(entity);
+            taskResultQueries.replace(task.getId(), queries);
             return saved;
         });
     }
@@ -351,19 +630,26 @@ public class QueryOptimizerAgent {
         return cause != null && cause != e && isLlmTimeout(cause);
     }
 
-    private double resolveAvgLlmMs() {
-        try {
-            var asOpt = methodStatsRepository.findByKey("llm.call.as");
-            if (asOpt.isPresent() && asOpt.get().getAvgTimeMs() != null && asOpt.get().getAvgTimeMs() > 0) {
-                return asOpt.get().getAvgTimeMs();
-            }
-            var callOpt = methodStatsRepository.findByKey("llm.call");
-            if (callOpt.isPresent() && callOpt.get().getAvgTimeMs() != null && callOpt.get().getAvgTimeMs() > 0) {
-                return callOpt.get().getAvgTimeMs();
-            }
-        } catch (Exception ignored) {
-        }
-        return Math.max(1, (int) defaultLlmAvgMs);
+    private TimeBudgetPlanner.Plan planBudget(Task task,
+                                              long startedAtNs,
+                                              int mandatoryCalls,
+                                              int stepPromptBaseChars,
+                                              int mandatoryPromptBaseChars,
+                                              Set<SqlBlock> accumulatedDdl,
+                                              List<QueryGroup> groups,
+                                              int next,
+                                              int window) {
+        long remainingMs = maxTotalDurationMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNs);
+        int accumulatedChars = accumulatedDdl.stream().mapToInt(b -> b.getStatement() != null ? b.getStatement().length() : 0).sum();
+        // следующий по весу запрос: планируем по нему, после каждого шага план пересчитывается
+        int queryChars = next < groups.size() ? groups.get(next).representative().getQuery().length() : 0;
+        return budgetPlanner.plan(task.getLlmModel(),
+                remainingMs,
+                mandatoryCalls,
+                mandatoryPromptBaseChars + accumulatedChars,
+                stepPromptBaseChars + accumulatedChars + queryChars,
+                window,
+                groups.size() - next);
     }
 
     private List<SqlBlock> normalizeDdlOrder(List<String> ddlStatements) {
@@ -394,25 +680,8 @@ public class QueryOptimizerAgent {
     }
 
     // Вес запроса для сортировки и выбора лучшего дубля
-    private long weightOf(QueryInput q) {
+    public static long weightOf(QueryInput q) {
         if (q == null) return 0L;
         return (long) q.getRunquantity() * Math.max(1L, q.getExecutiontime());
     }
-
-    // Удаление дублей по точному совпадению текста запроса (QueryInput.query)
-    // При наличии дублей сохраняем тот, у которого максимальный вес
-    private List<QueryInput> dedupeQueriesByText(List<QueryInput> queries) {
-        if (queries == null || queries.isEmpty()) return List.of();
-        Map<String, QueryInput> bestByQuery = new LinkedHashMap<>();
-        for (QueryInput q : queries) {
-            if (q == null) continue;
-            String key = q.getQuery();
-            if (key == null) continue;
-            QueryInput current = bestByQuery.get(key);
-            if (current == null || weightOf(q) > weightOf(current)) {
-                bestByQuery.put(key, q);
-            }
-        }
-        return new ArrayList<>(bestByQuery.values());
-    }
 }
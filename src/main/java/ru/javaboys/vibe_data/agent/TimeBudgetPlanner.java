@@ -0,0 +1,96 @@
+package ru.javaboys.vibe_data.agent;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.javaboys.vibe_data.config.LlmProperties;
+import ru.javaboys.vibe_data.llm.LlmLatencyStats;
+import ru.javaboys.vibe_data.monitoring.MethodStatsAggregator;
+
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+
+/**
+ * Планирование бюджета времени задачи по квантилю длительности LLM-вызовов модели с учётом размера промпта.
+ * Пока по модели мало наблюдений, используется квантиль (или EWMA) ключа llm.call.as из памяти
+ * процесса, а затем processing.default-llm-avg-ms. В БД за статистикой планировщик не ходит.
+ */
+@Component
+@RequiredArgsConstructor
+public class TimeBudgetPlanner {
+
+    private final LlmLatencyStats latencyStats;
+    private final MethodStatsAggregator methodStats;
+    private final LlmProperties llmProperties;
+
+    @Value("${processing.default-llm-avg-ms}")
+    private long defaultLlmAvgMs;
+
+    // Квантиль длительности вызова, по которому резервируется время (0.5 — медиана, 0.9 — p90)
+    @Value("${processing.budget.quantile:0.9}")
+    private double quantile;
+
+    // Сколько вызовов модели нужно увидеть, прежде чем доверять её распределению
+    @Value("${processing.budget.min-samples:5}")
+    private int minSamples;
+
+    /**
+     * @param stepMs      оценка одного шага оптимизации
+     * @param reserveMs   резерв на обязательные вызовы (миграции и автофиксы валидации)
+     * @param availableMs время на шаги оптимизации после резерва
+     * @param attempts    сколько ещё шагов можно запустить, чтобы успеть к дедлайну
+     */
+    public record Plan(long stepMs, long reserveMs, long availableMs, int attempts) {}
+
+    /**
+     * Шаги идут окном по concurrency, поэтому за время одного шага завершается до concurrency шагов.
+     * Новый шаг запускается, только если он вместе с резервом укладывается в оставшееся время.
+     *
+     * @param remainingMs          время до дедлайна задачи
+     * @param mandatoryCalls       число обязательных вызовов LLM после оптимизации
+     * @param mandatoryPromptChars размер промпта обязательного вызова
+     * @param stepPromptChars      размер промпта шага оптимизации
+     * @param pending              сколько групп запросов ещё не запущено
+     */
+    public Plan plan(String llmModel,
+                     long remainingMs,
+                     int mandatoryCalls,
+                     int mandatoryPromptChars,
+                     int stepPromptChars,
+                     int concurrency,
+                     int pending) {
+        long stepMs = estimateCallMs(llmModel, stepPromptChars);
+        long reserveMs = (long) mandatoryCalls * estimateCallMs(llmModel, mandatoryPromptChars);
+        long availableMs = remainingMs - reserveMs;
+        long waves = availableMs < stepMs ? 0 : availableMs / stepMs;
+        int attempts = (int) Math.min(pending, waves * Math.max(1, concurrency));
+        return new Plan(stepMs, reserveMs, availableMs, attempts);
+    }
+
+    /** Оценка длительности одного вызова по квантилю для промпта данного размера, мс. */
+    public long estimateCallMs(String llmModel, int promptChars) {
+        String model = Objects.requireNonNullElse(llmModel, llmProperties.getLlmModel());
+        OptionalDouble estimate = latencyStats.estimate(model, promptChars, quantile, minSamples);
+        if (estimate.isPresent()) {
+            return (long) Math.ceil(estimate.getAsDouble());
+        }
+        return (long) Math.ceil(fallbackLlmMs());
+    }
+
+    public double getQuantile() {
+        return quantile;
+    }
+
+    private double fallbackLlmMs() {
+        for (String key : new String[]{"llm.call.as", "llm.call"}) {
+            if (methodStats.count(key) >= minSamples) {
+                OptionalLong p = methodStats.percentileMs(key, quantile);
+                if (p.isPresent()) return Math.max(1, p.getAsLong());
+            }
+            OptionalDouble avg = methodStats.avgTimeMs(key);
+            if (avg.isPresent()) return avg.getAsDouble();
+        }
+        return Math.max(1, defaultLlmAvgMs);
+    }
+}
@@ -0,0 +1,141 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Token;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Правило уровня нагрузки: если запросы, фильтрующие непартиционированную таблицу по одной и той же
+ * колонке date/timestamp, дают не меньше minShare веса всех запросов к таблице, предлагается
+ * партиционирование по ней (transform(col), по умолчанию month). Запросы при этом не меняются.
+ *
+ * Результат — подсказка для синтеза итогового DDL, а не готовый оператор: таблица с партиционированием
+ * должна появиться в новой схеме (CATALOG_SCHEMA_RULE), имя которой выбирает LLM.
+ */
+public class DatePartitionRule {
+
+    private static final Set<String> COMPARISON = Set.of("=", "<", ">", "<=", ">=", "between", "in");
+    // функции над колонкой, через которые фильтр всё ещё выражает диапазон дат
+    private static final Set<String> DATE_FUNCTIONS = Set.of("year", "month", "day", "date", "date_trunc");
+
+    private final double minShare;
+    private final String transform;
+
+    public DatePartitionRule(double minShare, String transform) {
+        this.minShare = minShare;
+        this.transform = transform;
+    }
+
+    /** Запрос нагрузки: текст и вес. */
+    public record WeightedQuery(String sql, long weight) {}
+
+    /**
+     * Предложенное партиционирование таблицы.
+     *
+     * @param share доля веса запросов к таблице, фильтрующих по колонке
+     */
+    public record Proposal(String table, String column, String partitionExpr, double share) {
+        /** Текст подсказки для промпта синтеза миграций. */
+        public String hint() {
+            return String.format(Locale.ROOT,
+                    "%s: в новой схеме задать partitioning = ARRAY['%s'] (фильтр по %s — %d%% веса запросов к таблице)",
+                    table, partitionExpr, column, Math.round(share * 100));
+        }
+    }
+
+    /** @return предложение для каждой таблицы, где правило сработало */
+    public List<Proposal> propose(List<TableSchema> tables, List<WeightedQuery> workload) {
+        List<Proposal> proposals = new ArrayList<>();
+        for (TableSchema table : tables) {
+            if (table.partitioned()) continue;
+            propose(table, tables, workload).ifPresent(proposals::add);
+        }
+        return proposals;
+    }
+
+    private Optional<Proposal> propose(TableSchema table, List<TableSchema> tables, List<WeightedQuery> workload) {
+        long total = 0;
+        Map<String, Long> filtered = new LinkedHashMap<>();
+        for (WeightedQuery q : workload) {
+            List<Token> tokens = SqlTokenizer.tokenize(q.sql());
+            List<TableSchema> referenced = TableSchema.referencedBy(tokens, tables);
+            if (!referenced.contains(table)) continue;
+            total += q.weight();
+            for (String column : filteredColumns(tokens, table, referenced)) {
+                filtered.merge(column, q.weight(), Long::sum);
+            }
+        }
+        if (total <= 0) return Optional.empty();
+
+        String best = null;
+        long bestWeight = 0;
+        for (Map.Entry<String, Long> e : filtered.entrySet()) {
+            if (e.getValue() > bestWeight) {
+                best = e.getKey();
+                bestWeight = e.getValue();
+            }
+        }
+        if (best == null || (double) bestWeight / total < minShare) return Optional.empty();
+        return Optional.of(new Proposal(table.name(), best, transform + "(" + best + ")", (double) bestWeight / total));
+    }
+
+    // колонки date/timestamp таблицы, по которым запрос фильтрует (col >= ..., ... < col, year(col) = ...)
+    private static Set<String> filteredColumns(List<Token> t, TableSchema table, List<TableSchema> referenced) {
+        Map<String, Integer> owners = new HashMap<>();
+        for (TableSchema r : referenced) {
+            for (String column : r.columns().keySet()) owners.merge(column, 1, Integer::sum);
+        }
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i < t.size(); i++) {
+            if (!TableSchema.isIdentifier(t.get(i))) continue;
+            if (i + 1 < t.size() && t.get(i + 1).text().equals(".")) continue;
+            String column = TableSchema.identifier(t.get(i));
+            // колонка с тем же именем в другой таблице запроса — не знаем, чья она
+            if (!table.isTemporal(column) || owners.getOrDefault(column, 0) != 1) continue;
+            boolean compared = isComparison(t, i + 1) && !isColumnRef(t, i + 2, referenced)
+                    || isComparison(t, i - 1) && !isColumnRef(t, i - 2, referenced);
+            if (compared || insideDateFunction(t, i)) {
+                result.add(column);
+            }
+        }
+        return result;
+    }
+
+    private static boolean insideDateFunction(List<Token> t, int i) {
+        int open = i - 1;
+        while (open >= 1 && t.get(open).text().equals(".")) open -= 2;
+        // date_trunc('month', col): пропускаем первый аргумент
+        if (open >= 2 && t.get(open).text().equals(",") && t.get(open - 1).type() == Type.STRING) open -= 2;
+        if (open < 1 || !t.get(open).text().equals("(")) return false;
+        if (t.get(open - 1).type() != Type.WORD
+                || !DATE_FUNCTIONS.contains(t.get(open - 1).text().toLowerCase(Locale.ROOT))) return false;
+        return i + 1 < t.size() && t.get(i + 1).text().equals(")") && isComparison(t, i + 2);
+    }
+
+    // сравнение колонки с колонкой (условие соединения) — не фильтр по диапазону
+    private static boolean isColumnRef(List<Token> t, int i, List<TableSchema> referenced) {
+        if (i < 0 || i >= t.size() || !TableSchema.isIdentifier(t.get(i))) return false;
+        if ((i > 0 && t.get(i - 1).text().equals(".")) || (i + 1 < t.size() && t.get(i + 1).text().equals("."))) {
+            return true;
+        }
+        String name = TableSchema.identifier(t.get(i));
+        for (TableSchema r : referenced) {
+            if (r.columns().containsKey(name)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isComparison(List<Token> t, int i) {
+        return i >= 0 && i < t.size() && COMPARISON.contains(t.get(i).text().toLowerCase(Locale.ROOT));
+    }
+}
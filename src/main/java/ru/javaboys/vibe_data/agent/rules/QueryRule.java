@@ -0,0 +1,21 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Детерминированное переписывание одного запроса. Правило обязано сохранять семантику:
+ * если условие применимости нельзя проверить по токенам и DDL, правило не срабатывает.
+ */
+public interface QueryRule {
+
+    /** Короткое имя для логов. */
+    String name();
+
+    /**
+     * @param sql    текст запроса
+     * @param tables таблицы из DDL, на которые ссылается запрос
+     * @return переписанный запрос или пусто, если правило неприменимо
+     */
+    Optional<String> apply(String sql, List<TableSchema> tables);
+}
@@ -0,0 +1,125 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.javaboys.vibe_data.agent.workload.QueryGroup;
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Быстрый путь оптимизации без LLM: набор детерминированных правил Trino/Iceberg поверх разбора DDL
+ * и токенов запросов. Что правила закрыли, в LLM не уходит; остальное оптимизирует агент как раньше.
+ */
+@Slf4j
+@Component
+public class RuleBasedOptimizer {
+
+    private static final List<QueryRule> QUERY_RULES = List.of(new SargableYearRule(), new SelectStarCteRule());
+
+    @Value("${processing.rules.enabled:true}")
+    private boolean enabled;
+
+    // Доля веса запросов к таблице, фильтрующих по колонке даты, начиная с которой предлагается партиционирование
+    @Value("${processing.rules.partition-min-share:0.5}")
+    private double partitionMinShare;
+
+    // Iceberg transform для предложенного партиционирования: year, month или day
+    @Value("${processing.rules.partition-transform:month}")
+    private String partitionTransform;
+
+    /**
+     * @param partitionHints подсказки уровня всей нагрузки для синтеза итогового DDL (не готовые операторы)
+     * @param rewritten      индекс группы → (queryid → переписанный запрос); группа попадает сюда,
+     *                       только если правила переписали её представителя
+     */
+    public record Result(List<String> partitionHints, Map<Integer, Map<String, String>> rewritten) {
+        public boolean isEmpty() {
+            return partitionHints.isEmpty() && rewritten.isEmpty();
+        }
+    }
+
+    public Result optimize(List<DdlStatement> ddl, List<QueryGroup> groups) {
+        if (!enabled) return new Result(List.of(), Map.of());
+        long startedAtNs = System.nanoTime();
+
+        List<TableSchema> tables = TableSchema.parse(ddl);
+        if (tables.isEmpty()) return new Result(List.of(), Map.of());
+
+        List<DatePartitionRule.WeightedQuery> workload = new ArrayList<>(groups.size());
+        Map<Integer, Map<String, String>> rewritten = new LinkedHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            QueryGroup group = groups.get(i);
+            workload.add(new DatePartitionRule.WeightedQuery(group.representative().getQuery(), group.weight()));
+
+            String representativeId = group.representative().getQueryid();
+            Map<String, String> byId = new LinkedHashMap<>();
+            for (QueryGroup.Member m : group.members()) {
+                rewrite(m.query().getQuery(), tables).ifPresent(sql -> byId.put(m.query().getQueryid(), sql));
+            }
+            if (byId.containsKey(representativeId)) {
+                rewritten.put(i, byId);
+            }
+        }
+
+        List<String> partitionHints = new DatePartitionRule(partitionMinShare, partitionTransform).propose(tables, workload)
+                .stream().map(DatePartitionRule.Proposal::hint).toList();
+        log.info("Правила без LLM: переписано групп запросов {} из {}, предложено партиционирование таблиц {} за {} мс",
+                rewritten.size(), groups.size(), partitionHints.size(), (System.nanoTime() - startedAtNs) / 1_000_000);
+        return new Result(partitionHints, rewritten);
+    }
+
+    /**
+     * Переводит запрос, переписанный правилами, на таблицы новой схемы: исходная таблица c.s.t заменяется
+     * на единственную таблицу с тем же именем t, которую создаёт итоговый DDL в другой схеме (при равных —
+     * в том же каталоге). Таблицы без однозначной пары остаются как есть.
+     */
+    public static String retargetToNewSchema(String sql, List<DdlStatement> originalDdl, List<String> finalDdl) {
+        List<String> created = new ArrayList<>();
+        for (String stmt : finalDdl) {
+            String name = TableSchema.createdTable(stmt);
+            if (name != null && name.split("\\.").length == 3) created.add(name);
+        }
+        Map<String, String> renames = new LinkedHashMap<>();
+        for (TableSchema table : TableSchema.parse(originalDdl)) {
+            if (created.contains(table.name())) continue;
+            int dot = table.name().indexOf('.');
+            String catalog = dot > 0 ? table.name().substring(0, dot) : "";
+            List<String> candidates = created.stream()
+                    .filter(n -> n.endsWith("." + table.simpleName()))
+                    .toList();
+            List<String> sameCatalog = candidates.stream().filter(n -> n.startsWith(catalog + ".")).toList();
+            if (sameCatalog.size() == 1) {
+                renames.put(table.name(), sameCatalog.get(0));
+            } else if (sameCatalog.isEmpty() && candidates.size() == 1) {
+                renames.put(table.name(), candidates.get(0));
+            }
+        }
+        return TableSchema.renameQualified(sql, renames);
+    }
+
+    // Правила применяются по очереди к результату предыдущего
+    private Optional<String> rewrite(String sql, List<TableSchema> tables) {
+        if (sql == null) return Optional.empty();
+        List<TableSchema> referenced = TableSchema.referencedBy(SqlTokenizer.tokenize(sql), tables);
+        if (referenced.isEmpty()) return Optional.empty();
+        String current = sql;
+        List<String> applied = new ArrayList<>();
+        for (QueryRule rule : QUERY_RULES) {
+            Optional<String> next = rule.apply(current, referenced);
+            if (next.isPresent()) {
+                current = next.get();
+                applied.add(rule.name());
+            }
+        }
+        if (applied.isEmpty()) return Optional.empty();
+        log.debug("Правила {} переписали запрос", applied);
+        return Optional.of(current);
+    }
+}
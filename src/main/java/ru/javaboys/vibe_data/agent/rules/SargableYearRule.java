@@ -0,0 +1,107 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Token;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Type;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * year(col) = N и year(col) BETWEEN N AND M по колонке date/timestamp переписываются
+ * в диапазон по самой колонке: функция над колонкой не даёт Iceberg отсечь файлы и партиции
+ * по min/max-статистике, а диапазон — даёт.
+ */
+public class SargableYearRule implements QueryRule {
+
+    // предикат должен быть самостоятельным, иначе (1 + year(d) = 2021) поменял бы смысл
+    private static final Set<String> PREDICATE_START = Set.of("where", "and", "or", "on", "having", "when", "not", "(");
+    private static final Set<String> ARITHMETIC = Set.of("+", "-", "*", "/", "%", "||");
+
+    @Override
+    public String name() {
+        return "sargable-year";
+    }
+
+    @Override
+    public Optional<String> apply(String sql, List<TableSchema> tables) {
+        List<Token> tokens = SqlTokenizer.tokenize(sql);
+        StringBuilder out = new StringBuilder(sql.length() + 64);
+        int copied = 0;
+        boolean changed = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            Match m = match(tokens, i, tables);
+            if (m == null) continue;
+            String column = sql.substring(tokens.get(m.columnFrom).start(), tokens.get(m.columnTo).end());
+            out.append(sql, copied, tokens.get(i).start())
+                    .append('(').append(column).append(" >= ").append(literal(m.temporalType, m.fromYear))
+                    .append(" AND ").append(column).append(" < ").append(literal(m.temporalType, m.toYear + 1))
+                    .append(')');
+            copied = tokens.get(m.end).end();
+            i = m.end;
+            changed = true;
+        }
+        if (!changed) return Optional.empty();
+        out.append(sql, copied, sql.length());
+        return Optional.of(out.toString());
+    }
+
+    private record Match(int columnFrom, int columnTo, int end, String temporalType, long fromYear, long toYear) {}
+
+    private static Match match(List<Token> t, int i, List<TableSchema> tables) {
+        if (!TableSchema.isWord(t, i, "year") || i == 0 || i + 3 >= t.size()) return null;
+        if (!PREDICATE_START.contains(t.get(i - 1).text().toLowerCase())) return null;
+        if (!t.get(i + 1).text().equals("(")) return null;
+
+        // колонка: col или alias.col
+        int colFrom = i + 2;
+        int colTo = colFrom;
+        while (colTo + 2 < t.size() && t.get(colTo + 1).text().equals(".")) colTo += 2;
+        if (t.get(colTo).type() != Type.WORD && t.get(colTo).type() != Type.QUOTED) return null;
+        if (colTo + 1 >= t.size() || !t.get(colTo + 1).text().equals(")")) return null;
+        String column = TableSchema.identifier(t.get(colTo));
+        String type = temporalType(column, tables);
+        if (type == null) return null;
+
+        int op = colTo + 2;
+        if (op < t.size() && t.get(op).text().equals("=") && isYear(t, op + 1) && !isArithmetic(t, op + 2)) {
+            long year = Long.parseLong(t.get(op + 1).text());
+            return new Match(colFrom, colTo, op + 1, type, year, year);
+        }
+        if (TableSchema.isWord(t, op, "between") && isYear(t, op + 1) && TableSchema.isWord(t, op + 2, "and")
+                && isYear(t, op + 3) && !isArithmetic(t, op + 4)) {
+            long from = Long.parseLong(t.get(op + 1).text());
+            long to = Long.parseLong(t.get(op + 3).text());
+            if (from > to) return null;
+            return new Match(colFrom, colTo, op + 3, type, from, to);
+        }
+        return null;
+    }
+
+    /** Тип колонки, если ровно в одной из таблиц запроса она date/timestamp; иначе null (неоднозначно). */
+    private static String temporalType(String column, List<TableSchema> tables) {
+        String type = null;
+        for (TableSchema table : tables) {
+            if (!table.columns().containsKey(column)) continue;
+            if (type != null || !table.isTemporal(column)) return null;
+            type = table.columns().get(column);
+        }
+        // для WITH TIME ZONE граница года зависит от зоны значения, литерал без зоны её не повторит
+        return type != null && type.contains("with time zone") ? null : type;
+    }
+
+    private static boolean isYear(List<Token> t, int i) {
+        return i < t.size() && t.get(i).type() == Type.NUMBER && t.get(i).text().matches("\\d{4}");
+    }
+
+    private static boolean isArithmetic(List<Token> t, int i) {
+        return i < t.size() && ARITHMETIC.contains(t.get(i).text());
+    }
+
+    private static String literal(String type, long year) {
+        return type.startsWith("timestamp")
+                ? "TIMESTAMP '" + year + "-01-01 00:00:00'"
+                : "DATE '" + year + "-01-01'";
+    }
+}
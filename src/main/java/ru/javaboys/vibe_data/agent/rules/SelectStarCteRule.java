@@ -0,0 +1,149 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Token;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Type;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * CTE вида name AS (SELECT * FROM table [alias] [WHERE ...]) читает все колонки таблицы.
+ * Если остальная часть запроса нигде не раскрывает * (SELECT *, x.*), то ей доступны только колонки,
+ * имена которых в ней встречаются, — остальные убираются из списка, и Parquet читает меньше колонок.
+ */
+public class SelectStarCteRule implements QueryRule {
+
+    // на верхнем уровне тела CTE — значит, это не простое чтение одной таблицы
+    private static final Set<String> NOT_SIMPLE = Set.of("join", "union", "intersect", "except", "group", "from", "values");
+    private static final Set<String> STAR_CONTEXT = Set.of("select", "distinct", ",", ".", "all");
+    // NATURAL JOIN и TABLE cte зависят от полного набора колонок, не называя их
+    private static final Set<String> IMPLICIT_COLUMNS = Set.of("natural", "table");
+
+    @Override
+    public String name() {
+        return "select-star-cte";
+    }
+
+    @Override
+    public Optional<String> apply(String sql, List<TableSchema> tables) {
+        String current = sql;
+        boolean changed = false;
+        // каждая замена сдвигает позиции, поэтому после неё запрос разбирается заново
+        for (int guard = 0; guard < 32; guard++) {
+            Optional<String> next = pruneFirst(current, tables);
+            if (next.isEmpty()) break;
+            current = next.get();
+            changed = true;
+        }
+        return changed ? Optional.of(current) : Optional.empty();
+    }
+
+    private Optional<String> pruneFirst(String sql, List<TableSchema> tables) {
+        List<Token> t = SqlTokenizer.tokenize(sql);
+        if (!TableSchema.isWord(t, 0, "with")) return Optional.empty();
+        int i = 1;
+        if (TableSchema.isWord(t, i, "recursive")) return Optional.empty();
+        while (i < t.size()) {
+            // name AS ( body )
+            if (i + 2 >= t.size() || !TableSchema.isWord(t, i + 1, "as") || !t.get(i + 2).text().equals("(")) {
+                return Optional.empty();
+            }
+            int bodyStart = i + 3;
+            int bodyEnd = closingParen(t, i + 2);
+            if (bodyEnd < 0) return Optional.empty();
+
+            Optional<String> pruned = prune(sql, t, bodyStart, bodyEnd, tables);
+            if (pruned.isPresent()) return pruned;
+
+            i = bodyEnd + 1;
+            if (i < t.size() && t.get(i).text().equals(",")) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<String> prune(String sql, List<Token> t, int bodyStart, int bodyEnd, List<TableSchema> tables) {
+        // SELECT * FROM table
+        if (!TableSchema.isWord(t, bodyStart, "select") || !t.get(bodyStart + 1).text().equals("*")
+                || !TableSchema.isWord(t, bodyStart + 2, "from")) {
+            return Optional.empty();
+        }
+        int i = bodyStart + 3;
+        StringBuilder name = new StringBuilder();
+        while (i < bodyEnd && (t.get(i).type() == Type.WORD || t.get(i).type() == Type.QUOTED)) {
+            name.append(TableSchema.identifier(t.get(i)));
+            i++;
+            if (i < bodyEnd && t.get(i).text().equals(".")) {
+                name.append('.');
+                i++;
+            } else {
+                break;
+            }
+        }
+        TableSchema table = find(tables, name.toString());
+        if (table == null) return Optional.empty();
+
+        int depth = 0;
+        for (int j = i; j < bodyEnd; j++) {
+            String text = t.get(j).text();
+            if (text.equals("(")) depth++;
+            else if (text.equals(")")) depth--;
+            else if (depth == 0 && (text.equals(",") || (t.get(j).type() == Type.WORD
+                    && NOT_SIMPLE.contains(text.toLowerCase(Locale.ROOT))))) {
+                return Optional.empty();
+            }
+        }
+
+        // имена, которые встречаются вне тела CTE
+        Set<String> used = new HashSet<>();
+        for (int j = 0; j < t.size(); j++) {
+            if (j >= bodyStart && j < bodyEnd) continue;
+            Token tok = t.get(j);
+            if (tok.text().equals("*") && j > 0 && STAR_CONTEXT.contains(t.get(j - 1).text().toLowerCase(Locale.ROOT))) {
+                return Optional.empty();
+            }
+            if (tok.type() == Type.WORD && IMPLICIT_COLUMNS.contains(tok.text().toLowerCase(Locale.ROOT))) {
+                return Optional.empty();
+            }
+            if (tok.type() == Type.WORD || tok.type() == Type.QUOTED) {
+                used.add(TableSchema.identifier(tok));
+            }
+        }
+        List<String> keep = new ArrayList<>();
+        for (String column : table.columns().keySet()) {
+            if (used.contains(column)) keep.add(column);
+        }
+        if (keep.size() == table.columns().size()) return Optional.empty();
+        if (keep.isEmpty()) {
+            // снаружи колонки не нужны (например, только COUNT(*)), но список SELECT не может быть пустым
+            keep.add(table.columns().keySet().iterator().next());
+        }
+
+        Token star = t.get(bodyStart + 1);
+        return Optional.of(sql.substring(0, star.start()) + String.join(", ", keep) + sql.substring(star.end()));
+    }
+
+    private static TableSchema find(List<TableSchema> tables, String name) {
+        for (TableSchema table : tables) {
+            if (table.name().equals(name)) return table;
+        }
+        return null;
+    }
+
+    private static int closingParen(List<Token> t, int open) {
+        int depth = 0;
+        for (int j = open; j < t.size(); j++) {
+            if (t.get(j).text().equals("(")) depth++;
+            else if (t.get(j).text().equals(")") && --depth == 0) return j;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,268 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Token;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Type;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Таблица из входного DDL: полное имя, колонки с типами и признак уже заданного партиционирования.
+ * Имена приводятся к нижнему регистру (как их видит Trino), statement — исходный текст CREATE TABLE.
+ */
+public record TableSchema(String name, Map<String, String> columns, boolean partitioned, String statement) {
+
+    public String simpleName() {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    public boolean isTemporal(String column) {
+        String type = columns.get(column);
+        return type != null && (type.startsWith("date") || type.startsWith("timestamp"));
+    }
+
+    /** Разбирает CREATE TABLE из DDL; прочие операторы и неразобранные таблицы пропускаются. */
+    public static List<TableSchema> parse(List<DdlStatement> ddl) {
+        List<TableSchema> tables = new ArrayList<>();
+        if (ddl == null) return tables;
+        for (DdlStatement d : ddl) {
+            if (d == null || d.getStatement() == null) continue;
+            TableSchema t = parse(d.getStatement());
+            if (t != null) tables.add(t);
+        }
+        return tables;
+    }
+
+    public static TableSchema parse(String statement) {
+        List<Token> tokens = SqlTokenizer.tokenize(statement);
+        int i = createdNameStart(tokens);
+        if (i < 0) return null;
+
+        StringBuilder name = new StringBuilder();
+        i = readName(tokens, i, name);
+        if (name.isEmpty() || i >= tokens.size() || !tokens.get(i).text().equals("(")) return null;
+        i++;
+
+        Map<String, String> columns = new LinkedHashMap<>();
+        int depth = 0;
+        String column = null;
+        StringBuilder type = new StringBuilder();
+        for (; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (depth == 0 && (t.text().equals(",") || t.text().equals(")"))) {
+                if (column != null) columns.put(column, type.toString().trim());
+                column = null;
+                type.setLength(0);
+                if (t.text().equals(")")) {
+                    i++;
+                    break;
+                }
+                continue;
+            }
+            if (t.text().equals("(")) depth++;
+            if (t.text().equals(")")) depth--;
+            if (column == null) {
+                column = identifier(t);
+            } else {
+                if (t.type() == Type.WORD && !type.isEmpty() && Character.isLetterOrDigit(type.charAt(type.length() - 1))) {
+                    type.append(' ');
+                }
+                type.append(t.type() == Type.WORD ? t.text().toLowerCase(Locale.ROOT) : t.text());
+            }
+        }
+
+        boolean partitioned = false;
+        for (; i < tokens.size(); i++) {
+            if (isWord(tokens, i, "partitioning") || isWord(tokens, i, "partitioned_by")) {
+                partitioned = true;
+                break;
+            }
+        }
+        return new TableSchema(name.toString(), columns, partitioned, statement.trim());
+    }
+
+    /**
+     * Имя таблицы (в нижнем регистре), создаваемой оператором CREATE TABLE — в том числе CREATE TABLE ... AS SELECT;
+     * null, если это не CREATE TABLE.
+     */
+    public static String createdTable(String statement) {
+        if (statement == null) return null;
+        List<Token> tokens = SqlTokenizer.tokenize(statement);
+        int i = createdNameStart(tokens);
+        if (i < 0) return null;
+        StringBuilder name = new StringBuilder();
+        readName(tokens, i, name);
+        return name.isEmpty() ? null : name.toString();
+    }
+
+    // позиция имени после CREATE [OR REPLACE] TABLE [IF NOT EXISTS] или -1
+    private static int createdNameStart(List<Token> tokens) {
+        int i = 0;
+        if (!isWord(tokens, i, "create")) return -1;
+        i++;
+        if (isWord(tokens, i, "or") && isWord(tokens, i + 1, "replace")) i += 2;
+        if (!isWord(tokens, i, "table")) return -1;
+        i++;
+        if (isWord(tokens, i, "if") && isWord(tokens, i + 1, "not") && isWord(tokens, i + 2, "exists")) i += 3;
+        return i;
+    }
+
+    // дописывает в name имя a.b.c, начинающееся с позиции i; возвращает позицию после имени
+    private static int readName(List<Token> tokens, int i, StringBuilder name) {
+        while (i < tokens.size() && isIdentifier(tokens.get(i))) {
+            name.append(identifier(tokens.get(i)));
+            i++;
+            if (i < tokens.size() && tokens.get(i).text().equals(".")) {
+                name.append('.');
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Заменяет полные имена объектов по карте renames (ключи — в нижнем регистре). Строки и комментарии
+     * не затрагиваются: замена идёт по токенам.
+     */
+    public static String renameQualified(String sql, Map<String, String> renames) {
+        if (sql == null || renames.isEmpty()) return sql;
+        List<Token> tokens = SqlTokenizer.tokenize(sql);
+        StringBuilder out = new StringBuilder();
+        int copied = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!isIdentifier(tokens.get(i)) || (i > 0 && tokens.get(i - 1).text().equals("."))) continue;
+            StringBuilder name = new StringBuilder();
+            int end = readName(tokens, i, name);
+            // readName останавливается после точки без продолжения — такой хвост не часть имени
+            int last = tokens.get(end - 1).text().equals(".") ? end - 2 : end - 1;
+            String key = name.charAt(name.length() - 1) == '.' ? name.substring(0, name.length() - 1) : name.toString();
+            String target = renames.get(key);
+            if (target != null) {
+                out.append(sql, copied, tokens.get(i).start()).append(target);
+                copied = tokens.get(last).end();
+            }
+            i = last;
+        }
+        return out.append(sql.substring(copied)).toString();
+    }
+
+    /**
+     * Колонки, по которым задана раскладка данных (partitioning, sorted_by, bucketed_by, partitioned_by):
+     * из элементов вида 'day(ts)', 'bucket(id, 16)' или 'col DESC' берутся имена колонок таблицы.
+     */
+    public Set<String> layoutColumns() {
+        Set<String> layout = new HashSet<>();
+        List<Token> tokens = SqlTokenizer.tokenize(statement);
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!isWord(tokens, i, "partitioning") && !isWord(tokens, i, "sorted_by")
+                    && !isWord(tokens, i, "bucketed_by") && !isWord(tokens, i, "partitioned_by")) continue;
+            for (int j = i + 1; j < tokens.size() && !tokens.get(j).text().equals("]"); j++) {
+                Token t = tokens.get(j);
+                if (t.type() != Type.STRING) continue;
+                String inner = t.text().substring(1, Math.max(1, t.text().length() - 1)).replace("''", "'");
+                for (Token part : SqlTokenizer.tokenize(inner)) {
+                    if (isIdentifier(part) && columns.containsKey(identifier(part))) layout.add(identifier(part));
+                }
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * CREATE TABLE только с колонками из keep — определения колонок берутся из исходного текста как есть,
+     * свойства таблицы сохраняются. Если опускать нечего, возвращается исходный statement.
+     */
+    public String pruned(Set<String> keep) {
+        List<Token> tokens = SqlTokenizer.tokenize(statement);
+        int open = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).text().equals("(")) {
+                open = i;
+                break;
+            }
+        }
+        if (open < 0) return statement;
+
+        List<String> kept = new ArrayList<>();
+        int total = 0;
+        int depth = 0;
+        int first = -1;
+        int close = -1;
+        for (int i = open + 1; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (depth == 0 && (t.text().equals(",") || t.text().equals(")"))) {
+                if (first >= 0) {
+                    total++;
+                    if (keep.contains(identifier(tokens.get(first)))) {
+                        kept.add(statement.substring(tokens.get(first).start(), tokens.get(i - 1).end()));
+                    }
+                }
+                first = -1;
+                if (t.text().equals(")")) {
+                    close = i;
+                    break;
+                }
+                continue;
+            }
+            if (first < 0) first = i;
+            if (t.text().equals("(")) depth++;
+            if (t.text().equals(")")) depth--;
+        }
+        if (close < 0 || kept.size() == total || kept.isEmpty()) return statement;
+
+        return statement.substring(0, tokens.get(open).end())
+                + "\n    " + String.join(",\n    ", kept) + "\n"
+                + statement.substring(tokens.get(close).start())
+                + "\n-- опущено колонок: " + (total - kept.size()) + " (запрос к ним не обращается)";
+    }
+
+    /** Полные имена объектов (a.b.c, в нижнем регистре), упомянутые в токенах. */
+    public static Set<String> qualifiedNames(List<Token> tokens) {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!isIdentifier(tokens.get(i)) || (i > 0 && tokens.get(i - 1).text().equals("."))) continue;
+            StringBuilder name = new StringBuilder(identifier(tokens.get(i)));
+            int j = i;
+            while (j + 2 < tokens.size() && tokens.get(j + 1).text().equals(".") && isIdentifier(tokens.get(j + 2))) {
+                name.append('.').append(identifier(tokens.get(j + 2)));
+                j += 2;
+            }
+            names.add(name.toString());
+        }
+        return names;
+    }
+
+    /** Таблицы DDL, на которые запрос ссылается полным именем. */
+    public static List<TableSchema> referencedBy(List<Token> tokens, List<TableSchema> tables) {
+        Set<String> names = qualifiedNames(tokens);
+        List<TableSchema> referenced = new ArrayList<>();
+        for (TableSchema table : tables) {
+            if (names.contains(table.name())) referenced.add(table);
+        }
+        return referenced;
+    }
+
+    public static boolean isIdentifier(Token t) {
+        return t.type() == Type.WORD || t.type() == Type.QUOTED;
+    }
+
+    public static String identifier(Token t) {
+        if (t.type() == Type.QUOTED) {
+            return t.text().substring(1, t.text().length() - 1).replace("\"\"", "\"").toLowerCase(Locale.ROOT);
+        }
+        return t.text().toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isWord(List<Token> tokens, int i, String word) {
+        return i >= 0 && i < tokens.size() && tokens.get(i).type() == Type.WORD && tokens.get(i).text().equalsIgnoreCase(word);
+    }
+}
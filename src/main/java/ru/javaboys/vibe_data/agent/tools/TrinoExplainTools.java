@@ -6,12 +6,15 @@ import org.springframework.stereotype.Component;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import ru.javaboys.vibe_data.agent.tools.plan.ExplainPlanParser;
+import ru.javaboys.vibe_data.agent.tools.plan.ExplainPlanSummarizer;
 import ru.javaboys.vibe_data.dto.TrinoResponse;
 import ru.javaboys.vibe_data.service.TrinoDbService;
 
 /**
  * Набор инструментов, доступных LLM через Tool Calling (Spring AI Function Calling).
  * Позволяет модели самостоятельно запрашивать планы выполнения.
+ * JSON-планы (LOGICAL, DISTRIBUTED, IO) отдаются в виде краткой сводки, полный план — через explainFullPlan.
  */
 @Slf4j
 @Component
@@ -19,20 +22,22 @@ import ru.javaboys.vibe_data.service.TrinoDbService;
 public class TrinoExplainTools {
 
     private final TrinoDbService trinoDbService;
+    private final ExplainPlanSummarizer explainPlanSummarizer;
+    private final ExplainPlanParser explainPlanParser = new ExplainPlanParser();
 
-    @Tool(description = "Получить план EXPLAIN LOGICAL для указанного SQL.")
+    @Tool(description = "Получить сводку плана EXPLAIN LOGICAL для указанного SQL: горячие точки, сканирования, обмены, соединения.")
     public TrinoResponse explainLogical(@ToolParam(description = "SQL-запрос, для которого нужно получить план") String sql) {
-        return trinoDbService.explain(sql, TrinoExplainType.LOGICAL);
+        return summarized(sql, TrinoExplainType.LOGICAL);
     }
 
-    @Tool(description = "Получить план EXPLAIN DISTRIBUTED для указанного SQL.")
+    @Tool(description = "Получить сводку плана EXPLAIN DISTRIBUTED для указанного SQL: горячие точки по стадиям, обмены между узлами.")
     public TrinoResponse explainDistributed(@ToolParam(description = "SQL-запрос, для которого нужно получить план") String sql) {
-        return trinoDbService.explain(sql, TrinoExplainType.DISTRIBUTED);
+        return summarized(sql, TrinoExplainType.DISTRIBUTED);
     }
 
-    @Tool(description = "Получить план EXPLAIN IO для указанного SQL; включает сводку ввода-вывода.")
+    @Tool(description = "Получить сводку EXPLAIN IO для указанного SQL: читаемые таблицы, ограниченные предикатами колонки, объёмы.")
     public TrinoResponse explainIo(@ToolParam(description = "SQL-запрос, для которого нужно получить план") String sql) {
-        return trinoDbService.explain(sql, TrinoExplainType.IO);
+        return summarized(sql, TrinoExplainType.IO);
     }
 
     @Tool(description = "Выполнить EXPLAIN ANALYZE для указанного SQL. ВНИМАНИЕ: запрос будет выполнен.")
@@ -44,4 +49,45 @@ public class TrinoExplainTools {
     public TrinoResponse explainAnalyzeVerbose(@ToolParam(description = "SQL-запрос, для которого нужно получить подробные метрики исполнения") String sql) {
         return trinoDbService.explain(sql, TrinoExplainType.ANALYZE_VERBOSE);
     }
+
+    /**
+     * Типы, доступные в explainFullPlan: только планы без выполнения запроса. Отдельный enum,
+     * чтобы в схему инструмента не попали ANALYZE и VALIDATE.
+     */
+    public enum FullPlanType {
+        LOGICAL(TrinoExplainType.LOGICAL),
+        DISTRIBUTED(TrinoExplainType.DISTRIBUTED),
+        IO(TrinoExplainType.IO);
+
+        private final TrinoExplainType explainType;
+
+        FullPlanType(TrinoExplainType explainType) {
+            this.explainType = explainType;
+        }
+    }
+
+    @Tool(description = "Получить ПОЛНЫЙ план EXPLAIN (JSON) указанного типа. Объёмный ответ: используй, только если сводки недостаточно.")
+    public TrinoResponse explainFullPlan(
+            @ToolParam(description = "SQL-запрос, для которого нужно получить план") String sql,
+            @ToolParam(description = "Тип плана: LOGICAL, DISTRIBUTED или IO") FullPlanType type) {
+        if (type == null) {
+            return TrinoResponse.error("Не указан тип плана: LOGICAL, DISTRIBUTED или IO");
+        }
+        return trinoDbService.explain(sql, type.explainType);
+    }
+
+    private TrinoResponse summarized(String sql, TrinoExplainType type) {
+        TrinoResponse raw = trinoDbService.explain(sql, type);
+        if (raw == null || raw.getResponse() == null) {
+            return raw;
+        }
+        try {
+            String summary = explainPlanSummarizer.summarize(explainPlanParser.parse(raw.getResponse(), type));
+            log.debug("Explain {} summarized: {} -> {} chars", type, raw.getResponse().length(), summary.length());
+            return TrinoResponse.success(summary);
+        } catch (IllegalArgumentException e) {
+            log.debug("Explain {} is not a JSON plan, returning raw output: {}", type, e.getMessage());
+            return raw;
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Разобранный план EXPLAIN.
+ * LOGICAL — один фрагмент, DISTRIBUTED — по фрагменту на стадию, IO — только список входных таблиц.
+ */
+public record ExplainPlan(
+        TrinoExplainType type,
+        List<PlanNode> fragments,
+        List<IoTableInput> ioInputs,
+        PlanEstimate totalEstimate
+) {
+    public Stream<PlanNode> nodes() {
+        return fragments.stream().flatMap(PlanNode::flatten);
+    }
+}
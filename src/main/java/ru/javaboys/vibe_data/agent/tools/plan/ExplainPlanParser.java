@@ -0,0 +1,124 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Разбор JSON, который Trino возвращает на EXPLAIN (TYPE ..., FORMAT JSON), в {@link ExplainPlan}.
+ */
+public class ExplainPlanParser {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @throws IllegalArgumentException если текст не является JSON-планом (например, вывод EXPLAIN ANALYZE)
+     */
+    public ExplainPlan parse(String json, TrinoExplainType type) {
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Explain output is not JSON", e);
+        }
+        if (root == null || !root.isObject()) {
+            throw new IllegalArgumentException("Explain output is not a JSON object");
+        }
+
+        if (root.has("inputTableColumnInfos")) {
+            List<IoTableInput> inputs = new ArrayList<>();
+            for (JsonNode info : root.path("inputTableColumnInfos")) {
+                inputs.add(parseIoInput(info));
+            }
+            return new ExplainPlan(type, List.of(), inputs, parseEstimate(root.path("estimate")));
+        }
+
+        List<PlanNode> fragments = new ArrayList<>();
+        if (root.has("name")) {
+            fragments.add(parseNode(root));
+        } else {
+            // DISTRIBUTED: { "<fragmentId>": <node>, ... }
+            for (Map.Entry<String, JsonNode> entry : root.properties()) {
+                JsonNode fragment = entry.getValue();
+                if (fragment.isObject() && fragment.has("name")) {
+                    fragments.add(parseNode(fragment));
+                }
+            }
+        }
+        if (fragments.isEmpty()) {
+            throw new IllegalArgumentException("Explain JSON contains no plan nodes");
+        }
+        return new ExplainPlan(type, fragments, List.of(), PlanEstimate.UNKNOWN);
+    }
+
+    private PlanNode parseNode(JsonNode n) {
+        Map<String, String> descriptor = new LinkedHashMap<>();
+        n.path("descriptor").properties().forEach(e -> descriptor.put(e.getKey(), e.getValue().asText()));
+
+        List<PlanColumn> outputs = new ArrayList<>();
+        for (JsonNode o : n.path("outputs")) {
+            outputs.add(new PlanColumn(o.path("name").asText(), o.path("type").asText()));
+        }
+
+        List<String> details = new ArrayList<>();
+        for (JsonNode d : n.path("details")) {
+            details.add(d.asText());
+        }
+
+        JsonNode estimates = n.path("estimates");
+        PlanEstimate estimate = estimates.isArray() && !estimates.isEmpty()
+                ? parseEstimate(estimates.get(0))
+                : PlanEstimate.UNKNOWN;
+
+        List<PlanNode> children = new ArrayList<>();
+        for (JsonNode c : n.path("children")) {
+            children.add(parseNode(c));
+        }
+
+        return new PlanNode(n.path("id").asText(), n.path("name").asText(), descriptor, outputs, details, estimate, children);
+    }
+
+    private IoTableInput parseIoInput(JsonNode info) {
+        JsonNode table = info.path("table");
+        String fqtn = table.path("catalog").asText() + "."
+                + table.path("schemaTable").path("schema").asText() + "."
+                + table.path("schemaTable").path("table").asText();
+        List<String> constrained = new ArrayList<>();
+        for (JsonNode c : info.path("constraint").path("columnConstraints")) {
+            constrained.add(c.path("columnName").asText());
+        }
+        return new IoTableInput(fqtn, constrained, parseEstimate(info.path("estimate")));
+    }
+
+    private PlanEstimate parseEstimate(JsonNode e) {
+        if (e == null || e.isMissingNode() || !e.isObject()) {
+            return PlanEstimate.UNKNOWN;
+        }
+        double memory = e.has("memoryCost") ? number(e.path("memoryCost")) : number(e.path("maxMemory"));
+        return new PlanEstimate(
+                number(e.path("outputRowCount")),
+                number(e.path("outputSizeInBytes")),
+                number(e.path("cpuCost")),
+                memory,
+                number(e.path("networkCost"))
+        );
+    }
+
+    // Trino отдаёт неизвестные оценки строкой "NaN"
+    private double number(JsonNode v) {
+        if (v.isNumber()) return v.asDouble();
+        if (v.isTextual()) {
+            try {
+                return Double.parseDouble(v.asText());
+            } catch (NumberFormatException ignored) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,163 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Сжимает разобранный план EXPLAIN в короткий текст для LLM: горячие точки по оценке стоимости,
+ * сканирования таблиц (колонки, фильтры), обмены и соединения. Полный план остаётся доступен отдельным инструментом.
+ */
+@Component
+public class ExplainPlanSummarizer {
+
+    private static final int MAX_COLUMNS = 12;
+    private static final int MAX_TEXT = 300;
+
+    private final int topOperators;
+
+    public ExplainPlanSummarizer(@Value("${explain.summary.top-operators:8}") int topOperators) {
+        this.topOperators = Math.max(1, topOperators);
+    }
+
+    public String summarize(ExplainPlan plan) {
+        if (!plan.ioInputs().isEmpty() || plan.fragments().isEmpty()) {
+            return summarizeIo(plan);
+        }
+        StringBuilder sb = new StringBuilder();
+        List<PlanNode> nodes = plan.nodes().toList();
+        sb.append("План EXPLAIN ").append(plan.type().getName())
+                .append(": операторов ").append(nodes.size())
+                .append(", фрагментов ").append(plan.fragments().size()).append('\n');
+
+        List<PlanNode> hot = nodes.stream()
+                .filter(n -> rank(n) > 0)
+                .sorted(Comparator.comparingDouble(this::rank).reversed())
+                .limit(topOperators)
+                .toList();
+        if (hot.isEmpty()) {
+            sb.append("Горячие точки: оценки стоимости недоступны (нет статистики)\n");
+        } else {
+            sb.append("Горячие точки (по убыванию оценки):\n");
+            for (int i = 0; i < hot.size(); i++) {
+                PlanNode n = hot.get(i);
+                sb.append(i + 1).append(". ").append(n.name()).append('#').append(n.id())
+                        .append(" — ").append(formatEstimate(n.estimate()));
+                String hint = operatorHint(n);
+                if (hint != null) sb.append("; ").append(hint);
+                sb.append('\n');
+            }
+        }
+
+        List<PlanNode> scans = nodes.stream().filter(PlanNode::isScan).toList();
+        if (!scans.isEmpty()) {
+            sb.append("Сканирования:\n");
+            for (PlanNode scan : scans) {
+                sb.append("- ").append(scan.scannedTable())
+                        .append(": колонок ").append(scan.outputs().size())
+                        .append(" (").append(columnList(scan.outputs())).append(')');
+                String filter = scan.descriptor().get("filterPredicate");
+                if (filter != null) sb.append("; фильтр: ").append(left(filter));
+                String dynamic = scan.descriptor().get("dynamicFilters");
+                if (dynamic != null) sb.append("; dynamic filters: ").append(left(dynamic));
+                sb.append("; ").append(formatEstimate(scan.estimate())).append('\n');
+            }
+        }
+
+        Map<String, Long> exchanges = nodes.stream()
+                .filter(PlanNode::isExchange)
+                .collect(Collectors.groupingBy(PlanNode::name, TreeMap::new, Collectors.counting()));
+        if (!exchanges.isEmpty()) {
+            sb.append("Обмены: ").append(exchanges.entrySet().stream()
+                    .map(e -> e.getKey() + "×" + e.getValue())
+                    .collect(Collectors.joining(", "))).append('\n');
+        }
+
+        List<PlanNode> joins = nodes.stream().filter(PlanNode::isJoin).toList();
+        if (!joins.isEmpty()) {
+            sb.append("Соединения:\n");
+            for (PlanNode join : joins) {
+                sb.append("- ").append(join.name()).append('#').append(join.id());
+                String hint = operatorHint(join);
+                if (hint != null) sb.append(": ").append(hint);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private String summarizeIo(ExplainPlan plan) {
+        StringBuilder sb = new StringBuilder("План EXPLAIN IO: входных таблиц ")
+                .append(plan.ioInputs().size()).append('\n');
+        for (IoTableInput in : plan.ioInputs()) {
+            sb.append("- ").append(in.table())
+                    .append(": ").append(formatEstimate(in.estimate()));
+            if (!in.constrainedColumns().isEmpty()) {
+                sb.append("; ограничены предикатами: ").append(String.join(", ", in.constrainedColumns()));
+            } else {
+                sb.append("; предикатов на колонки нет (полное сканирование)");
+            }
+            sb.append('\n');
+        }
+        sb.append("Итого: ").append(formatEstimate(plan.totalEstimate())).append('\n');
+        return sb.toString();
+    }
+
+    // Стоимость узла для ранжирования: сумма известных затрат, иначе объём выходных данных
+    private double rank(PlanNode n) {
+        double cost = n.estimate().totalCost();
+        if (cost > 0) return cost;
+        double size = n.estimate().outputSizeInBytes();
+        return Double.isFinite(size) ? size : 0d;
+    }
+
+    private String operatorHint(PlanNode n) {
+        for (String key : List.of("criteria", "distribution", "groupBy", "keys", "orderBy", "partitionBy", "filterPredicate")) {
+            String v = n.descriptor().get(key);
+            if (v != null && !v.isBlank() && !"[]".equals(v)) {
+                return key + "=" + left(v);
+            }
+        }
+        return null;
+    }
+
+    private String columnList(List<PlanColumn> columns) {
+        String head = columns.stream().limit(MAX_COLUMNS).map(PlanColumn::name).collect(Collectors.joining(", "));
+        return columns.size() > MAX_COLUMNS ? head + ", …+" + (columns.size() - MAX_COLUMNS) : head;
+    }
+
+    private String formatEstimate(PlanEstimate e) {
+        return "строк≈" + formatCount(e.outputRowCount())
+                + ", объём≈" + formatBytes(e.outputSizeInBytes())
+                + ", cpu≈" + formatCount(e.cpuCost())
+                + ", mem≈" + formatCount(e.memoryCost())
+                + ", net≈" + formatCount(e.networkCost());
+    }
+
+    private String formatCount(double v) {
+        if (!Double.isFinite(v)) return "?";
+        if (Math.abs(v) < 10_000) return String.format(Locale.ROOT, "%.0f", v);
+        return String.format(Locale.ROOT, "%.2e", v);
+    }
+
+    private String formatBytes(double v) {
+        if (!Double.isFinite(v)) return "?";
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        int u = 0;
+        while (v >= 1024 && u < units.length - 1) {
+            v /= 1024;
+            u++;
+        }
+        return String.format(Locale.ROOT, u == 0 ? "%.0f%s" : "%.1f%s", v, units[u]);
+    }
+
+    private String left(String s) {
+        return s.length() <= MAX_TEXT ? s : s.substring(0, MAX_TEXT) + "...";
+    }
+}
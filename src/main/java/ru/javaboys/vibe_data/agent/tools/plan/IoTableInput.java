@@ -0,0 +1,13 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+import java.util.List;
+
+/**
+ * Входная таблица из EXPLAIN (TYPE IO): какие колонки ограничены предикатами и сколько данных ожидается.
+ */
+public record IoTableInput(
+        String table,
+        List<String> constrainedColumns,
+        PlanEstimate estimate
+) {
+}
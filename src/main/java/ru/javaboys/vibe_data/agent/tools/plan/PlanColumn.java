@@ -0,0 +1,4 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+public record PlanColumn(String name, String type) {
+}
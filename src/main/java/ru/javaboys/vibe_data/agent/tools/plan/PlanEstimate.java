@@ -0,0 +1,25 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+/**
+ * Оценки оптимизатора Trino для оператора. Отсутствующие значения — NaN (так их отдаёт и сам Trino).
+ */
+public record PlanEstimate(
+        double outputRowCount,
+        double outputSizeInBytes,
+        double cpuCost,
+        double memoryCost,
+        double networkCost
+) {
+    public static final PlanEstimate UNKNOWN = new PlanEstimate(Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+
+    /**
+     * Суммарная стоимость по известным компонентам (cpu + memory + network), 0 если оценок нет.
+     */
+    public double totalCost() {
+        return finite(cpuCost) + finite(memoryCost) + finite(networkCost);
+    }
+
+    private static double finite(double v) {
+        return Double.isFinite(v) ? v : 0d;
+    }
+}
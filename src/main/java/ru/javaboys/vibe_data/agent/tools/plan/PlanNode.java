@@ -0,0 +1,52 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Узел плана EXPLAIN (FORMAT JSON): оператор, его параметры, выходные колонки, оценки и дочерние узлы.
+ */
+public record PlanNode(
+        String id,
+        String name,
+        Map<String, String> descriptor,
+        List<PlanColumn> outputs,
+        List<String> details,
+        PlanEstimate estimate,
+        List<PlanNode> children
+) {
+    /**
+     * Узел и все его потомки в порядке обхода в глубину.
+     */
+    public Stream<PlanNode> flatten() {
+        return Stream.concat(Stream.of(this), children.stream().flatMap(PlanNode::flatten));
+    }
+
+    public boolean isScan() {
+        return name != null && (name.startsWith("TableScan") || name.startsWith("Scan"));
+    }
+
+    public boolean isExchange() {
+        return name != null && (name.endsWith("Exchange") || name.endsWith("Merge"));
+    }
+
+    public boolean isJoin() {
+        return name != null && name.contains("Join");
+    }
+
+    /**
+     * Имя таблицы сканирования в виде catalog.schema.table
+     * (Trino пишет "flights:public.flights$data@9119431624673072209").
+     */
+    public String scannedTable() {
+        String table = descriptor.get("table");
+        if (table == null) return null;
+        int cut = table.length();
+        int dollar = table.indexOf('$');
+        if (dollar >= 0) cut = Math.min(cut, dollar);
+        int at = table.indexOf('@');
+        if (at >= 0) cut = Math.min(cut, at);
+        return table.substring(0, cut).replaceFirst(":", ".");
+    }
+}
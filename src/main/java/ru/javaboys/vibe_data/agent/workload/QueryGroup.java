@@ -0,0 +1,58 @@
+package ru.javaboys.vibe_data.agent.workload;
+
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Группа запросов одной формы. Оптимизируется только представитель (запрос с наибольшим весом),
+ * результат переносится на остальных участников через {@link QueryShape#reapply}.
+ *
+ * @param representative      запрос, который уходит в LLM
+ * @param representativeShape форма и литералы представителя
+ * @param members             все запросы группы, включая представителя, в исходном порядке
+ * @param weight              суммарный вес группы — по нему группы идут в работу
+ */
+public record QueryGroup(QueryInput representative, QueryShape representativeShape, List<Member> members, long weight) {
+
+    public record Member(QueryInput query, QueryShape shape) {}
+
+    public static QueryGroup single(QueryInput q, ToLongFunction<QueryInput> weightOf) {
+        QueryShape shape = QueryShape.of(q.getQuery());
+        return new QueryGroup(q, shape, List.of(new Member(q, shape)), weightOf.applyAsLong(q));
+    }
+
+    /**
+     * Группирует запросы по форме (byShape = true) или по точному тексту и сортирует группы
+     * по убыванию суммарного веса. Пустые и null-запросы пропускаются.
+     */
+    public static List<QueryGroup> group(List<QueryInput> queries, boolean byShape, ToLongFunction<QueryInput> weightOf) {
+        if (queries == null || queries.isEmpty()) return List.of();
+        Map<String, List<Member>> byKey = new LinkedHashMap<>();
+        for (QueryInput q : queries) {
+            if (q == null || q.getQuery() == null) continue;
+            QueryShape shape = QueryShape.of(q.getQuery());
+            String key = byShape ? shape.shape() : q.getQuery();
+            byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(new Member(q, shape));
+        }
+        List<QueryGroup> groups = new ArrayList<>(byKey.size());
+        for (List<Member> members : byKey.values()) {
+            Member best = members.get(0);
+            long weight = 0;
+            for (Member m : members) {
+                weight += weightOf.applyAsLong(m.query());
+                if (weightOf.applyAsLong(m.query()) > weightOf.applyAsLong(best.query())) {
+                    best = m;
+                }
+            }
+            groups.add(new QueryGroup(best.query(), best.shape(), List.copyOf(members), weight));
+        }
+        groups.sort(Comparator.comparingLong(QueryGroup::weight).reversed());
+        return groups;
+    }
+}
@@ -0,0 +1,98 @@
+package ru.javaboys.vibe_data.agent.workload;
+
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+import ru.javaboys.vibe_data.util.SqlTokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * «Форма» запроса: текст без литералов (строки и числа заменены на ?), идентификаторы без кавычек
+ * в нижнем регистре, пробелы и комментарии нормализованы. Запросы одной формы отличаются только
+ * значениями литералов, поэтому достаточно оптимизировать один из них и перенести литералы.
+ *
+ * @param shape    нормализованный текст формы
+ * @param literals литералы в порядке появления (исходный текст, с кавычками)
+ */
+public record QueryShape(String shape, List<String> literals) {
+
+    public static QueryShape of(String sql) {
+        List<Token> tokens = SqlTokenizer.tokenize(sql);
+        StringBuilder shape = new StringBuilder(sql == null ? 0 : sql.length());
+        List<String> literals = new ArrayList<>();
+        for (Token t : tokens) {
+            if (!shape.isEmpty()) {
+                shape.append(' ');
+            }
+            switch (t.type()) {
+                case STRING, NUMBER -> {
+                    shape.append('?');
+                    literals.add(t.text());
+                }
+                // Trino не различает регистр идентификаторов без кавычек
+                case WORD -> shape.append(t.text().toLowerCase(Locale.ROOT));
+                default -> shape.append(t.text());
+            }
+        }
+        // точка с запятой в конце на форму не влияет
+        int len = shape.length();
+        if (len >= 1 && shape.charAt(len - 1) == ';') {
+            shape.setLength(len > 1 ? len - 2 : 0);
+        }
+        return new QueryShape(shape.toString(), List.copyOf(literals));
+    }
+
+    /**
+     * Переносит оптимизацию представителя на другой запрос той же формы: в переписанном запросе
+     * литералы представителя заменяются литералами участника.
+     *
+     * Перенос невозможен (пустой результат), если одно значение представителя соответствует разным
+     * значениям участника (непонятно, какое куда подставлять) или если отличающийся литерал
+     * в переписанном запросе не встречается (LLM его убрал или переписал в другом виде).
+     */
+    public Optional<String> reapply(String rewrittenSql, QueryShape member) {
+        if (!shape.equals(member.shape) || literals.size() != member.literals.size()) {
+            return Optional.empty();
+        }
+        Map<String, String> mapping = new HashMap<>();
+        Set<String> changed = new HashSet<>();
+        for (int i = 0; i < literals.size(); i++) {
+            String from = literals.get(i);
+            String to = member.literals.get(i);
+            String previous = mapping.putIfAbsent(from, to);
+            if (previous != null && !previous.equals(to)) {
+                return Optional.empty();
+            }
+            if (!from.equals(to)) {
+                changed.add(from);
+            }
+        }
+        if (changed.isEmpty()) {
+            return Optional.of(rewrittenSql);
+        }
+
+        List<Token> tokens = SqlTokenizer.tokenize(rewrittenSql);
+        Set<String> seen = new HashSet<>();
+        StringBuilder out = new StringBuilder(rewrittenSql.length());
+        int copied = 0;
+        for (Token t : tokens) {
+            if (!t.isLiteral() || !changed.contains(t.text())) {
+                continue;
+            }
+            seen.add(t.text());
+            out.append(rewrittenSql, copied, t.start()).append(mapping.get(t.text()));
+            copied = t.end();
+        }
+        if (!seen.containsAll(changed)) {
+            return Optional.empty();
+        }
+        out.append(rewrittenSql, copied, rewrittenSql.length());
+        return Optional.of(out.toString());
+    }
+}
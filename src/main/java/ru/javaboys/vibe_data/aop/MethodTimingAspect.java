@@ -1,22 +1,45 @@
 package ru.javaboys.vibe_data.aop;
 
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import ru.javaboys.vibe_data.monitoring.MeasurementEvent;
-import ru.javaboys.vibe_data.monitoring.MethodStatsUpdater;
+import ru.javaboys.vibe_data.config.LlmProperties;
+import ru.javaboys.vibe_data.llm.LlmRequest;
+import ru.javaboys.vibe_data.monitoring.MethodStatsAggregator;
 import ru.javaboys.vibe_data.monitoring.Monitored;
 
-@Slf4j
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 @Aspect
 @Component
-@RequiredArgsConstructor
 public class MethodTimingAspect {
 
-    private final MethodStatsUpdater updater;
+    private static final String NO_MODEL = "none";
+
+    private final MethodStatsAggregator aggregator;
+    private final MeterRegistry meterRegistry;
+    private final LlmProperties llmProperties;
+    private final Duration percentileWindow;
+
+    // key -> model -> [failure, success]; timers are looked up without building meter ids on the hot path
+    private final Map<String, Map<String, Timer[]>> timers = new ConcurrentHashMap<>();
+
+    public MethodTimingAspect(MethodStatsAggregator aggregator,
+                              MeterRegistry meterRegistry,
+                              LlmProperties llmProperties,
+                              @Value("${monitoring.percentile-window-ms:300000}") long percentileWindowMs) {
+        this.aggregator = aggregator;
+        this.meterRegistry = meterRegistry;
+        this.llmProperties = llmProperties;
+        this.percentileWindow = Duration.ofMillis(percentileWindowMs);
+    }
 
     @Around("@annotation(monitored)")
     public Object measure(ProceedingJoinPoint pjp, Monitored monitored) throws Throwable {
@@ -30,11 +53,45 @@ public class MethodTimingAspect {
         } catch (Throwable t) {
             throw t;
         } finally {
-            long durMs = (System.nanoTime() - start) / 1_000_000L;
-            boolean offered = updater.offer(new MeasurementEvent(key, durMs, success));
-            if (!offered) {
-                log.debug("MethodTimingAspect queue full, dropping measurement for key={} durMs={} success={}", key, durMs, success);
+            long durNs = System.nanoTime() - start;
+            aggregator.record(key, durNs / 1_000_000L, success);
+            timer(key, modelOf(pjp.getArgs()), success).record(durNs, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String modelOf(Object[] args) {
+        for (Object arg : args) {
+            if (arg instanceof LlmRequest request) {
+                String model = request.getLlmModel() != null ? request.getLlmModel() : llmProperties.getLlmModel();
+                return model != null ? model : NO_MODEL;
             }
         }
+        return NO_MODEL;
+    }
+
+    private Timer timer(String key, String model, boolean success) {
+        Map<String, Timer[]> byModel = timers.get(key);
+        if (byModel == null) {
+            byModel = timers.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        }
+        Timer[] pair = byModel.get(model);
+        if (pair == null) {
+            pair = byModel.computeIfAbsent(model, m -> new Timer[]{register(key, m, false), register(key, m, true)});
+        }
+        return pair[success ? 1 : 0];
+    }
+
+    // Client-side percentiles are kept in HdrHistogram-backed rolling windows; the bucket histogram lets
+    // Prometheus aggregate quantiles across instances
+    private Timer register(String key, String model, boolean success) {
+        return Timer.builder("monitored.method")
+                .description("Execution time of @Monitored methods")
+                .tag("key", key)
+                .tag("model", model)
+                .tag("success", Boolean.toString(success))
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .distributionStatisticExpiry(percentileWindow)
+                .register(meterRegistry);
     }
 }
@@ -0,0 +1,99 @@
+package ru.javaboys.vibe_data.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Алгоритм сжатия значения кэша. Идентификатор пишется в заголовок значения, поэтому значения,
+ * записанные с другим алгоритмом (или до смены настройки), читаются без миграции.
+ * Новый алгоритм добавляется сюда со следующим свободным id; занятые id не переиспользуются.
+ */
+public enum CacheCompression {
+
+    NONE(0, 1) {
+        @Override
+        byte[] compress(byte[] raw, int level) {
+            return raw;
+        }
+
+        @Override
+        byte[] decompress(byte[] data, int rawLength) {
+            return data;
+        }
+    },
+
+    // deflate не разжимает больше чем в 1032 раза: заголовок с большей длиной заведомо повреждён
+    DEFLATE(1, 1032) {
+        @Override
+        byte[] compress(byte[] raw, int level) {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+                byte[] buf = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        byte[] decompress(byte[] data, int rawLength) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                byte[] raw = new byte[rawLength];
+                int n = 0;
+                while (n < rawLength) {
+                    int read = inflater.inflate(raw, n, rawLength - n);
+                    if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += read;
+                }
+                if (n != rawLength) {
+                    throw new IllegalArgumentException("Сжатое значение кэша повреждено: " + n + " из " + rawLength + " байт");
+                }
+                return raw;
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Сжатое значение кэша повреждено", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final int id;
+    private final int maxRatio;
+
+    CacheCompression(int id, int maxRatio) {
+        this.id = id;
+        this.maxRatio = maxRatio;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    /** Наибольшая длина несжатых данных, которую алгоритм может получить из stored байт. */
+    long maxRawLength(int stored) {
+        return (long) stored * maxRatio;
+    }
+
+    abstract byte[] compress(byte[] raw, int level);
+
+    abstract byte[] decompress(byte[] data, int rawLength);
+
+    static CacheCompression byId(int id) {
+        for (CacheCompression c : values()) {
+            if (c.id == id) return c;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.javaboys.vibe_data.cache;
+
+/**
+ * Компактное бинарное представление значения кэша без заголовков Java-сериализации.
+ * Сжатие и версионный заголовок добавляет {@link CompressingRedisSerializer}.
+ */
+public interface CacheValueCodec<T> {
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+}
@@ -0,0 +1,157 @@
+package ru.javaboys.vibe_data.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализатор значений Redis-кэша: {@link CacheValueCodec} + сжатие выше порога размера.
+ *
+ * Формат: магия "VD" (2 байта), версия формата (1 байт), id алгоритма {@link CacheCompression} (1 байт),
+ * длина несжатых данных (int), затем данные. Значение с чужой магией или неизвестной версией
+ * (например, записанное JDK-сериализацией до перехода на этот формат) читается как промах кэша
+ * и перезаписывается при следующем вычислении. Так же читается значение, в заголовке которого длина больше
+ * допустимой для алгоритма или больше maxRawBytes: буфер под неё не выделяется.
+ *
+ * Метрики: cache.codec.bytes (stage=raw|stored) — размер до и после сжатия,
+ * cache.codec.time (op=encode|decode) — время кодирования, cache.codec.rejected — отброшенные значения.
+ */
+@Slf4j
+public class CompressingRedisSerializer<T> implements RedisSerializer<T> {
+
+    static final byte MAGIC_0 = 'V';
+    static final byte MAGIC_1 = 'D';
+    static final byte VERSION = 1;
+    static final int HEADER_BYTES = 8;
+
+    private final Class<T> type;
+    private final CacheValueCodec<T> codec;
+    private final CacheCompression compression;
+    private final int thresholdBytes;
+    private final int level;
+    private final int maxRawBytes;
+
+    private final DistributionSummary rawBytes;
+    private final DistributionSummary storedBytes;
+    private final Timer encodeTimer;
+    private final Timer decodeTimer;
+    private final Counter rejected;
+
+    /**
+     * @param thresholdBytes значения меньше порога не сжимаются: выигрыш не окупает заголовок и CPU
+     * @param level          уровень сжатия алгоритма (для DEFLATE 1 — самый быстрый)
+     * @param maxRawBytes    предел длины несжатого значения при чтении
+     */
+    public CompressingRedisSerializer(String cacheName,
+                                      Class<T> type,
+                                      CacheValueCodec<T> codec,
+                                      CacheCompression compression,
+                                      int thresholdBytes,
+                                      int level,
+                                      int maxRawBytes,
+                                      MeterRegistry meterRegistry) {
+        this.type = type;
+        this.codec = codec;
+        this.compression = compression;
+        this.thresholdBytes = Math.max(0, thresholdBytes);
+        this.level = level;
+        this.maxRawBytes = maxRawBytes;
+        this.rawBytes = size(meterRegistry, cacheName, "raw");
+        this.storedBytes = size(meterRegistry, cacheName, "stored");
+        this.encodeTimer = timer(meterRegistry, cacheName, "encode");
+        this.decodeTimer = timer(meterRegistry, cacheName, "decode");
+        this.rejected = Counter.builder("cache.codec.rejected")
+                .description("Значения кэша, которые не удалось прочитать (чужой формат или повреждение)")
+                .tag("cache", cacheName)
+                .register(meterRegistry);
+    }
+
+    private static DistributionSummary size(MeterRegistry registry, String cacheName, String stage) {
+        return DistributionSummary.builder("cache.codec.bytes")
+                .description("Размер значения кэша до и после сжатия")
+                .baseUnit("bytes")
+                .tag("cache", cacheName)
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    private static Timer timer(MeterRegistry registry, String cacheName, String op) {
+        return Timer.builder("cache.codec.time")
+                .description("Время кодирования значения кэша")
+                .tag("cache", cacheName)
+                .tag("op", op)
+                .register(registry);
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] raw = codec.encode(value);
+        CacheCompression used = raw.length >= thresholdBytes ? compression : CacheCompression.NONE;
+        byte[] data = used.compress(raw, level);
+        if (data.length >= raw.length) {
+            // несжимаемые данные храним как есть
+            used = CacheCompression.NONE;
+            data = raw;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + data.length);
+        out.put(MAGIC_0).put(MAGIC_1).put(VERSION).put((byte) used.id()).putInt(raw.length).put(data);
+        encodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        rawBytes.record(raw.length);
+        storedBytes.record(out.capacity());
+        return out.array();
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        if (bytes.length < HEADER_BYTES || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1 || bytes[2] != VERSION) {
+            rejected.increment();
+            log.debug("Значение кэша в неизвестном формате ({} байт) — считаем промахом", bytes.length);
+            return null;
+        }
+        CacheCompression used = CacheCompression.byId(bytes[3]);
+        int rawLength = ByteBuffer.wrap(bytes, 4, 4).getInt();
+        if (used == null || rawLength < 0) {
+            rejected.increment();
+            log.debug("Значение кэша с неизвестным сжатием id={} — считаем промахом", bytes[3]);
+            return null;
+        }
+        if (rawLength > maxRawBytes || rawLength > used.maxRawLength(bytes.length - HEADER_BYTES)) {
+            rejected.increment();
+            log.warn("Значение кэша с недопустимой длиной {} при {} байтах данных — считаем промахом",
+                    rawLength, bytes.length - HEADER_BYTES);
+            return null;
+        }
+        byte[] data = new byte[bytes.length - HEADER_BYTES];
+        System.arraycopy(bytes, HEADER_BYTES, data, 0, data.length);
+        T value;
+        try {
+            value = codec.decode(used.decompress(data, rawLength));
+        } catch (RuntimeException e) {
+            rejected.increment();
+            log.warn("Повреждённое значение кэша ({} байт): {}", bytes.length, e.getMessage());
+            return null;
+        }
+        decodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return value;
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return type;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.javaboys.vibe_data.cache;
+
+import ru.javaboys.vibe_data.dto.TrinoResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link TrinoResponse} в виде двух UTF-8 строк (response, error), каждая с длиной int;
+ * длина -1 означает null.
+ */
+public class TrinoResponseCodec implements CacheValueCodec<TrinoResponse> {
+
+    @Override
+    public byte[] encode(TrinoResponse value) {
+        byte[] response = utf8(value.getResponse());
+        byte[] error = utf8(value.getError());
+        ByteBuffer buf = ByteBuffer.allocate(8 + length(response) + length(error));
+        put(buf, response);
+        put(buf, error);
+        return buf.array();
+    }
+
+    @Override
+    public TrinoResponse decode(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        String response = get(buf);
+        String error = get(buf);
+        return error != null ? TrinoResponse.error(error) : TrinoResponse.success(response);
+    }
+
+    private static byte[] utf8(String s) {
+        return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int length(byte[] b) {
+        return b != null ? b.length : 0;
+    }
+
+    private static void put(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            buf.putInt(-1);
+            return;
+        }
+        buf.putInt(b.length);
+        buf.put(b);
+    }
+
+    private static String get(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0) return null;
+        String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+}
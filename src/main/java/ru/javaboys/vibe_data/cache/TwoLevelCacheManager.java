@@ -0,0 +1,89 @@
+package ru.javaboys.vibe_data.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Оборачивает кэши L2-менеджера (Redis) в {@link TwoLevelCache} с собственным L1 (Caffeine) на каждый кэш.
+ * L1 ограничен по размеру и TTL; вытеснения из L1 считаются метрикой cache.tier.evictions.
+ */
+@Slf4j
+public class TwoLevelCacheManager implements CacheManager {
+
+    private final CacheManager l2CacheManager;
+    private final MeterRegistry meterRegistry;
+    private final long l1MaxSize;
+    private final Duration l1Ttl;
+
+    private final Map<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+
+    public TwoLevelCacheManager(CacheManager l2CacheManager,
+                                MeterRegistry meterRegistry,
+                                long l1MaxSize,
+                                Duration l1Ttl) {
+        this.l2CacheManager = l2CacheManager;
+        this.meterRegistry = meterRegistry;
+        this.l1MaxSize = l1MaxSize;
+        this.l1Ttl = l1Ttl;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return l2CacheManager.getCacheNames();
+    }
+
+    private TwoLevelCache createCache(String name) {
+        Cache l2 = l2CacheManager.getCache(name);
+        if (l2 == null) {
+            throw new IllegalStateException("L2 cache not found: " + name);
+        }
+        Counter sizeEvictions = evictionCounter(name, "size");
+        Counter expiredEvictions = evictionCounter(name, "expired");
+
+        com.github.benmanes.caffeine.cache.Cache<Object, Object> l1 = Caffeine.newBuilder()
+                .maximumSize(l1MaxSize)
+                .expireAfterWrite(l1Ttl)
+                .removalListener((Object key, Object value, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) {
+                        sizeEvictions.increment();
+                    } else if (cause == RemovalCause.EXPIRED) {
+                        expiredEvictions.increment();
+                    }
+                })
+                .build();
+
+        Gauge.builder("cache.tier.size", l1, com.github.benmanes.caffeine.cache.Cache::estimatedSize)
+                .description("Оценка числа записей в L1")
+                .tag("cache", name)
+                .tag("tier", "l1")
+                .register(meterRegistry);
+
+        log.info("Two-level cache '{}' created: L1 maxSize={}, ttl={}", name, l1MaxSize, l1Ttl);
+        return new TwoLevelCache(name, l1, l2, meterRegistry);
+    }
+
+    private Counter evictionCounter(String name, String cause) {
+        return Counter.builder("cache.tier.evictions")
+                .description("Вытеснения из уровня двухуровневого кэша")
+                .tag("cache", name)
+                .tag("tier", "l1")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+}
@@ -1,11 +1,15 @@
 package ru.javaboys.vibe_data.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import ru.javaboys.vibe_data.util.BoundedPriorityBlockingQueue;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 
 @Configuration
@@ -13,13 +17,53 @@ import java.util.concurrent.Executor;
 public class AsyncConfig {
 
     @Bean(name = "taskExecutor")
-    public Executor taskExecutor() {
+    public Executor taskExecutor(@Value("${task-queue.concurrency:4}") int concurrency) {
+        // Задачи забираются из очереди в БД только под свободные слоты,
+        // поэтому локальная очередь пула нужна лишь как небольшой запас
         ThreadPoolTaskExecutor ex = new ThreadPoolTaskExecutor();
-        ex.setCorePoolSize(4);
-        ex.setMaxPoolSize(8);
-        ex.setQueueCapacity(100);
+        ex.setCorePoolSize(concurrency);
+        ex.setMaxPoolSize(concurrency);
+        ex.setQueueCapacity(concurrency);
         ex.setThreadNamePrefix("task-");
         ex.initialize();
         return ex;
     }
+
+    @Bean(name = "explainPrefetchExecutor")
+    public ThreadPoolTaskExecutor explainPrefetchExecutor(
+            @Value("${prefetch.explain.pool-size:4}") int poolSize,
+            @Value("${prefetch.explain.queue-capacity:1000}") int queueCapacity) {
+        // Общая для всех задач очередь с приоритетом: дешёвые планы любой задачи идут раньше ANALYZE других задач.
+        // Элементы — ExplainPrefetcher.Prefetch.Item, ставятся через execute(), без обёртки в FutureTask
+        ThreadPoolTaskExecutor ex = new ThreadPoolTaskExecutor() {
+            @Override
+            protected BlockingQueue<Runnable> createQueue(int capacity) {
+                return new BoundedPriorityBlockingQueue<>(capacity);
+            }
+        };
+        ex.setCorePoolSize(poolSize);
+        ex.setMaxPoolSize(poolSize);
+        ex.setQueueCapacity(queueCapacity);
+        ex.setThreadNamePrefix("explain-prefetch-");
+        ex.setDaemon(true);
+        ex.initialize();
+        return ex;
+    }
+
+    @Bean(name = "validationQueryExecutor")
+    public ThreadPoolTaskExecutor validationQueryExecutor(
+            @Value("${validation.parallel.query-pool-size:4}") int poolSize,
+            @Value("${validation.parallel.query-queue-capacity:100}") int queueCapacity) {
+        // Не больше пула соединений trino-local, иначе запросы будут ждать соединение вместо очереди
+        ThreadPoolTaskExecutor ex = new ThreadPoolTaskExecutor();
+        ex.setCorePoolSize(poolSize);
+        ex.setMaxPoolSize(poolSize);
+        // При переполненной очереди запрос выполняет сам прогон валидации — это притормаживает отправку
+        ex.setQueueCapacity(queueCapacity);
+        ex.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        ex.setThreadNamePrefix("validation-query-");
+        ex.setDaemon(true);
+        ex.initialize();
+        return ex;
+    }
 }
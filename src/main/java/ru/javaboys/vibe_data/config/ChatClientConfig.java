@@ -1,29 +1,36 @@
 package ru.javaboys.vibe_data.config;
 
-import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.memory.repository.jdbc.JdbcChatMemoryRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.javaboys.vibe_data.llm.TokenBudgetChatMemory;
+import ru.javaboys.vibe_data.llm.WriteBehindChatMemoryRepository;
 
 @Configuration
-@RequiredArgsConstructor
 public class ChatClientConfig {
 
-    private final JdbcChatMemoryRepository chatMemoryRepository;
-
     @Bean
-    public ChatClient getChatClient(ChatClient.Builder chatClientBuilder) {
+    public WriteBehindChatMemoryRepository writeBehindChatMemoryRepository(
+            JdbcChatMemoryRepository jdbcChatMemoryRepository,
+            @Value("${chat.memory.flush-interval-ms:2000}") long flushIntervalMs,
+            @Value("${chat.memory.idle-ttl-ms:600000}") long idleTtlMs) {
+        return new WriteBehindChatMemoryRepository(jdbcChatMemoryRepository, flushIntervalMs, idleTtlMs);
+    }
 
-        ChatMemory chatMemory = MessageWindowChatMemory.builder()
-                .chatMemoryRepository(chatMemoryRepository)
-                .maxMessages(20)
-                .build();
+    @Bean
+    public ChatMemory chatMemory(WriteBehindChatMemoryRepository writeBehindChatMemoryRepository,
+                                 @Value("${chat.memory.max-tokens:12000}") int maxTokens,
+                                 @Value("${chat.memory.tool-output-chars:2000}") int toolOutputChars) {
+        return new TokenBudgetChatMemory(writeBehindChatMemoryRepository, maxTokens, toolOutputChars);
+    }
 
+    @Bean
+    public ChatClient getChatClient(ChatClient.Builder chatClientBuilder, ChatMemory chatMemory) {
         return chatClientBuilder
                 .defaultAdvisors(
                         MessageChatMemoryAdvisor.builder(chatMemory).build(),
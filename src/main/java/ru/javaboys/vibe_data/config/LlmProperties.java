@@ -14,5 +14,6 @@ public class LlmProperties {
     private final Double temperature;
     private final List<String> validModels;
     private final Integer timeoutSeconds;
+    private final Integer maxConcurrentCalls;
 
 }
@@ -1,21 +1,57 @@
 package ru.javaboys.vibe_data.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import ru.javaboys.vibe_data.cache.CacheCompression;
+import ru.javaboys.vibe_data.cache.CompressingRedisSerializer;
+import ru.javaboys.vibe_data.cache.TrinoResponseCodec;
+import ru.javaboys.vibe_data.cache.TwoLevelCacheManager;
+import ru.javaboys.vibe_data.dto.TrinoResponse;
+import ru.javaboys.vibe_data.service.TrinoDbService;
+
+import java.time.Duration;
 
 @Slf4j
 @Configuration
 public class RedisCacheConfig {
 
+    /**
+     * L1 (Caffeine, in-process) перед L2 (Redis): повторные EXPLAIN внутри одного хода LLM
+     * обслуживаются из памяти без сетевого похода в Redis.
+     * Планы EXPLAIN хранятся в Redis компактным бинарным форматом со сжатием вместо JDK-сериализации.
+     */
     @Bean
-    public CacheManager cacheManager(RedisConnectionFactory redisConnectionFactory) {
-        return RedisCacheManager.builder(redisConnectionFactory).build();
+    public CacheManager cacheManager(RedisConnectionFactory redisConnectionFactory,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${cache.l1.max-size:2000}") long l1MaxSize,
+                                     @Value("${cache.l1.ttl:10m}") Duration l1Ttl,
+                                     @Value("${cache.codec.compression:deflate}") String compression,
+                                     @Value("${cache.codec.threshold-bytes:512}") int thresholdBytes,
+                                     @Value("${cache.codec.level:1}") int level,
+                                     @Value("${cache.codec.max-raw-bytes:67108864}") int maxRawBytes) {
+        CacheCompression algorithm = CacheCompression.valueOf(compression.trim().toUpperCase());
+        CompressingRedisSerializer<TrinoResponse> explainSerializer = new CompressingRedisSerializer<>(
+                TrinoDbService.CACHE_NAME, TrinoResponse.class, new TrinoResponseCodec(),
+                algorithm, thresholdBytes, level, maxRawBytes, meterRegistry);
+        log.info("Кэш {}: сжатие {} от {} байт, уровень {}", TrinoDbService.CACHE_NAME, algorithm, thresholdBytes, level);
+
+        RedisCacheConfiguration explainConfig = RedisCacheConfiguration.defaultCacheConfig()
+                .disableCachingNullValues()
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(explainSerializer));
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(redisConnectionFactory)
+                .withCacheConfiguration(TrinoDbService.CACHE_NAME, explainConfig)
+                .build();
+        return new TwoLevelCacheManager(redisCacheManager, meterRegistry, l1MaxSize, l1Ttl);
     }
 
     @Bean
@@ -25,4 +61,4 @@ public class RedisCacheConfig {
         return template;
     }
 
-}
\ No newline at end of file
+}
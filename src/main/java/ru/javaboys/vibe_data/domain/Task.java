@@ -15,6 +15,8 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 
+import java.time.Instant;
+
 @Getter
 @Setter
 @Builder
@@ -25,7 +27,8 @@ import lombok.ToString;
 @Table(name = "tasks",
        indexes = {
            @Index(name = "idx_tasks_status", columnList = "status"),
-           @Index(name = "idx_tasks_created_at", columnList = "created_at")
+           @Index(name = "idx_tasks_created_at", columnList = "created_at"),
+           @Index(name = "idx_tasks_status_lease", columnList = "status, lease_until")
        })
 public class Task extends BaseEntity {
 
@@ -42,6 +45,20 @@ public class Task extends BaseEntity {
     @Column(columnDefinition = "text")
     private String error;
 
+    // Поля аренды управляются только очередью (TaskQueue), JPA их не пишет,
+    // чтобы сохранение сущности не затирало свежий heartbeat
+    @Column(name = "lease_owner", length = 128, insertable = false, updatable = false)
+    private String leaseOwner;
+
+    @Column(name = "lease_until", insertable = false, updatable = false)
+    private Instant leaseUntil;
+
+    @Column(name = "heartbeat_at", insertable = false, updatable = false)
+    private Instant heartbeatAt;
+
+    @Column(name = "attempts", insertable = false, updatable = false)
+    private Integer attempts;
+
     @OneToOne(mappedBy = "task", cascade = CascadeType.ALL, orphanRemoval = true, optional = false)
     private TaskInput input;
 
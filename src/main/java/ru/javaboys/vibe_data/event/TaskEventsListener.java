@@ -3,27 +3,25 @@ package ru.javaboys.vibe_data.event;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
-import ru.javaboys.vibe_data.service.TaskProcessor;
+import ru.javaboys.vibe_data.service.TaskQueueWorker;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class TaskEventsListener {
 
-    private final TaskProcessor taskProcessor;
+    private final TaskQueueWorker taskQueueWorker;
 
-    @Async("taskExecutor")
+    /**
+     * Задача уже лежит в таблице tasks и будет взята из очереди при следующем опросе,
+     * событие лишь будит локальный опрос, чтобы не ждать интервала.
+     */
     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
     public void onTaskCreated(TaskCreatedEvent event) {
-        try {
-            log.info("Получено событие TaskCreatedEvent для задачи id={}", event.taskId());
-            taskProcessor.processTask(event.taskId());
-        } catch (Exception e) {
-            log.error("Асинхронная обработка задачи id={} завершилась ошибкой: {}", event.taskId(), e.getMessage(), e);
-        }
+        log.info("Получено событие TaskCreatedEvent для задачи id={}", event.taskId());
+        taskQueueWorker.wakeUp();
     }
 }
@@ -0,0 +1,113 @@
+package ru.javaboys.vibe_data.llm;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Распределение длительностей вызовов LLM по моделям: последние window вызовов с размером промпта.
+ * Оценка для промпта размера P: линейная модель latency ≈ a + b·chars по выборке, умноженная на квантиль
+ * отношения фактической длительности к модели. Так одна медленная выборка сдвигает хвост, а не среднее.
+ */
+@Component
+public class LlmLatencyStats {
+
+    private final int window;
+    private final Map<String, Samples> byModel = new ConcurrentHashMap<>();
+
+    public LlmLatencyStats(@Value("${llm.latency.window:200}") int window) {
+        this.window = Math.max(8, window);
+    }
+
+    public void record(String model, int promptChars, long latencyMs) {
+        byModel.computeIfAbsent(model, m -> new Samples(window)).add(promptChars, latencyMs);
+    }
+
+    public int sampleCount(String model) {
+        Samples s = byModel.get(model);
+        return s == null ? 0 : s.size();
+    }
+
+    /**
+     * @param quantile квантиль хвоста, например 0.9
+     * @return оценка длительности в мс или пусто, если по модели меньше minSamples вызовов
+     */
+    public OptionalDouble estimate(String model, int promptChars, double quantile, int minSamples) {
+        Samples s = byModel.get(model);
+        if (s == null) return OptionalDouble.empty();
+        double[][] snapshot = s.snapshot();
+        double[] chars = snapshot[0];
+        double[] latency = snapshot[1];
+        int n = latency.length;
+        if (n == 0 || n < minSamples) return OptionalDouble.empty();
+
+        double meanChars = 0;
+        double meanLatency = 0;
+        for (int i = 0; i < n; i++) {
+            meanChars += chars[i];
+            meanLatency += latency[i];
+        }
+        meanChars /= n;
+        meanLatency /= n;
+        double cov = 0;
+        double var = 0;
+        for (int i = 0; i < n; i++) {
+            cov += (chars[i] - meanChars) * (latency[i] - meanLatency);
+            var += (chars[i] - meanChars) * (chars[i] - meanChars);
+        }
+        // отрицательный наклон — шум на малой выборке, считаем длительность независимой от размера
+        double slope = var > 0 && cov > 0 ? cov / var : 0;
+        double intercept = meanLatency - slope * meanChars;
+        if (intercept < 0) {
+            intercept = 0;
+            slope = meanChars > 0 ? meanLatency / meanChars : 0;
+        }
+
+        double[] ratios = new double[n];
+        for (int i = 0; i < n; i++) {
+            ratios[i] = latency[i] / Math.max(1.0, intercept + slope * chars[i]);
+        }
+        Arrays.sort(ratios);
+        int rank = (int) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * n) - 1;
+        double ratio = ratios[Math.max(0, Math.min(n - 1, rank))];
+        return OptionalDouble.of(Math.max(1.0, (intercept + slope * promptChars) * ratio));
+    }
+
+    // Кольцевой буфер; запись и снимок под монитором — вызовов LLM единицы в секунду
+    private static final class Samples {
+        private final int[] chars;
+        private final long[] latency;
+        private int size;
+        private int pos;
+
+        Samples(int window) {
+            this.chars = new int[window];
+            this.latency = new long[window];
+        }
+
+        synchronized void add(int promptChars, long latencyMs) {
+            chars[pos] = promptChars;
+            latency[pos] = latencyMs;
+            pos = (pos + 1) % chars.length;
+            if (size < chars.length) size++;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized double[][] snapshot() {
+            double[] c = new double[size];
+            double[] l = new double[size];
+            for (int i = 0; i < size; i++) {
+                c[i] = chars[i];
+                l[i] = latency[i];
+            }
+            return new double[][]{c, l};
+        }
+    }
+}
@@ -28,4 +28,7 @@ public class LlmRequest {
 
     // список инструментов, которые может использовать LLM, необязательный
     private List<Object> tools;
+
+    // счётчик, к которому прибавляется расход токенов вызова, необязательный
+    private LlmUsage usage;
 }
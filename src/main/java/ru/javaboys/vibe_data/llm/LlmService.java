@@ -4,4 +4,11 @@ public interface LlmService {
     String call(LlmRequest request);
 
     <T> T callAs(LlmRequest request, Class<T> classType);
+
+    /**
+     * То же, что callAs, но ответ читается потоком и JSON разбирается по мере поступления.
+     * Если к дедлайну ответ не завершён, но все salvageFields уже получены целиком,
+     * возвращается сущность из готовых полей (остальные null), иначе — TimeoutException.
+     */
+    <T> T callAsStreaming(LlmRequest request, Class<T> classType, String... salvageFields);
 }
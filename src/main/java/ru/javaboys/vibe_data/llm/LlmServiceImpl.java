@@ -2,76 +2,311 @@ package ru.javaboys.vibe_data.llm;
 
 import io.github.resilience4j.timelimiter.TimeLimiter;
 import io.github.resilience4j.timelimiter.TimeLimiterConfig;
-import lombok.RequiredArgsConstructor;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+import org.springframework.ai.converter.BeanOutputConverter;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
 import ru.javaboys.vibe_data.config.LlmProperties;
 import ru.javaboys.vibe_data.monitoring.Monitored;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
-@RequiredArgsConstructor
 @Service
 public class LlmServiceImpl implements LlmService {
 
+    private static final String TIME_LIMITER_NAME = "llm";
+
+    private static final ObjectMapper SALVAGE_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
     private final LlmProperties llmProperties;
     private final ChatClient chatClient;
+    private final MeterRegistry meterRegistry;
+    private final LlmLatencyStats latencyStats;
+    private final Duration timeout;
+
+    // Блокирующие вызовы ChatClient выполняются на виртуальных потоках, а не в общем ForkJoinPool
+    private final ExecutorService llmExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("llm-", 0).factory());
+    private final TimeLimiter timeLimiter;
+    // Единственное ограничение параллелизма LLM-вызовов
+    private final Semaphore concurrencyLimit;
+
+    public LlmServiceImpl(LlmProperties llmProperties,
+                          ChatClient chatClient,
+                          MeterRegistry meterRegistry,
+                          LlmLatencyStats latencyStats) {
+        this.llmProperties = llmProperties;
+        this.chatClient = chatClient;
+        this.meterRegistry = meterRegistry;
+        this.latencyStats = latencyStats;
+
+        int timeoutSec = llmProperties.getTimeoutSeconds() != null ? llmProperties.getTimeoutSeconds() : 60;
+        this.timeout = Duration.ofSeconds(timeoutSec);
+        TimeLimiterRegistry registry = TimeLimiterRegistry.of(TimeLimiterConfig.custom()
+                .timeoutDuration(timeout)
+                .cancelRunningFuture(true)
+                .build());
+        this.timeLimiter = registry.timeLimiter(TIME_LIMITER_NAME);
+
+        int maxConcurrent = llmProperties.getMaxConcurrentCalls() != null && llmProperties.getMaxConcurrentCalls() > 0
+                ? llmProperties.getMaxConcurrentCalls() : 16;
+        this.concurrencyLimit = new Semaphore(maxConcurrent, true);
+        log.info("LLM: таймаут вызова {} c, максимум параллельных вызовов {}", timeoutSec, maxConcurrent);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        llmExecutor.shutdownNow();
+    }
 
     @Monitored(key = "llm.call")
     @Override
     public String call(LlmRequest request) {
         ChatClient.ChatClientRequestSpec chatClientRequestSpec = prepareChatClient(request);
-        return executeWithTimeout(() -> chatClientRequestSpec.call().content());
+        return executeWithTimeout(request, () -> chatClientRequestSpec.call().content());
     }
 
     @Monitored(key = "llm.call.as")
     @Override
     public <T> T callAs(LlmRequest request, Class<T> classType) {
         ChatClient.ChatClientRequestSpec chatClientRequestSpec = prepareChatClient(request);
-        return executeWithTimeout(() -> chatClientRequestSpec.call().entity(classType));
+        return executeWithTimeout(request, () -> {
+            var response = chatClientRequestSpec.call().responseEntity(classType);
+            addUsage(request, response.response());
+            return response.entity();
+        });
     }
 
-    private <T> T executeWithTimeout(Callable<T> callable) {
-        int timeoutSec = llmProperties.getTimeoutSeconds() != null ? llmProperties.getTimeoutSeconds() : 60;
-        TimeLimiterConfig config = TimeLimiterConfig.custom()
-                .timeoutDuration(Duration.ofSeconds(timeoutSec))
-                .cancelRunningFuture(true)
-                .build();
-        TimeLimiter timeLimiter = TimeLimiter.of(config);
+    @Monitored(key = "llm.call.as")
+    @Override
+    public <T> T callAsStreaming(LlmRequest request, Class<T> classType, String... salvageFields) {
+        BeanOutputConverter<T> converter = new BeanOutputConverter<>(classType);
+        ChatClient.ChatClientRequestSpec chatClientRequestSpec = prepareChatClient(request, converter.getFormat(), true);
+        String model = Objects.requireNonNullElse(request.getLlmModel(), llmProperties.getLlmModel());
+
+        acquireSlot();
         try {
-            return timeLimiter.executeFutureSupplier(() -> CompletableFuture.supplyAsync(() -> {
+            StreamingJsonFields json = new StreamingJsonFields();
+            CountDownLatch finished = new CountDownLatch(1);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            AtomicReference<Usage> usage = new AtomicReference<>();
+            AtomicLong firstTokenNs = new AtomicLong();
+            AtomicInteger chunks = new AtomicInteger();
+            long startNs = System.nanoTime();
+
+            Disposable subscription = chatClientRequestSpec.stream().chatResponse().subscribe(
+                    response -> onStreamChunk(response, json, chunks, firstTokenNs, usage),
+                    e -> {
+                        error.set(e);
+                        finished.countDown();
+                    },
+                    finished::countDown);
+
+            boolean completed;
+            try {
+                completed = finished.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                subscription.dispose();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание потока LLM прервано", e);
+            }
+            if (!completed) {
+                // Отмена подписки закрывает HTTP-соединение со стримом
+                subscription.dispose();
+            }
+            recordStreamMetrics(model, startNs, firstTokenNs.get(), chunks.get(), usage.get());
+            if (request.getUsage() != null) {
+                request.getUsage().add(usage.get());
+            }
+            if (error.get() == null) {
+                // по таймауту это нижняя граница длительности — в хвост распределения она и должна попасть
+                latencyStats.record(model, promptChars(request), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+            }
+
+            if (error.get() != null) {
+                Throwable e = error.get();
+                throw e instanceof RuntimeException re ? re : new RuntimeException(e);
+            }
+            if (completed) {
+                streamOutcome(model, "complete").increment();
+                return converter.convert(json.text());
+            }
+
+            List<String> required = Arrays.asList(salvageFields);
+            if (!required.isEmpty() && json.hasFields(required)) {
+                log.warn("LLM не уложилась в {} c, ответ собран из готовых полей {}",
+                        timeout.toSeconds(), json.completedFields().keySet());
+                streamOutcome(model, "salvaged").increment();
                 try {
-                    return callable.call();
+                    return SALVAGE_MAPPER.readValue(json.completedFieldsJson(), classType);
                 } catch (Exception e) {
-                    throw new CompletionException(e);
+                    log.warn("Не удалось собрать частичный ответ LLM: {}", e.getMessage());
                 }
-            }));
+            }
+            streamOutcome(model, "timeout").increment();
+            throw new RuntimeException(new TimeoutException(
+                    "Поток LLM не завершился за " + timeout.toSeconds() + " c, готовые поля: " + json.completedFields().keySet()));
+        } finally {
+            concurrencyLimit.release();
+        }
+    }
+
+    private void onStreamChunk(ChatResponse response,
+                               StreamingJsonFields json,
+                               AtomicInteger chunks,
+                               AtomicLong firstTokenNs,
+                               AtomicReference<Usage> usage) {
+        if (response.getMetadata() != null && response.getMetadata().getUsage() != null
+                && response.getMetadata().getUsage().getCompletionTokens() != null
+                && response.getMetadata().getUsage().getCompletionTokens() > 0) {
+            usage.set(response.getMetadata().getUsage());
+        }
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return;
+        }
+        String text = response.getResult().getOutput().getText();
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        firstTokenNs.compareAndSet(0, System.nanoTime());
+        chunks.incrementAndGet();
+        json.append(text);
+    }
+
+    private void recordStreamMetrics(String model, long startNs, long firstTokenNs, int chunks, Usage usage) {
+        if (firstTokenNs == 0) {
+            return;
+        }
+        long ttftNs = firstTokenNs - startNs;
+        Timer.builder("llm.stream.ttft")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(ttftNs, TimeUnit.NANOSECONDS);
+
+        // OpenAI отдаёт usage последним чанком (stream_options.include_usage), иначе считаем чанки
+        long tokens = usage != null ? usage.getCompletionTokens() : chunks;
+        double generationSec = (System.nanoTime() - firstTokenNs) / 1e9;
+        if (generationSec > 0 && tokens > 0) {
+            double tps = tokens / generationSec;
+            DistributionSummary.builder("llm.stream.tokens.per.second")
+                    .tag("model", model)
+                    .register(meterRegistry)
+                    .record(tps);
+            log.info("LLM stream: model={}, TTFT={} мс, токенов={}, {} ток/с",
+                    model, TimeUnit.NANOSECONDS.toMillis(ttftNs), tokens, String.format("%.1f", tps));
+        }
+    }
+
+    private Counter streamOutcome(String model, String outcome) {
+        return Counter.builder("llm.stream.results")
+                .tag("model", model)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private void acquireSlot() {
+        try {
+            concurrencyLimit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание слота для вызова LLM прервано", e);
+        }
+    }
+
+    private <T> T executeWithTimeout(LlmRequest request, Callable<T> callable) {
+        acquireSlot();
+        long startNs = System.nanoTime();
+        try {
+            // По таймауту TimeLimiter отменяет Future с прерыванием: виртуальный поток
+            // закрывает сокет и освобождается, а не висит до ответа модели
+            T result = timeLimiter.executeFutureSupplier(() -> llmExecutor.submit(callable));
+            recordLatency(request, startNs);
+            return result;
         } catch (Exception e) {
+            if (e instanceof TimeoutException) {
+                recordLatency(request, startNs);
+            }
             // Propagate as-is to allow upper layers to handle TimeoutException explicitly
             if (e instanceof RuntimeException re) {
                 throw re;
             }
             throw new RuntimeException(e);
+        } finally {
+            concurrencyLimit.release();
+        }
+    }
+
+    private static void addUsage(LlmRequest request, ChatResponse response) {
+        if (request.getUsage() != null && response != null && response.getMetadata() != null) {
+            request.getUsage().add(response.getMetadata().getUsage());
         }
     }
 
+    private void recordLatency(LlmRequest request, long startNs) {
+        String model = Objects.requireNonNullElse(request.getLlmModel(), llmProperties.getLlmModel());
+        latencyStats.record(model, promptChars(request), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+    }
+
+    // Размер промпта до подстановки истории диалога: шаблоны плюс значения переменных
+    static int promptChars(LlmRequest request) {
+        long chars = 0;
+        if (request.getSystemMessage() != null) chars += request.getSystemMessage().length();
+        if (request.getUserMessage() != null) chars += request.getUserMessage().length();
+        for (Map<String, Object> vars : Arrays.asList(request.getSystemVariables(), request.getUserVariables())) {
+            if (vars == null) continue;
+            for (Object v : vars.values()) {
+                if (v != null) chars += String.valueOf(v).length();
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, chars);
+    }
+
     private ChatClient.ChatClientRequestSpec prepareChatClient(LlmRequest request) {
+        return prepareChatClient(request, null, false);
+    }
+
+    /**
+     * @param outputFormat инструкция о формате ответа (JSON-схема), дописывается к пользовательскому промпту;
+     *                     нужна для стрима, где ChatClient сам её не добавляет
+     */
+    private ChatClient.ChatClientRequestSpec prepareChatClient(LlmRequest request, String outputFormat, boolean streaming) {
         List<Message> messages = new ArrayList<>();
 
         String systemMessage = request.getSystemMessage();
@@ -90,7 +325,17 @@ public class LlmServiceImpl implements LlmService {
         String userMessage = request.getUserMessage();
         if (userMessage != null) {
             Message userMsg;
-            var userVariables = request.getUserVariables();
+            Map<String, Object> userVariables = request.getUserVariables();
+            if (outputFormat != null) {
+                if (userVariables != null && !userVariables.isEmpty()) {
+                    // Схема содержит фигурные скобки, поэтому в шаблон она идёт переменной
+                    userVariables = new HashMap<>(userVariables);
+                    userVariables.put("output_format", outputFormat);
+                    userMessage = userMessage + "\n\n{output_format}";
+                } else {
+                    userMessage = userMessage + "\n\n" + outputFormat;
+                }
+            }
             if (userVariables != null && !userVariables.isEmpty()) {
                 PromptTemplate promptTemplate = new PromptTemplate(userMessage);
                 userMsg = promptTemplate.createMessage(userVariables);
@@ -103,6 +348,7 @@ public class LlmServiceImpl implements LlmService {
         OpenAiChatOptions options = OpenAiChatOptions.builder()
                 .model(Objects.requireNonNullElse(request.getLlmModel(), llmProperties.getLlmModel()))
                 .temperature(Objects.requireNonNullElse(request.getTemperature(), llmProperties.getTemperature()))
+                .streamUsage(streaming)
                 .build();
         Prompt prompt = new Prompt(messages, options);
 
@@ -0,0 +1,29 @@
+package ru.javaboys.vibe_data.llm;
+
+import org.springframework.ai.chat.metadata.Usage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчик токенов, который вызывающий передаёт в {@link LlmRequest#getUsage()}:
+ * LlmService прибавляет к нему расход каждого вызова, если провайдер его вернул.
+ */
+public class LlmUsage {
+
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong completionTokens = new AtomicLong();
+
+    public void add(Usage usage) {
+        if (usage == null) return;
+        if (usage.getPromptTokens() != null) promptTokens.addAndGet(usage.getPromptTokens());
+        if (usage.getCompletionTokens() != null) completionTokens.addAndGet(usage.getCompletionTokens());
+    }
+
+    public long getPromptTokens() {
+        return promptTokens.get();
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens.get();
+    }
+}
@@ -0,0 +1,166 @@
+package ru.javaboys.vibe_data.llm;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Инкрементальный разбор JSON-объекта, который приходит из потока LLM кусками.
+ *
+ * Каждый символ просматривается один раз; как только значение поля верхнего уровня
+ * полностью получено (строка закрыта, вложенный объект/массив закрыт, скаляр завершён запятой),
+ * его исходный JSON-текст сохраняется. Это позволяет по дедлайну собрать сущность
+ * из уже готовых полей, не дожидаясь конца ответа.
+ * Текст до первой '{' (например, ```json) пропускается.
+ */
+public class StreamingJsonFields {
+
+    private enum Expect { KEY, COLON, VALUE, AFTER_VALUE }
+
+    private final StringBuilder text = new StringBuilder();
+    private final Map<String, String> fields = new LinkedHashMap<>();
+
+    private int pos = 0;
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escape = false;
+    private boolean complete = false;
+
+    private Expect expect = Expect.KEY;
+    private int keyStart = -1;
+    private String currentKey;
+    private int valueStart = -1;
+
+    public synchronized void append(CharSequence chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        text.append(chunk);
+        for (; pos < text.length() && !complete; pos++) {
+            consume(text.charAt(pos));
+        }
+    }
+
+    private void consume(char c) {
+        if (inString) {
+            if (escape) {
+                escape = false;
+            } else if (c == '\\') {
+                escape = true;
+            } else if (c == '"') {
+                inString = false;
+                if (depth == 1) {
+                    onTopLevelStringEnd();
+                }
+            }
+            return;
+        }
+        if (depth == 0) {
+            if (c == '{') {
+                depth = 1;
+                expect = Expect.KEY;
+            }
+            return;
+        }
+        if (depth > 1) {
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 1) {
+                    recordValue(pos + 1);
+                }
+            }
+            return;
+        }
+        // depth == 1: поля корневого объекта
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                if (expect == Expect.KEY) {
+                    keyStart = pos + 1;
+                } else if (expect == Expect.VALUE) {
+                    valueStart = pos;
+                }
+            }
+            case ':' -> expect = Expect.VALUE;
+            case '{', '[' -> {
+                if (expect == Expect.VALUE) {
+                    valueStart = pos;
+                }
+                depth++;
+            }
+            case ',' -> {
+                finishScalar();
+                expect = Expect.KEY;
+            }
+            case '}' -> {
+                finishScalar();
+                depth = 0;
+                complete = true;
+            }
+            default -> {
+                if (expect == Expect.VALUE && valueStart < 0 && !Character.isWhitespace(c)) {
+                    valueStart = pos;
+                }
+            }
+        }
+    }
+
+    private void onTopLevelStringEnd() {
+        if (expect == Expect.KEY && keyStart >= 0) {
+            currentKey = text.substring(keyStart, pos);
+            keyStart = -1;
+            expect = Expect.COLON;
+        } else if (expect == Expect.VALUE && valueStart >= 0) {
+            recordValue(pos + 1);
+        }
+    }
+
+    private void finishScalar() {
+        if (expect == Expect.VALUE && valueStart >= 0) {
+            recordValue(pos);
+        }
+    }
+
+    private void recordValue(int endExclusive) {
+        if (currentKey != null && valueStart >= 0) {
+            fields.put(currentKey, text.substring(valueStart, endExclusive).trim());
+        }
+        currentKey = null;
+        valueStart = -1;
+        expect = Expect.AFTER_VALUE;
+    }
+
+    /** Корневой объект полностью получен. */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /** Полностью полученные поля верхнего уровня: имя -> исходный JSON значения. */
+    public synchronized Map<String, String> completedFields() {
+        return new LinkedHashMap<>(fields);
+    }
+
+    public synchronized boolean hasFields(Collection<String> names) {
+        return fields.keySet().containsAll(names);
+    }
+
+    /** JSON-объект только из готовых полей. */
+    public synchronized String completedFieldsJson() {
+        StringBuilder sb = new StringBuilder("{");
+        fields.forEach((k, v) -> {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(k).append("\":").append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    public synchronized String text() {
+        return text.toString();
+    }
+}
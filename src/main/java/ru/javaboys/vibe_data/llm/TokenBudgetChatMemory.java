@@ -0,0 +1,140 @@
+package ru.javaboys.vibe_data.llm;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Память диалога, ограниченная бюджетом токенов, а не числом сообщений: одно сообщение с DDL
+ * весит как десяток коротких ответов.
+ *
+ * Если история не укладывается в бюджет, сначала сокращаются выводы инструментов (EXPLAIN и т.п.)
+ * в старых сообщениях — от них остаётся начало и пометка с исходным размером, затем целиком
+ * отбрасываются самые старые ходы (сообщение пользователя со всеми ответами на него), чтобы не разрывать
+ * пару «вызов инструмента — ответ». Последний ход не трогается, даже если один не укладывается в бюджет.
+ * Токены оцениваются как символы / 4. Новое системное сообщение заменяет прежние.
+ * Добавление выполняется атомарно внутри репозитория, так что параллельные вызовы в одном диалоге
+ * не затирают сообщения друг друга.
+ */
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final WriteBehindChatMemoryRepository repository;
+    private final int maxTokens;
+    private final int toolOutputChars;
+
+    /**
+     * @param maxTokens       бюджет истории диалога в токенах
+     * @param toolOutputChars сколько символов вывода инструмента остаётся после сокращения
+     */
+    public TokenBudgetChatMemory(WriteBehindChatMemoryRepository repository, int maxTokens, int toolOutputChars) {
+        this.repository = repository;
+        this.maxTokens = maxTokens;
+        this.toolOutputChars = Math.max(0, toolOutputChars);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        boolean replacesSystem = messages.stream().anyMatch(m -> m instanceof SystemMessage);
+        repository.update(conversationId, current -> {
+            List<Message> memory = new ArrayList<>(current);
+            if (replacesSystem) {
+                memory.removeIf(m -> m instanceof SystemMessage);
+            }
+            memory.addAll(messages);
+            return compact(memory);
+        });
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        return repository.findByConversationId(conversationId);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        repository.deleteByConversationId(conversationId);
+    }
+
+    List<Message> compact(List<Message> messages) {
+        long total = 0;
+        for (Message m : messages) total += tokens(m);
+        if (total <= maxTokens) return messages;
+
+        List<Message> result = new ArrayList<>(messages);
+        int lastTurn = lastTurnStart(result);
+
+        // 1. выводы инструментов в старых ходах
+        for (int i = 0; i < lastTurn && total > maxTokens; i++) {
+            if (result.get(i) instanceof ToolResponseMessage tool) {
+                ToolResponseMessage shortened = shorten(tool);
+                total -= tokens(tool) - tokens(shortened);
+                result.set(i, shortened);
+            }
+        }
+
+        // 2. самые старые ходы целиком; системные сообщения остаются
+        while (total > maxTokens) {
+            int start = -1;
+            for (int i = 0; i < lastTurn; i++) {
+                if (!(result.get(i) instanceof SystemMessage)) {
+                    start = i;
+                    break;
+                }
+            }
+            if (start < 0) break;
+            int end = start + 1;
+            while (end < lastTurn && !(result.get(end) instanceof UserMessage)) end++;
+            for (int i = end - 1; i >= start; i--) {
+                if (result.get(i) instanceof SystemMessage) continue;
+                total -= tokens(result.remove(i));
+                lastTurn--;
+            }
+        }
+        return result;
+    }
+
+    // начало последнего хода — последнее сообщение пользователя
+    private static int lastTurnStart(List<Message> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage) return i;
+        }
+        return messages.size();
+    }
+
+    private ToolResponseMessage shorten(ToolResponseMessage tool) {
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(tool.getResponses().size());
+        for (ToolResponseMessage.ToolResponse r : tool.getResponses()) {
+            String data = r.responseData();
+            if (data != null && data.length() > toolOutputChars) {
+                data = data.substring(0, toolOutputChars) + "\n… [вывод инструмента сокращён, было " + data.length() + " символов]";
+            }
+            responses.add(new ToolResponseMessage.ToolResponse(r.id(), r.name(), data));
+        }
+        return new ToolResponseMessage(responses, tool.getMetadata());
+    }
+
+    static long tokens(Message m) {
+        long chars = 0;
+        if (m instanceof ToolResponseMessage tool) {
+            for (ToolResponseMessage.ToolResponse r : tool.getResponses()) {
+                chars += r.responseData() != null ? r.responseData().length() : 0;
+            }
+        } else {
+            chars += m.getText() != null ? m.getText().length() : 0;
+            if (m instanceof AssistantMessage assistant && assistant.hasToolCalls()) {
+                for (AssistantMessage.ToolCall call : assistant.getToolCalls()) {
+                    chars += call.arguments() != null ? call.arguments().length() : 0;
+                }
+            }
+        }
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,179 @@
+package ru.javaboys.vibe_data.llm;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Память диалогов в процессе поверх постоянного хранилища (JdbcChatMemoryRepository).
+ *
+ * Активные диалоги читаются и пишутся в памяти, а в хранилище изменения уходят фоновым потоком
+ * раз в flushIntervalMs — по одной записи на изменённый диалог, сколько бы вызовов LLM ни было между
+ * сбросами. Сброшенный диалог, к которому не обращались дольше idleTtlMs, выгружается из памяти
+ * и при следующем обращении читается из хранилища. Ошибка записи не теряет изменений: диалог остаётся
+ * «грязным» до следующей попытки. При остановке приложения несохранённое сбрасывается.
+ *
+ * Под блокировкой записи карты (compute) — только работа с памятью: сброс пишет снимок диалога в хранилище
+ * вне блокировки и отмечает его сохранённым, лишь если версия не изменилась за время записи. Удаление
+ * оставляет в памяти пустую «грязную» запись, которую сброс превращает в удаление из хранилища.
+ */
+@Slf4j
+public class WriteBehindChatMemoryRepository implements ChatMemoryRepository {
+
+    /**
+     * @param version        номер изменения в памяти
+     * @param flushedVersion номер изменения, уже записанного в хранилище
+     */
+    private record Entry(List<Message> messages, long version, long flushedVersion, long touchedAtMs) {
+        boolean dirty() {
+            return version != flushedVersion;
+        }
+
+        Entry touched(long nowMs) {
+            return new Entry(messages, version, flushedVersion, nowMs);
+        }
+    }
+
+    private final ChatMemoryRepository delegate;
+    private final long flushIntervalMs;
+    private final long idleTtlMs;
+    private final Map<String, Entry> conversations = new ConcurrentHashMap<>();
+
+    private Thread worker;
+    private volatile boolean running = false;
+
+    public WriteBehindChatMemoryRepository(ChatMemoryRepository delegate, long flushIntervalMs, long idleTtlMs) {
+        this.delegate = delegate;
+        this.flushIntervalMs = Math.max(100, flushIntervalMs);
+        this.idleTtlMs = idleTtlMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "chat-memory-flusher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try { worker.join(Duration.ofSeconds(2).toMillis()); } catch (InterruptedException ignored) {}
+        }
+        flush(Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(delegate.findConversationIds());
+        conversations.forEach((id, e) -> {
+            if (e.messages().isEmpty()) {
+                ids.remove(id);
+            } else {
+                ids.add(id);
+            }
+        });
+        return List.copyOf(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        long now = System.currentTimeMillis();
+        Entry entry = conversations.computeIfPresent(conversationId, (id, e) -> e.touched(now));
+        if (entry == null) {
+            // промах: поднимаем диалог из хранилища; конкурентная запись в памяти имеет приоритет
+            List<Message> stored = List.copyOf(delegate.findByConversationId(conversationId));
+            entry = conversations.computeIfAbsent(conversationId, id -> new Entry(stored, 0, 0, now));
+        }
+        return entry.messages();
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<Message> copy = List.copyOf(messages);
+        long now = System.currentTimeMillis();
+        conversations.compute(conversationId, (id, e) -> e == null
+                ? new Entry(copy, 1, 0, now)
+                : new Entry(copy, e.version() + 1, e.flushedVersion(), now));
+    }
+
+    /**
+     * Атомарно изменяет диалог: change получает текущие сообщения под блокировкой записи, поэтому
+     * параллельные добавления в один диалог не теряют друг друга. change не должен обращаться к хранилищу.
+     */
+    public void update(String conversationId, UnaryOperator<List<Message>> change) {
+        while (true) {
+            // промах поднимает диалог из хранилища вне блокировки
+            findByConversationId(conversationId);
+            long now = System.currentTimeMillis();
+            Entry updated = conversations.computeIfPresent(conversationId, (id, e) ->
+                    new Entry(List.copyOf(change.apply(e.messages())), e.version() + 1, e.flushedVersion(), now));
+            if (updated != null) return;
+            // диалог выгрузили между чтением и изменением — поднимаем заново
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        // пустой «грязный» диалог: сброс удалит его из хранилища, а чтения до сброса уже видят пустую историю
+        saveAll(conversationId, List.of());
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMs);
+            } catch (InterruptedException e) {
+                // остановка или ложное пробуждение
+            }
+            flush(idleTtlMs);
+        }
+    }
+
+    /**
+     * Записывает изменённые диалоги и выгружает сброшенные, простаивающие дольше idleMs.
+     * synchronized: фоновый поток и остановка не пишут один диалог в хранилище вперемешку.
+     */
+    synchronized void flush(long idleMs) {
+        long now = System.currentTimeMillis();
+        int flushed = 0;
+        for (String id : conversations.keySet()) {
+            Entry snapshot = conversations.get(id);
+            if (snapshot == null) continue;
+            if (snapshot.dirty()) {
+                try {
+                    if (snapshot.messages().isEmpty()) {
+                        delegate.deleteByConversationId(id);
+                    } else {
+                        delegate.saveAll(id, snapshot.messages());
+                    }
+                } catch (Exception ex) {
+                    log.warn("Не удалось сохранить диалог {}, повторим при следующем сбросе: {}", id, ex.getMessage());
+                    continue;
+                }
+                flushed++;
+                // записанная версия сохранена; изменения, пришедшие во время записи, уйдут следующим сбросом
+                conversations.computeIfPresent(id, (k, e) -> e.version() == snapshot.version()
+                        ? new Entry(e.messages(), e.version(), e.version(), e.touchedAtMs())
+                        : e);
+            }
+            conversations.computeIfPresent(id, (k, e) -> !e.dirty() && now - e.touchedAtMs() > idleMs ? null : e);
+        }
+        if (flushed > 0) {
+            log.debug("Сброшено диалогов в хранилище: {}", flushed);
+        }
+    }
+}
@@ -36,4 +36,19 @@ public class AvgTimeCalculator {
         }
         return alpha * sampleMs + (1.0 - alpha) * prevAvg;
     }
+
+    /**
+     * Folds n samples with the given mean into the average at once. Equivalent to n sequential
+     * {@link #ewma(Double, double)} steps when all samples equal the mean.
+     */
+    public double ewma(Double prevAvg, double meanMs, long n) {
+        if (n <= 0) {
+            return prevAvg == null ? 0d : prevAvg;
+        }
+        if (prevAvg == null || prevAvg == 0d) {
+            prevAvg = meanMs;
+        }
+        double keep = Math.pow(1.0 - alpha, n);
+        return keep * prevAvg + (1.0 - keep) * meanMs;
+    }
 }
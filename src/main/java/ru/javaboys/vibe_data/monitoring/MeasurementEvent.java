@@ -1,6 +0,0 @@
-package ru.javaboys.vibe_data.monitoring;
-
-/**
- * Represents a single method execution measurement.
- */
-public record MeasurementEvent(String key, long durationMs, boolean success) { }
\ No newline at end of file
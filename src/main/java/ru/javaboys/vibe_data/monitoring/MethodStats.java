@@ -38,4 +38,16 @@ public class MethodStats extends BaseEntity {
 
     @Column(name = "error_count", nullable = false)
     private Long errorCount = 0L;
+
+    /**
+     * Percentiles of execution time over the rolling window (monitoring.percentile-window-ms).
+     */
+    @Column(name = "p50_ms")
+    private Double p50Ms;
+
+    @Column(name = "p95_ms")
+    private Double p95Ms;
+
+    @Column(name = "p99_ms")
+    private Double p99Ms;
 }
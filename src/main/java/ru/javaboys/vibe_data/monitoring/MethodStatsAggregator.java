@@ -0,0 +1,243 @@
+package ru.javaboys.vibe_data.monitoring;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory, lock-free aggregation of method timings per monitoring key.
+ * Writers only touch striped {@link LongAdder}s (no allocation once a key is known);
+ * the single flushing thread folds the deltas into the EWMA, computes percentiles over a rolling
+ * window of recent flushes and hands both to the DB upsert.
+ */
+@Component
+public class MethodStatsAggregator {
+
+    /** Exact buckets for 0..3 ms, then 4 sub-buckets per power of two (about 25% resolution). */
+    static final int BUCKETS = 4 + 40 * 4;
+
+    private final AvgTimeCalculator avgTimeCalculator;
+    private final long percentileWindowMs;
+    private final Map<String, KeyStats> stats = new ConcurrentHashMap<>();
+
+    public MethodStatsAggregator(AvgTimeCalculator avgTimeCalculator,
+                                 @Value("${monitoring.percentile-window-ms:300000}") long percentileWindowMs) {
+        this.avgTimeCalculator = avgTimeCalculator;
+        this.percentileWindowMs = percentileWindowMs;
+    }
+
+    /**
+     * Changes of one key since the previous drain. A key without new samples is reported with zero counts
+     * when its window percentiles changed (old slices expired).
+     *
+     * @param avgTimeMs EWMA after folding in the new samples
+     * @param sumMs     total duration of the new samples
+     * @param p50Ms     median over the rolling window (bucket upper bound); null once the window is empty
+     */
+    public record Delta(String key, double avgTimeMs, long total, long success, long error, long sumMs,
+                        Long p50Ms, Long p95Ms, Long p99Ms) {}
+
+    public void record(String key, long durationMs, boolean success) {
+        KeyStats s = stats.get(key);
+        if (s == null) {
+            s = stats.computeIfAbsent(key, k -> new KeyStats());
+        }
+        s.record(durationMs, success);
+    }
+
+    /** Seeds the EWMA of a key from persisted stats so that restarts do not reset it. */
+    public void seed(String key, double avgTimeMs) {
+        KeyStats s = stats.computeIfAbsent(key, k -> new KeyStats());
+        synchronized (s) {
+            if (s.avgTimeMs == 0d) {
+                s.avgTimeMs = avgTimeMs;
+            }
+        }
+    }
+
+    public OptionalDouble avgTimeMs(String key) {
+        KeyStats s = stats.get(key);
+        if (s == null) return OptionalDouble.empty();
+        synchronized (s) {
+            return s.avgTimeMs > 0 ? OptionalDouble.of(s.avgTimeMs) : OptionalDouble.empty();
+        }
+    }
+
+    /** Number of measurements recorded by this node since start. */
+    public long count(String key) {
+        KeyStats s = stats.get(key);
+        return s == null ? 0 : s.success.sum() + s.error.sum();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile of all measurements since start.
+     */
+    public OptionalLong percentileMs(String key, double quantile) {
+        KeyStats s = stats.get(key);
+        if (s == null) return OptionalLong.empty();
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = s.buckets[i].sum();
+        }
+        return percentile(counts, quantile);
+    }
+
+    static OptionalLong percentile(long[] counts, double quantile) {
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return OptionalLong.empty();
+        long target = Math.max(1, (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) return OptionalLong.of(upperBound(i));
+        }
+        return OptionalLong.of(upperBound(BUCKETS - 1));
+    }
+
+    /**
+     * Collects per-key deltas since the previous call and folds them into the EWMA. The percentile window
+     * of every key slides on each call, so idle keys age out too.
+     * Must be called from a single thread (the flusher).
+     */
+    public List<Delta> drain() {
+        return drain(System.currentTimeMillis());
+    }
+
+    List<Delta> drain(long nowMs) {
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<String, KeyStats> e : stats.entrySet()) {
+            KeyStats s = e.getValue();
+            // cumulative sums minus what was already flushed: concurrent increments land in the next drain;
+            // total is derived from the two outcome counters, so errors can never come out negative
+            long success = s.success.sum();
+            long error = s.error.sum();
+            long sumMs = s.sumMs.sum();
+            long dSuccess = success - s.flushedSuccess;
+            long dError = error - s.flushedError;
+            long dSumMs = sumMs - s.flushedSumMs;
+            long dTotal = dSuccess + dError;
+            s.flushedSuccess = success;
+            s.flushedError = error;
+            s.flushedSumMs = sumMs;
+
+            long[] window = s.slideWindow(nowMs, percentileWindowMs);
+            Long[] percentiles = {
+                    boxed(percentile(window, 0.50)), boxed(percentile(window, 0.95)), boxed(percentile(window, 0.99))};
+            if (dTotal <= 0 && Arrays.equals(percentiles, s.reportedPercentiles)) continue;
+            s.reportedPercentiles = percentiles;
+
+            double avg;
+            synchronized (s) {
+                s.avgBeforeDrain = s.avgTimeMs;
+                if (dTotal > 0) {
+                    s.avgTimeMs = avgTimeCalculator.ewma(s.avgTimeMs, (double) dSumMs / dTotal, dTotal);
+                }
+                avg = s.avgTimeMs;
+            }
+            deltas.add(new Delta(e.getKey(), avg, dTotal, dSuccess, dError, dSumMs,
+                    percentiles[0], percentiles[1], percentiles[2]));
+        }
+        return deltas;
+    }
+
+    private static Long boxed(OptionalLong v) {
+        return v.isPresent() ? v.getAsLong() : null;
+    }
+
+    /**
+     * Rolls back a drain whose upsert failed, so the deltas are retried on the next flush:
+     * the counters and the EWMA return to their state before the drain, and the percentiles are re-sent.
+     */
+    public void restore(List<Delta> deltas) {
+        for (Delta d : deltas) {
+            KeyStats s = stats.get(d.key());
+            if (s == null) continue;
+            s.flushedSuccess -= d.success();
+            s.flushedError -= d.error();
+            s.flushedSumMs -= d.sumMs();
+            s.reportedPercentiles = null;
+            synchronized (s) {
+                s.avgTimeMs = s.avgBeforeDrain;
+            }
+        }
+    }
+
+    static int bucket(long ms) {
+        if (ms < 4) return (int) Math.max(0, ms);
+        int exp = 63 - Long.numberOfLeadingZeros(ms);
+        int sub = (int) ((ms >>> (exp - 2)) & 3);
+        return Math.min(BUCKETS - 1, 4 + (exp - 2) * 4 + sub);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 4) return bucket;
+        int exp = (bucket - 4) / 4 + 2;
+        int sub = (bucket - 4) % 4;
+        return ((4L + sub + 1) << (exp - 2)) - 1;
+    }
+
+    private record Slice(long atMs, long[] counts) {}
+
+    private static final class KeyStats {
+        final LongAdder success = new LongAdder();
+        final LongAdder error = new LongAdder();
+        final LongAdder sumMs = new LongAdder();
+        final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        // owned by the flushing thread
+        long flushedSuccess;
+        long flushedError;
+        long flushedSumMs;
+        final long[] flushedBuckets = new long[BUCKETS];
+        // histogram deltas of recent drains, oldest first
+        final ArrayDeque<Slice> window = new ArrayDeque<>();
+        final long[] windowCounts = new long[BUCKETS];
+        // p50/p95/p99 of the last reported delta; null forces the next drain to report the key
+        Long[] reportedPercentiles = new Long[3];
+
+        // guarded by this
+        double avgTimeMs;
+        double avgBeforeDrain;
+
+        KeyStats() {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        /** Adds the histogram delta since the previous drain (if any) and evicts slices older than windowMs. */
+        long[] slideWindow(long nowMs, long windowMs) {
+            long[] delta = new long[BUCKETS];
+            boolean any = false;
+            for (int i = 0; i < BUCKETS; i++) {
+                long current = buckets[i].sum();
+                delta[i] = current - flushedBuckets[i];
+                flushedBuckets[i] = current;
+                windowCounts[i] += delta[i];
+                any |= delta[i] != 0;
+            }
+            if (any) {
+                window.addLast(new Slice(nowMs, delta));
+            }
+            while (!window.isEmpty() && window.peekFirst().atMs() < nowMs - windowMs) {
+                long[] old = window.removeFirst().counts();
+                for (int i = 0; i < BUCKETS; i++) windowCounts[i] -= old[i];
+            }
+            return windowCounts;
+        }
+
+        void record(long durationMs, boolean ok) {
+            (ok ? success : error).increment();
+            sumMs.add(durationMs);
+            buckets[bucket(durationMs)].increment();
+        }
+    }
+}
@@ -3,46 +3,77 @@ package ru.javaboys.vibe_data.monitoring;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.UUID;
 
 /**
- * A single-writer background service that persists measurement events to DB.
- * Uses a bounded, thread-safe queue to decouple producers (aspects) from the DB and
- * to avoid data races.
+ * A single background thread that periodically drains {@link MethodStatsAggregator} and persists
+ * all changed keys with one bulk INSERT ... ON CONFLICT statement, together with the rolling-window percentiles.
+ * Producers never block or drop measurements: they only increment in-memory counters.
  */
 @Slf4j
 @Service
 public class MethodStatsUpdater {
 
+    private static final String UPSERT_PREFIX = """
+            INSERT INTO method_stats (id, created_at, updated_at, stats_key, avg_time_ms, total_count, success_count, error_count,
+                                      p50_ms, p95_ms, p99_ms)
+            VALUES\s""";
+
+    private static final String UPSERT_ROW = "(?, now(), now(), ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPSERT_SUFFIX = """
+
+            ON CONFLICT (stats_key) DO UPDATE
+               SET avg_time_ms = EXCLUDED.avg_time_ms,
+                   total_count = method_stats.total_count + EXCLUDED.total_count,
+                   success_count = method_stats.success_count + EXCLUDED.success_count,
+                   error_count = method_stats.error_count + EXCLUDED.error_count,
+                   p50_ms = EXCLUDED.p50_ms,
+                   p95_ms = EXCLUDED.p95_ms,
+                   p99_ms = EXCLUDED.p99_ms,
+                   updated_at = now()
+            """;
+
+    private final MethodStatsAggregator aggregator;
     private final MethodStatsRepository repository;
-    private final AvgTimeCalculator avgTimeCalculator;
+    private final JdbcTemplate jdbcTemplate;
+    private final long flushIntervalMs;
 
     private Thread worker;
     private volatile boolean running = false;
 
-    private final BlockingQueue<MeasurementEvent> queue;
-
     public MethodStatsUpdater(
+            MethodStatsAggregator aggregator,
             MethodStatsRepository repository,
-            AvgTimeCalculator avgTimeCalculator,
-            @Value("${monitoring.queue.capacity:10000}") int capacity
+            @Qualifier("jdbcTemplate") JdbcTemplate jdbcTemplate,
+            @Value("${monitoring.flush-interval-ms:5000}") long flushIntervalMs
     ) {
+        this.aggregator = aggregator;
         this.repository = repository;
-        this.avgTimeCalculator = avgTimeCalculator;
-        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.jdbcTemplate = jdbcTemplate;
+        this.flushIntervalMs = Math.max(100, flushIntervalMs);
     }
 
     @PostConstruct
     public void start() {
+        try {
+            // continue the persisted EWMA instead of starting from the first sample again
+            for (MethodStats ms : repository.findAll()) {
+                if (ms.getAvgTimeMs() != null && ms.getAvgTimeMs() > 0) {
+                    aggregator.seed(ms.getKey(), ms.getAvgTimeMs());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("MethodStatsUpdater failed to load persisted stats: {}", e.toString());
+        }
         running = true;
         worker = new Thread(this::runLoop, "method-stats-updater");
         worker.setDaemon(true);
@@ -58,78 +89,49 @@ public class MethodStatsUpdater {
         }
     }
 
-    public boolean offer(MeasurementEvent ev) {
-        return queue.offer(ev);
-    }
-
     private void runLoop() {
-        final int maxBatch = 500;
-        final long pollTimeoutMs = 1000;
-        List<MeasurementEvent> batch = new ArrayList<>(maxBatch);
         while (running) {
             try {
-                MeasurementEvent first = queue.poll(pollTimeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
-                if (first == null) {
-                    continue; // timeout
-                }
-                batch.clear();
-                batch.add(first);
-                queue.drainTo(batch, maxBatch - 1);
-                persistBatch(batch);
+                Thread.sleep(flushIntervalMs);
             } catch (InterruptedException e) {
                 // shutdown or spurious
-            } catch (Throwable t) {
-                log.warn("MethodStatsUpdater failed to persist batch: {}", t.toString());
-            }
-        }
-        // drain remaining
-        List<MeasurementEvent> rest = new ArrayList<>();
-        queue.drainTo(rest);
-        if (!rest.isEmpty()) {
-            try {
-                persistBatch(rest);
-            } catch (Throwable t) {
-                log.warn("MethodStatsUpdater failed to persist remaining: {}", t.toString());
             }
+            flush();
         }
     }
 
-    private void persistBatch(List<MeasurementEvent> events) {
-        // group by key
-        Map<String, List<MeasurementEvent>> byKey = new HashMap<>();
-        for (MeasurementEvent e : events) {
-            byKey.computeIfAbsent(e.key(), k -> new ArrayList<>()).add(e);
+    void flush() {
+        List<MethodStatsAggregator.Delta> deltas = aggregator.drain();
+        if (deltas.isEmpty()) {
+            return;
         }
-        for (Map.Entry<String, List<MeasurementEvent>> entry : byKey.entrySet()) {
-            String key = entry.getKey();
-            List<MeasurementEvent> list = entry.getValue();
-
-            MethodStats stats = repository.findByKey(key).orElseGet(() -> {
-                MethodStats ms = new MethodStats();
-                ms.setKey(key);
-                ms.setAvgTimeMs(0d);
-                ms.setTotalCount(0L);
-                ms.setSuccessCount(0L);
-                ms.setErrorCount(0L);
-                return ms;
-            });
-
-            double avg = stats.getAvgTimeMs() == null ? 0d : stats.getAvgTimeMs();
-            long total = stats.getTotalCount() == null ? 0L : stats.getTotalCount();
-            long succ = stats.getSuccessCount() == null ? 0L : stats.getSuccessCount();
-            long err = stats.getErrorCount() == null ? 0L : stats.getErrorCount();
-
-            for (MeasurementEvent e : list) {
-                avg = avgTimeCalculator.ewma(avg, e.durationMs());
-                total += 1;
-                if (e.success()) succ += 1; else err += 1;
-            }
+        try {
+            upsert(deltas);
+        } catch (Throwable t) {
+            aggregator.restore(deltas);
+            log.warn("MethodStatsUpdater failed to persist {} keys, will retry: {}", deltas.size(), t.toString());
+        }
+    }
 
-            stats.setAvgTimeMs(avg);
-            stats.setTotalCount(total);
-            stats.setSuccessCount(succ);
-            stats.setErrorCount(err);
-            repository.save(stats);
+    private void upsert(List<MethodStatsAggregator.Delta> deltas) {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        List<Object> args = new ArrayList<>(deltas.size() * 9);
+        for (int i = 0; i < deltas.size(); i++) {
+            MethodStatsAggregator.Delta d = deltas.get(i);
+            if (i > 0) sql.append(", ");
+            sql.append(UPSERT_ROW);
+            args.add(UUID.randomUUID());
+            args.add(d.key());
+            args.add(d.avgTimeMs());
+            args.add(d.total());
+            args.add(d.success());
+            args.add(d.error());
+            // null clears the percentiles of a key whose window has emptied
+            args.add(d.p50Ms() != null ? d.p50Ms().doubleValue() : null);
+            args.add(d.p95Ms() != null ? d.p95Ms().doubleValue() : null);
+            args.add(d.p99Ms() != null ? d.p99Ms().doubleValue() : null);
         }
+        sql.append(UPSERT_SUFFIX);
+        jdbcTemplate.update(sql.toString(), args.toArray());
     }
 }
@@ -3,62 +3,41 @@ package ru.javaboys.vibe_data.service;
 import org.springframework.stereotype.Component;
 
 import lombok.extern.slf4j.Slf4j;
+import ru.javaboys.vibe_data.util.Murmur3Hash128;
+import ru.javaboys.vibe_data.util.SqlTokenizer;
 
 @Slf4j
 @Component("CacheKeyUtils")
 public class CacheKeyUtils {
 
+    // разделитель токенов в хэшируемом потоке: в тексте SQL вне литералов не встречается
+    private static final char TOKEN_SEPARATOR = '\u0000';
+
+    /**
+     * Ключ кэша для SQL: 128-битный хэш (32 hex-символа) нормализованного запроса.
+     *
+     * Запрос разбирается {@link SqlTokenizer} за один проход и токены сразу подаются в хэш,
+     * без промежуточной строки. Комментарии и пробелы между токенами не влияют на ключ,
+     * регистр слов без кавычек (ключевые слова и идентификаторы) приводится к нижнему,
+     * строковые литералы и идентификаторы в кавычках хэшируются как есть — 'New York' и 'NewYork'
+     * дают разные ключи.
+     */
     public String normalize(String input) {
-        boolean inLineComment = false;
-        boolean inBlockComment = false;
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
-
-            // Проверка на начало блочного комментария /* ... */
-            if (!inLineComment && !inBlockComment && c == '/' && i + 1 < input.length() && input.charAt(i + 1) == '*') {
-                inBlockComment = true;
-                i++; // пропускаем '*'
-                continue;
-            }
-
-            // Проверка на конец блочного комментария */
-            if (inBlockComment && c == '*' && i + 1 < input.length() && input.charAt(i + 1) == '/') {
-                inBlockComment = false;
-                i++; // пропускаем '/'
-                continue;
-            }
-
-            // Проверка на начало однострочного комментария --
-            if (!inLineComment && !inBlockComment && c == '-' && i + 1 < input.length() && input.charAt(i + 1) == '-') {
-                inLineComment = true;
-                i++; // пропускаем второй '-'
-                continue;
-            }
-
-            // Конец строки завершает однострочный комментарий
-            if (inLineComment && (c == '\n' || c == '\r')) {
-                inLineComment = false;
-                continue;
+        Murmur3Hash128 hash = new Murmur3Hash128();
+        SqlTokenizer.scan(input, (type, start, end) -> {
+            boolean fold = type == SqlTokenizer.Type.WORD;
+            for (int i = start; i < end; i++) {
+                char c = input.charAt(i);
+                hash.putChar(fold ? Character.toLowerCase(c) : c);
             }
-
-            // Если внутри комментария — игнорируем символ
-            if (inLineComment || inBlockComment) {
-                continue;
-            }
-
-            // Пропускаем пробелы
-            if (Character.isWhitespace(c)) {
-                continue;
-            }
-
-            // Добавляем в результат
-            sb.append(c);
+            hash.putChar(TOKEN_SEPARATOR);
+        });
+        String key = hash.finishHex();
+        if (log.isTraceEnabled()) {
+            log.trace("Src query: {}", input);
+            log.trace("Cache key: {}", key);
         }
-
-        log.trace("Src query: {}", input);
-        log.trace("Cache query: {}", sb);
-        return sb.toString();
+        return key;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,212 @@
+package ru.javaboys.vibe_data.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import ru.javaboys.vibe_data.agent.QueryOptimizerAgent;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
+import ru.javaboys.vibe_data.agent.workload.QueryGroup;
+import ru.javaboys.vibe_data.domain.Task;
+import ru.javaboys.vibe_data.domain.TaskInput;
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+import ru.javaboys.vibe_data.domain.jsonb.TaskInputPayload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Прогрев кэша EXPLAIN для запросов задачи.
+ * Работа идёт на ограниченном пуле с общей для всех задач очередью с приоритетом: сначала дешёвые типы
+ * планов (LOGICAL, IO, DISTRIBUTED), затем ANALYZE; внутри типа — по убыванию веса запроса, при равенстве —
+ * в порядке постановки. Так ANALYZE одной задачи не задерживает дешёвые планы задачи, пришедшей позже.
+ * Прогрев отменяется при завершении задачи.
+ */
+@Slf4j
+@Service
+public class ExplainPrefetcher {
+
+    /**
+     * Порядок прогрева по стоимости. VALIDATE не прогреваем: он не доступен LLM как инструмент.
+     */
+    private static final List<TrinoExplainType> PREFETCH_ORDER = List.of(
+            TrinoExplainType.LOGICAL,
+            TrinoExplainType.IO,
+            TrinoExplainType.DISTRIBUTED,
+            TrinoExplainType.ANALYZE,
+            TrinoExplainType.ANALYZE_VERBOSE
+    );
+
+    private final TrinoDbService trinoDbService;
+    private final ThreadPoolTaskExecutor executor;
+
+    // как и в QueryOptimizerAgent: в LLM уходит только представитель группы, его и прогреваем
+    @Value("${processing.fingerprint.enabled:true}")
+    private boolean fingerprintEnabled;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    // порядок постановки: равные по приоритету элементы выполняются FIFO
+    private final AtomicLong sequence = new AtomicLong();
+    private final Counter warmed;
+    private final Counter failed;
+    private final Counter cancelled;
+    private final Counter rejected;
+
+    public ExplainPrefetcher(TrinoDbService trinoDbService,
+                             @Qualifier("explainPrefetchExecutor") ThreadPoolTaskExecutor executor,
+                             MeterRegistry meterRegistry) {
+        this.trinoDbService = trinoDbService;
+        this.executor = executor;
+        this.warmed = itemsCounter(meterRegistry, "warmed");
+        this.failed = itemsCounter(meterRegistry, "failed");
+        this.cancelled = itemsCounter(meterRegistry, "cancelled");
+        this.rejected = itemsCounter(meterRegistry, "rejected");
+        Gauge.builder("explain.prefetch.pending", pending, AtomicInteger::get)
+                .description("EXPLAIN, ожидающие прогрева")
+                .register(meterRegistry);
+    }
+
+    private Counter itemsCounter(MeterRegistry registry, String result) {
+        return Counter.builder("explain.prefetch.items")
+                .description("Обработанные элементы прогрева EXPLAIN")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * Ставит в очередь прогрев всех запросов задачи. Входные данные читаются в вызывающем потоке.
+     */
+    public Prefetch start(Task task) {
+        List<QueryInput> queries = Optional.ofNullable(task.getInput())
+                .map(TaskInput::getPayload)
+                .map(TaskInputPayload::getQueries)
+                .orElseGet(Collections::emptyList);
+
+        // по одному запросу на группу (тот же представитель, что уходит в LLM), группы — по убыванию веса
+        List<QueryGroup> byWeight = QueryGroup.group(queries, fingerprintEnabled, QueryOptimizerAgent::weightOf);
+
+        Prefetch prefetch = new Prefetch(task.getId(), byWeight.size() * PREFETCH_ORDER.size());
+        for (TrinoExplainType type : PREFETCH_ORDER) {
+            for (QueryGroup group : byWeight) {
+                prefetch.submit(group.representative().getQuery(), type, group.weight());
+            }
+        }
+        log.info("Прогрев EXPLAIN для задачи {}: поставлено в очередь {} из {}",
+                task.getId(), prefetch.items.size(), prefetch.total);
+        return prefetch;
+    }
+
+    /**
+     * Прогрев одной задачи: прогресс и отмена.
+     */
+    public class Prefetch {
+        private final UUID taskId;
+        private final int total;
+        private final List<Item> items = new ArrayList<>();
+        private final AtomicBoolean cancelledFlag = new AtomicBoolean();
+        private final AtomicInteger done = new AtomicInteger();
+
+        private Prefetch(UUID taskId, int total) {
+            this.taskId = taskId;
+            this.total = total;
+        }
+
+        private void submit(String sql, TrinoExplainType type, long weight) {
+            Item item = new Item(sql, type, weight);
+            pending.incrementAndGet();
+            try {
+                executor.execute(item);
+                items.add(item);
+            } catch (TaskRejectedException e) {
+                pending.decrementAndGet();
+                rejected.increment();
+                log.debug("Прогрев EXPLAIN {} для задачи {} отклонён: очередь заполнена", type, taskId);
+            }
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getDone() {
+            return done.get();
+        }
+
+        /**
+         * Отменяет ещё не начатый прогрев. Уже запущенные EXPLAIN дорабатывают: они ограничены
+         * таймаутом Trino и могут обслуживать tool calls других задач через single-flight.
+         */
+        public void cancel() {
+            if (!cancelledFlag.compareAndSet(false, true)) {
+                return;
+            }
+            int dropped = 0;
+            for (Item item : items) {
+                if (item.claimed.compareAndSet(false, true)) {
+                    // освобождаем место в общей очереди
+                    executor.getThreadPoolExecutor().remove(item);
+                    pending.decrementAndGet();
+                    dropped++;
+                }
+            }
+            cancelled.increment(dropped);
+            log.info("Прогрев EXPLAIN для задачи {} остановлен: выполнено {} из {}, отменено {}",
+                    taskId, done.get(), total, dropped);
+        }
+
+        /**
+         * Элемент общей очереди пула: порядок — стоимость типа плана, затем вес запроса по убыванию,
+         * затем порядок постановки, независимо от задачи.
+         */
+        private class Item implements Runnable, Comparable<Item> {
+            private final String sql;
+            private final TrinoExplainType type;
+            private final long weight;
+            private final long seq = sequence.getAndIncrement();
+            // выполнение и отмена соревнуются за элемент, учитывается только победитель
+            private final AtomicBoolean claimed = new AtomicBoolean();
+
+            private Item(String sql, TrinoExplainType type, long weight) {
+                this.sql = sql;
+                this.type = type;
+                this.weight = weight;
+            }
+
+            @Override
+            public int compareTo(Item other) {
+                int byType = Integer.compare(PREFETCH_ORDER.indexOf(type), PREFETCH_ORDER.indexOf(other.type));
+                if (byType != 0) return byType;
+                int byWeight = Long.compare(other.weight, weight);
+                return byWeight != 0 ? byWeight : Long.compare(seq, other.seq);
+            }
+
+            @Override
+            public void run() {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    trinoDbService.explain(sql, type);
+                    warmed.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.debug("Прогрев EXPLAIN {} для задачи {} завершился ошибкой: {}", type, taskId, e.getMessage());
+                } finally {
+                    pending.decrementAndGet();
+                    done.incrementAndGet();
+                }
+            }
+        }
+    }
+}
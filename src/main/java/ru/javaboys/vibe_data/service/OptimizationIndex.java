@@ -0,0 +1,102 @@
+package ru.javaboys.vibe_data.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.javaboys.vibe_data.domain.Optimization;
+import ru.javaboys.vibe_data.repository.OptimizationRepository;
+import ru.javaboys.vibe_data.util.Bm25Index;
+import ru.javaboys.vibe_data.util.SqlTokenizer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Индекс BM25 по текстам активных рекомендаций {@link Optimization} в памяти процесса.
+ *
+ * В промпт идут только top-k рекомендаций, релевантных запросам: термы берутся из слов SQL
+ * (таблицы, колонки, ключевые слова и функции). Тексты рекомендаций — проза, и с идентификаторами SQL
+ * они совпадают редко, поэтому недобранные до k места заполняются остальными активными рекомендациями
+ * в порядке хранения: промпт никогда не остаётся без рекомендаций. Индекс перестраивается сразу после изменений
+ * через {@link OptimizationServiceImpl} и не реже раза в optimizations.index.refresh-interval-ms —
+ * чтобы подхватить изменения, сделанные на других узлах.
+ */
+@Slf4j
+@Component
+public class OptimizationIndex {
+
+    private record Snapshot(List<Optimization> optimizations, Bm25Index index, long builtAtMs) {}
+
+    private final OptimizationRepository repository;
+    private final int topK;
+    private final long refreshIntervalMs;
+
+    private volatile Snapshot snapshot = new Snapshot(List.of(), new Bm25Index(List.of()), 0);
+
+    /**
+     * @param topK сколько рекомендаций попадает в промпт; 0 — все активные, без ранжирования
+     */
+    public OptimizationIndex(OptimizationRepository repository,
+                             @Value("${optimizations.top-k:5}") int topK,
+                             @Value("${optimizations.index.refresh-interval-ms:60000}") long refreshIntervalMs) {
+        this.repository = repository;
+        this.topK = topK;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /** Перечитывает активные рекомендации; при ошибке остаётся прежний индекс. */
+    public synchronized void refresh() {
+        try {
+            List<Optimization> active = repository.findAllByActiveIsTrue();
+            List<String> texts = active.stream().map(Optimization::getText).toList();
+            snapshot = new Snapshot(List.copyOf(active), new Bm25Index(texts), System.currentTimeMillis());
+            log.info("Индекс рекомендаций перестроен: активных {}", active.size());
+        } catch (Exception e) {
+            // следующая попытка — через интервал, а не на каждом запросе
+            Snapshot stale = snapshot;
+            snapshot = new Snapshot(stale.optimizations(), stale.index(), System.currentTimeMillis());
+            log.warn("Не удалось перестроить индекс рекомендаций: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void refreshIfStale() {
+        if (System.currentTimeMillis() - snapshot.builtAtMs() > refreshIntervalMs) {
+            refresh();
+        }
+    }
+
+    /** k рекомендаций: сначала совпавшие с запросами по убыванию оценки BM25, затем остальные активные. */
+    public List<Optimization> relevant(Collection<String> sqls) {
+        if (System.currentTimeMillis() - snapshot.builtAtMs() > refreshIntervalMs) {
+            refreshIfStale();
+        }
+        Snapshot current = snapshot;
+        if (topK <= 0 || current.optimizations().size() <= topK) {
+            return current.optimizations();
+        }
+        List<String> terms = new ArrayList<>();
+        for (String sql : sqls) {
+            for (SqlTokenizer.Token t : SqlTokenizer.tokenize(sql)) {
+                if (t.type() == SqlTokenizer.Type.WORD || t.type() == SqlTokenizer.Type.QUOTED) {
+                    terms.addAll(Bm25Index.terms(t.text()));
+                }
+            }
+        }
+        List<Integer> ranked = current.index().top(terms, topK);
+        List<Optimization> result = new ArrayList<>(topK);
+        for (int doc : ranked) {
+            result.add(current.optimizations().get(doc));
+        }
+        for (int doc = 0; doc < current.optimizations().size() && result.size() < topK; doc++) {
+            if (!ranked.contains(doc)) result.add(current.optimizations().get(doc));
+        }
+        return result;
+    }
+}
@@ -19,12 +19,14 @@ import ru.javaboys.vibe_data.repository.OptimizationRepository;
 public class OptimizationServiceImpl implements OptimizationService {
     private final OptimizationRepository repository;
     private final OptimizationMapper mapper;
+    private final OptimizationIndex index;
 
     @Override
     public OptimizationDto save(String text) {
         Optimization optimization = new Optimization();
         optimization.setText(text);
         optimization = repository.save(optimization);
+        index.refresh();
 
         return mapper.toDto(optimization);
     }
@@ -35,6 +37,7 @@ public class OptimizationServiceImpl implements OptimizationService {
                 .orElseThrow(() -> new EntityNotFoundException("Entity not found, id: " + id));
         optimization.setActive(true);
         optimization = repository.save(optimization);
+        index.refresh();
 
         return mapper.toDto(optimization);
     }
@@ -45,6 +48,7 @@ public class OptimizationServiceImpl implements OptimizationService {
                 .orElseThrow(() -> new EntityNotFoundException("Entity not found, id: " + id));
         optimization.setActive(false);
         optimization = repository.save(optimization);
+        index.refresh();
 
         return mapper.toDto(optimization);
     }
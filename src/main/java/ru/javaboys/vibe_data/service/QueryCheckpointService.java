@@ -0,0 +1,142 @@
+package ru.javaboys.vibe_data.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Чекпоинты шагов оптимизации: по одной строке на (задача, queryid) в query_checkpoint.
+ *
+ * Шаг помечается RUNNING при запуске, DONE — с ответом LLM и расходом токенов, FAILED — с ошибкой.
+ * Если узел упал посреди задачи, очередь отдаёт её другому узлу, и агент по DONE-чекпоинтам
+ * восстанавливает готовые шаги без повторных вызовов LLM: теряется только то, что было в работе.
+ * Ошибка записи чекпоинта не должна валить задачу, поэтому она только логируется.
+ *
+ * Каждый чекпоинт фиксируется в своей транзакции: агент работает внутри транзакции обработки задачи,
+ * и при падении узла её откат не должен уносить уже завершённые шаги.
+ */
+@Slf4j
+@Service
+public class QueryCheckpointService {
+
+    public enum Status { RUNNING, DONE, FAILED }
+
+    /**
+     * @param queryId        queryid представителя группы
+     * @param rewrittenQuery переписанный запрос представителя (может быть null)
+     * @param ddlChanges     изменения DDL шага
+     */
+    public record Checkpoint(String queryId,
+                             Status status,
+                             String rewrittenQuery,
+                             List<String> ddlChanges,
+                             long promptTokens,
+                             long completionTokens) {}
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO query_checkpoint (id, created_at, updated_at, task_id, query_id, status,
+                                          rewritten_query, ddl_changes, error, prompt_tokens, completion_tokens)
+            VALUES (?, now(), now(), ?, ?, ?, ?, CAST(? AS jsonb), ?, ?, ?)
+            ON CONFLICT (task_id, query_id) DO UPDATE
+               SET status = EXCLUDED.status,
+                   rewritten_query = EXCLUDED.rewritten_query,
+                   ddl_changes = EXCLUDED.ddl_changes,
+                   error = EXCLUDED.error,
+                   prompt_tokens = query_checkpoint.prompt_tokens + EXCLUDED.prompt_tokens,
+                   completion_tokens = query_checkpoint.completion_tokens + EXCLUDED.completion_tokens,
+                   updated_at = now()
+            """;
+
+    private static final String LOAD_SQL = """
+            SELECT query_id, status, rewritten_query, ddl_changes, prompt_tokens, completion_tokens
+              FROM query_checkpoint
+             WHERE task_id = ?
+             ORDER BY created_at
+            """;
+
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {};
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate ownTransaction;
+
+    public QueryCheckpointService(@Qualifier("jdbcTemplate") JdbcTemplate jdbcTemplate,
+                                  ObjectMapper objectMapper,
+                                  PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.ownTransaction = new TransactionTemplate(transactionManager);
+        this.ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public void running(UUID taskId, String queryId) {
+        save(taskId, queryId, Status.RUNNING, null, null, null, 0, 0);
+    }
+
+    public void done(UUID taskId, String queryId, String rewrittenQuery, List<String> ddlChanges,
+                     long promptTokens, long completionTokens) {
+        save(taskId, queryId, Status.DONE, rewrittenQuery, ddlChanges, null, promptTokens, completionTokens);
+    }
+
+    public void failed(UUID taskId, String queryId, String error, long promptTokens, long completionTokens) {
+        save(taskId, queryId, Status.FAILED, null, null, error, promptTokens, completionTokens);
+    }
+
+    /** Завершённые (DONE) шаги задачи по queryid. */
+    public Map<String, Checkpoint> loadDone(UUID taskId) {
+        Map<String, Checkpoint> done = new LinkedHashMap<>();
+        try {
+            jdbcTemplate.query(LOAD_SQL, rs -> {
+                Status status = Status.valueOf(rs.getString("status"));
+                if (status != Status.DONE) return;
+                List<String> ddlChanges = readList(rs.getString("ddl_changes"));
+                // без DDL шага восстановленное состояние было бы неполным — такой шаг повторяем
+                if (ddlChanges == null) return;
+                done.put(rs.getString("query_id"), new Checkpoint(
+                        rs.getString("query_id"),
+                        status,
+                        rs.getString("rewritten_query"),
+                        ddlChanges,
+                        rs.getLong("prompt_tokens"),
+                        rs.getLong("completion_tokens")));
+            }, taskId);
+        } catch (Exception e) {
+            log.warn("Не удалось прочитать чекпоинты задачи {}: {}", taskId, e.getMessage());
+        }
+        return done;
+    }
+
+    private void save(UUID taskId, String queryId, Status status, String rewrittenQuery, List<String> ddlChanges,
+                      String error, long promptTokens, long completionTokens) {
+        try {
+            String ddlJson = ddlChanges != null ? objectMapper.writeValueAsString(ddlChanges) : null;
+            ownTransaction.executeWithoutResult(tx -> jdbcTemplate.update(UPSERT_SQL,
+                    UUID.randomUUID(), taskId, queryId, status.name(), rewrittenQuery, ddlJson,
+                    error, promptTokens, completionTokens));
+        } catch (Exception e) {
+            log.warn("Не удалось сохранить чекпоинт {} запроса id={} задачи {}: {}", status, queryId, taskId, e.getMessage());
+        }
+    }
+
+    private List<String> readList(String json) {
+        if (json == null) return List.of();
+        try {
+            return objectMapper.readValue(json, STRING_LIST);
+        } catch (JsonProcessingException e) {
+            log.warn("Повреждённый ddl_changes в чекпоинте: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -2,21 +2,15 @@ package ru.javaboys.vibe_data.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.javaboys.vibe_data.agent.QueryOptimizerAgent;
-import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
 import ru.javaboys.vibe_data.domain.Task;
-import ru.javaboys.vibe_data.domain.TaskInput;
 import ru.javaboys.vibe_data.domain.TaskResult;
 import ru.javaboys.vibe_data.domain.TaskStatus;
-import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
-import ru.javaboys.vibe_data.domain.jsonb.TaskInputPayload;
 import ru.javaboys.vibe_data.repository.TaskRepository;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
 
 @Slf4j
@@ -24,10 +18,14 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class TaskProcessor {
 
-    private final TrinoDbService trinoDbService;
+    private final ExplainPrefetcher explainPrefetcher;
     private final TaskRepository taskRepository;
     private final QueryOptimizerAgent optimizerAgent;
 
+    // Упавшая задача остаётся в очереди, пока не исчерпаны попытки: повтор продолжит с чекпоинтов шагов
+    @Value("${task-queue.max-attempts:3}")
+    private int maxAttempts;
+
     @Transactional
     public void processTask(UUID taskId) {
         Task task = taskRepository.findById(taskId).orElse(null);
@@ -40,12 +38,12 @@ public class TaskProcessor {
             return;
         }
 
+        ExplainPrefetcher.Prefetch prefetch = null;
         try {
             log.info("Начинаю обработку задачи {}", taskId);
 
-            Thread.ofPlatform().name("cache-filler").start(() -> {
-                runSqlCacheProcess(task);
-            });
+            // Прогреваем кэш EXPLAIN параллельно с работой агента
+            prefetch = explainPrefetcher.start(task);
 
             TaskResult result = optimizerAgent.optimize(task);
             task.setResult(result);
@@ -54,23 +52,19 @@ public class TaskProcessor {
             taskRepository.save(task);
             log.info("Задача {} успешно обработана", taskId);
         } catch (Exception e) {
-            log.error("Ошибка при обработке задачи {}: {}", taskId, e.getMessage(), e);
-            task.setStatus(TaskStatus.FAILED);
+            int attempts = task.getAttempts() != null ? task.getAttempts() : maxAttempts;
             task.setError(e.getMessage());
+            if (attempts < maxAttempts) {
+                log.error("Ошибка при обработке задачи {} (попытка {} из {}), задача вернётся в очередь: {}",
+                        taskId, attempts, maxAttempts, e.getMessage(), e);
+            } else {
+                log.error("Ошибка при обработке задачи {}: {}", taskId, e.getMessage(), e);
+                task.setStatus(TaskStatus.FAILED);
+            }
             taskRepository.save(task);
-        }
-    }
-
-    private void runSqlCacheProcess(Task task) {
-        List<QueryInput> queries = Optional.ofNullable(task.getInput())
-                .map(TaskInput::getPayload)
-                .map(TaskInputPayload::getQueries)
-                .orElseGet(Collections::emptyList);
-        for (QueryInput query : queries) {
-            String sql = query.getQuery();
-            for (TrinoExplainType type : TrinoExplainType.values()) {
-                // Прогреваем кэш
-                trinoDbService.explain(sql, type);
+        } finally {
+            if (prefetch != null) {
+                prefetch.cancel();
             }
         }
     }
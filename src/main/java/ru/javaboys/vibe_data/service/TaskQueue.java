@@ -0,0 +1,136 @@
+package ru.javaboys.vibe_data.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Долговременная очередь задач поверх таблицы tasks.
+ *
+ * Задача в статусе RUNNING без действующей аренды (lease_until пуст или истёк) считается свободной.
+ * Узел забирает свободные задачи через FOR UPDATE SKIP LOCKED, поэтому несколько инстансов
+ * не мешают друг другу, и продлевает аренду heartbeat'ами, пока обрабатывает задачу.
+ * Если узел упал, аренда истекает и задачу подхватывает любой другой узел.
+ */
+@Slf4j
+@Service
+public class TaskQueue {
+
+    private static final String CLAIM_SQL = """
+            UPDATE tasks t
+               SET lease_owner = ?,
+                   lease_until = now() + make_interval(secs => ?),
+                   heartbeat_at = now(),
+                   attempts = t.attempts + 1
+             WHERE t.id IN (
+                   SELECT id FROM tasks
+                    WHERE status = 'RUNNING'
+                      AND (lease_until IS NULL OR lease_until < now())
+                    ORDER BY created_at
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED)
+            RETURNING t.id
+            """;
+
+    private static final String HEARTBEAT_SQL = """
+            UPDATE tasks
+               SET lease_until = now() + make_interval(secs => ?),
+                   heartbeat_at = now()
+             WHERE id = ? AND lease_owner = ? AND status = 'RUNNING'
+            """;
+
+    // задача, оставшаяся в RUNNING, снова станет свободной через backoff * 2^(attempts - 1)
+    private static final String RELEASE_SQL = """
+            UPDATE tasks
+               SET lease_owner = NULL,
+                   lease_until = CASE WHEN status = 'RUNNING' AND ? > 0
+                                      THEN now() + make_interval(secs => ? * power(2, LEAST(GREATEST(attempts - 1, 0), 10)))
+                                 END
+             WHERE id = ? AND lease_owner = ?
+            """;
+
+    private static final String FAIL_EXHAUSTED_SQL = """
+            UPDATE tasks
+               SET status = 'FAILED', error = ?, lease_owner = NULL, lease_until = NULL, updated_at = now()
+             WHERE status = 'RUNNING'
+               AND attempts >= ?
+               AND (lease_until IS NULL OR lease_until < now())
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TaskQueue(@Qualifier("jdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Забирает до limit свободных задач (старые — первыми) и выдаёт на них аренду узлу owner.
+     */
+    public List<UUID> claim(String owner, int limit, Duration lease) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        return jdbcTemplate.queryForList(CLAIM_SQL, UUID.class, owner, seconds(lease), limit);
+    }
+
+    /**
+     * Продлевает аренду задач узла. Возвращает число задач, аренда которых всё ещё принадлежит узлу.
+     */
+    public int heartbeat(String owner, Collection<UUID> taskIds, Duration lease) {
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+        double secs = seconds(lease);
+        int[][] counts = jdbcTemplate.batchUpdate(HEARTBEAT_SQL, taskIds, taskIds.size(), (ps, id) -> {
+            ps.setDouble(1, secs);
+            ps.setObject(2, id);
+            ps.setString(3, owner);
+        });
+        int renewed = 0;
+        for (int[] batch : counts) {
+            for (int c : batch) {
+                renewed += Math.max(c, 0);
+            }
+        }
+        return renewed;
+    }
+
+    /**
+     * Снимает аренду, не обработав задачу (например, пул переполнен): задача сразу снова доступна.
+     */
+    public void release(String owner, UUID taskId) {
+        release(owner, taskId, Duration.ZERO);
+    }
+
+    /**
+     * Снимает аренду после обработки. Если задача осталась в RUNNING (например, упала запись результата),
+     * повторная попытка откладывается на retryBackoff, удваиваясь с каждой попыткой, —
+     * иначе упавшую задачу тут же заберёт следующий опрос.
+     */
+    public void release(String owner, UUID taskId, Duration retryBackoff) {
+        double secs = seconds(retryBackoff);
+        jdbcTemplate.update(RELEASE_SQL, secs, secs, taskId, owner);
+    }
+
+    /**
+     * Переводит в FAILED задачи, которые уже maxAttempts раз забирались и снова остались без аренды.
+     */
+    public int failExhausted(int maxAttempts) {
+        int failed = jdbcTemplate.update(FAIL_EXHAUSTED_SQL,
+                "Превышено число попыток обработки (" + maxAttempts + ")", maxAttempts);
+        if (failed > 0) {
+            log.warn("Помечено FAILED задач с исчерпанными попытками: {}", failed);
+        }
+        return failed;
+    }
+
+    private static double seconds(Duration d) {
+        return d.toMillis() / 1000.0;
+    }
+}
@@ -0,0 +1,175 @@
+package ru.javaboys.vibe_data.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновый опрос очереди задач: забирает свободные задачи в пределах своих слотов,
+ * отдаёт их в taskExecutor и продлевает аренду, пока задачи в работе.
+ * Создание задачи и завершение обработки будят цикл, чтобы не ждать очередного опроса.
+ */
+@Slf4j
+@Service
+public class TaskQueueWorker {
+
+    private final TaskQueue taskQueue;
+    private final TaskProcessor taskProcessor;
+    private final Executor taskExecutor;
+
+    private final String nodeId;
+    private final int concurrency;
+    private final Duration leaseDuration;
+    private final Duration heartbeatInterval;
+    private final Duration pollInterval;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+
+    private final Set<UUID> active = ConcurrentHashMap.newKeySet();
+    private final Semaphore wakeups = new Semaphore(0);
+
+    private Thread worker;
+    private volatile boolean running = false;
+
+    public TaskQueueWorker(
+            TaskQueue taskQueue,
+            TaskProcessor taskProcessor,
+            @Qualifier("taskExecutor") Executor taskExecutor,
+            @Value("${task-queue.node-id:}") String nodeId,
+            @Value("${task-queue.concurrency:4}") int concurrency,
+            @Value("${task-queue.lease-duration:60s}") Duration leaseDuration,
+            @Value("${task-queue.heartbeat-interval:15s}") Duration heartbeatInterval,
+            @Value("${task-queue.poll-interval:2s}") Duration pollInterval,
+            @Value("${task-queue.max-attempts:3}") int maxAttempts,
+            @Value("${task-queue.retry-backoff:30s}") Duration retryBackoff
+    ) {
+        this.taskQueue = taskQueue;
+        this.taskProcessor = taskProcessor;
+        this.taskExecutor = taskExecutor;
+        this.nodeId = nodeId == null || nodeId.isBlank() ? defaultNodeId() : nodeId;
+        this.concurrency = Math.max(1, concurrency);
+        this.leaseDuration = leaseDuration;
+        this.heartbeatInterval = heartbeatInterval;
+        this.pollInterval = pollInterval;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoff = retryBackoff;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "task-queue-worker");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("Очередь задач запущена: узел={}, слотов={}, аренда={}", nodeId, concurrency, leaseDuration);
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Аренду не снимаем: задачи, которые ещё выполняются, дорабатывают,
+        // а после остановки узла аренда истечёт и их заберёт другой инстанс
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try { worker.join(Duration.ofSeconds(2).toMillis()); } catch (InterruptedException ignored) {}
+        }
+    }
+
+    /**
+     * Будит цикл опроса раньше очередного интервала.
+     */
+    public void wakeUp() {
+        wakeups.release();
+    }
+
+    private void runLoop() {
+        long lastHeartbeatNs = System.nanoTime();
+        while (running) {
+            try {
+                if (System.nanoTime() - lastHeartbeatNs >= heartbeatInterval.toNanos()) {
+                    renewLeases();
+                    lastHeartbeatNs = System.nanoTime();
+                }
+                int free = concurrency - active.size();
+                if (free > 0) {
+                    taskQueue.failExhausted(maxAttempts);
+                    List<UUID> claimed = taskQueue.claim(nodeId, free, leaseDuration);
+                    for (UUID id : claimed) {
+                        dispatch(id);
+                    }
+                }
+            } catch (Throwable t) {
+                log.warn("Ошибка опроса очереди задач: {}", t.toString());
+            }
+            try {
+                wakeups.tryAcquire(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+            } catch (InterruptedException e) {
+                // shutdown or spurious
+            }
+        }
+    }
+
+    private void dispatch(UUID taskId) {
+        active.add(taskId);
+        try {
+            taskExecutor.execute(() -> process(taskId));
+            log.info("Задача {} взята в работу узлом {}", taskId, nodeId);
+        } catch (RejectedExecutionException e) {
+            log.warn("Пул задач переполнен, задача {} возвращена в очередь", taskId);
+            active.remove(taskId);
+            taskQueue.release(nodeId, taskId);
+        }
+    }
+
+    private void process(UUID taskId) {
+        try {
+            taskProcessor.processTask(taskId);
+        } catch (Exception e) {
+            log.error("Обработка задачи id={} завершилась ошибкой: {}", taskId, e.getMessage(), e);
+        } finally {
+            try {
+                taskQueue.release(nodeId, taskId, retryBackoff);
+            } catch (Exception e) {
+                log.warn("Не удалось снять аренду задачи {}: {}", taskId, e.toString());
+            }
+            active.remove(taskId);
+            wakeUp();
+        }
+    }
+
+    private void renewLeases() {
+        if (active.isEmpty()) {
+            return;
+        }
+        List<UUID> ids = List.copyOf(active);
+        int renewed = taskQueue.heartbeat(nodeId, ids, leaseDuration);
+        if (renewed < ids.size()) {
+            log.warn("Продлено аренд {} из {}: часть задач завершена или перехвачена другим узлом", renewed, ids.size());
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
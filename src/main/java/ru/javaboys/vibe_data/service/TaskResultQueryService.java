@@ -0,0 +1,97 @@
+package ru.javaboys.vibe_data.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.javaboys.vibe_data.domain.jsonb.RewrittenQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Переписанные запросы результата задачи — по строке на запрос в task_result_query.
+ *
+ * Шаг оптимизации дописывает только запросы своей группы, поэтому объём записи за задачу линейный,
+ * а не квадратичный, как при пересохранении всего JSONB-массива task_result.queries на каждом шаге.
+ * Итоговый список собирается при чтении результата.
+ *
+ * Агент работает внутри транзакции обработки задачи, поэтому прогресс шага фиксируется в своей короткой
+ * транзакции: иначе строки оставались бы незафиксированными до конца задачи, итоговый {@link #replace}
+ * в отдельной транзакции ждал бы их блокировок, а ошибка SQL обрывала бы внешнюю транзакцию.
+ */
+@Slf4j
+@Service
+public class TaskResultQueryService {
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO task_result_query (id, created_at, updated_at, task_id, queryid, position, query)
+            VALUES (?, now(), now(), ?, ?, ?, ?)
+            ON CONFLICT (task_id, queryid) DO UPDATE
+               SET position = EXCLUDED.position,
+                   query = EXCLUDED.query,
+                   updated_at = now()
+            """;
+
+    private static final String DELETE_SQL = "DELETE FROM task_result_query WHERE task_id = ?";
+
+    private static final String LOAD_SQL = """
+            SELECT queryid, query
+              FROM task_result_query
+             WHERE task_id = ?
+             ORDER BY position, queryid
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate ownTransaction;
+
+    public TaskResultQueryService(@Qualifier("jdbcTemplate") JdbcTemplate jdbcTemplate,
+                                  PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ownTransaction = new TransactionTemplate(transactionManager);
+        this.ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Промежуточный прогресс: дописывает запросы одного шага и сразу фиксирует их. Ошибка только
+     * логируется — итоговый результат всё равно записывается целиком через {@link #replace}.
+     *
+     * @param position позиция шага в порядке сортировки по весу
+     */
+    public void append(UUID taskId, int position, List<RewrittenQuery> queries) {
+        if (queries == null || queries.isEmpty()) return;
+        try {
+            ownTransaction.executeWithoutResult(status -> upsert(taskId, queries, position, false));
+        } catch (Exception e) {
+            log.warn("Не удалось сохранить прогресс задачи {} ({} запросов): {}", taskId, queries.size(), e.getMessage());
+        }
+    }
+
+    /** Итоговый список запросов: заменяет промежуточный прогресс в исходном порядке. */
+    public void replace(UUID taskId, List<RewrittenQuery> queries) {
+        jdbcTemplate.update(DELETE_SQL, taskId);
+        if (queries != null && !queries.isEmpty()) {
+            upsert(taskId, queries, 0, true);
+        }
+    }
+
+    public List<RewrittenQuery> load(UUID taskId) {
+        return jdbcTemplate.query(LOAD_SQL, (rs, n) -> RewrittenQuery.builder()
+                .queryid(rs.getString("queryid"))
+                .query(rs.getString("query"))
+                .build(), taskId);
+    }
+
+    private void upsert(UUID taskId, List<RewrittenQuery> queries, int position, boolean ordinal) {
+        List<Object[]> args = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            RewrittenQuery q = queries.get(i);
+            args.add(new Object[]{UUID.randomUUID(), taskId, q.getQueryid(), ordinal ? position + i : position, q.getQuery()});
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SQL, args);
+    }
+}
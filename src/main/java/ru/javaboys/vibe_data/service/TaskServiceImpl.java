@@ -2,6 +2,7 @@ package ru.javaboys.vibe_data.service;
 
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 
+import java.util.List;
 import java.util.UUID;
 
 import org.springframework.context.ApplicationEventPublisher;
@@ -17,6 +18,7 @@ import ru.javaboys.vibe_data.domain.Task;
 import ru.javaboys.vibe_data.domain.TaskInput;
 import ru.javaboys.vibe_data.domain.TaskResult;
 import ru.javaboys.vibe_data.domain.TaskStatus;
+import ru.javaboys.vibe_data.domain.jsonb.RewrittenQuery;
 import ru.javaboys.vibe_data.event.TaskCreatedEvent;
 import ru.javaboys.vibe_data.mapper.TaskInputPayloadMapper;
 import ru.javaboys.vibe_data.mapper.TaskResultMapper;
@@ -31,6 +33,7 @@ public class TaskServiceImpl implements TaskService {
     private final TaskRepository taskRepository;
     private final TaskInputPayloadMapper taskInputPayloadMapper;
     private final TaskResultMapper taskResultMapper;
+    private final TaskResultQueryService taskResultQueries;
     private final ApplicationEventPublisher events;
 
     @Override
@@ -89,6 +92,11 @@ public class TaskServiceImpl implements TaskService {
             throw new ResponseStatusException(NOT_FOUND, "Результат не найден");
         }
         ResultResponseDto dto = taskResultMapper.toDto(result);
+        // запросы хранятся построчно в task_result_query; у результатов, сохранённых раньше, — в JSONB task_result
+        List<RewrittenQuery> queries = taskResultQueries.load(taskId);
+        if (!queries.isEmpty()) {
+            dto.setQueries(taskResultMapper.toRewrittenQueryDtoList(queries));
+        }
         log.info("Результат для задачи id={} получен и подготовлен к выдаче", taskId);
         return dto;
     }
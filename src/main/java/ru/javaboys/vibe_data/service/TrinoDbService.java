@@ -1,10 +1,17 @@
 package ru.javaboys.vibe_data.service;
 
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
@@ -16,16 +23,67 @@ import ru.javaboys.vibe_data.dto.TrinoResponse;
 public class TrinoDbService {
     private static final String SQL_FORMAT_1 = "EXPLAIN (TYPE %s, FORMAT JSON) %s";
     private static final String SQL_FORMAT_2 = "EXPLAIN %s %s";
-    private static final String CACHE_NAME = "trino-db-explain-cache";
+    public static final String CACHE_NAME = "trino-db-explain-cache";
 
     private final JdbcTemplate trinoJdbcTemplate;
+    private final CacheKeyUtils cacheKeyUtils;
+    private final CacheManager cacheManager;
+
+    // Выполняющиеся сейчас EXPLAIN: одинаковые запросы (прогрев кэша и tool calls LLM) ждут один результат
+    private final ConcurrentMap<List<Object>, CompletableFuture<TrinoResponse>> inFlight = new ConcurrentHashMap<>();
 
-    @Cacheable(
-            value = CACHE_NAME,
-            key = "{@CacheKeyUtils.normalize(#sql), #type}",
-            unless = "#result == null || #result.response == null"
-    )
+    /**
+     * План запроса из кэша или из Trino. Одинаковые запросы, пришедшие одновременно, объединяются
+     * до обращения к кэшу: EXPLAIN выполняется один раз, результат кладётся в кэш один раз и до того,
+     * как запрос перестаёт считаться выполняющимся. Ошибки не кэшируются.
+     */
     public TrinoResponse explain(String sql, TrinoExplainType type) {
+        // ключ в том же виде, что давал {@CacheKeyUtils.normalize(#sql), #type}: записи в Redis остаются валидными
+        List<Object> key = List.of(cacheKeyUtils.normalize(sql), type);
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        TrinoResponse cached = cached(cache, key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<TrinoResponse> own = new CompletableFuture<>();
+        CompletableFuture<TrinoResponse> existing = inFlight.putIfAbsent(key, own);
+        if (existing != null) {
+            log.info("Joining in-flight explain request for type: {}", type);
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException re) {
+                    throw re;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            // пока проверяли кэш, предыдущий владелец мог успеть записать результат
+            TrinoResponse response = cached(cache, key);
+            if (response == null) {
+                response = executeExplain(sql, type);
+                if (cache != null && response.getResponse() != null) {
+                    cache.put(key, response);
+                }
+            }
+            own.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private static TrinoResponse cached(Cache cache, List<Object> key) {
+        return cache == null ? null : cache.get(key, TrinoResponse.class);
+    }
+
+    private TrinoResponse executeExplain(String sql, TrinoExplainType type) {
         log.info("Executing explain request for type: {} and SQL: {}", type, sql);
         try {
             String explain = requestExplainInJsonInternal(sql, type);
@@ -0,0 +1,105 @@
+package ru.javaboys.vibe_data.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Неизменяемый инвертированный индекс с ранжированием Okapi BM25 (k1 = 1.2, b = 0.75) по небольшому
+ * набору текстов. Термы — последовательности букв и цифр в нижнем регистре; подчёркивание разделяет термы,
+ * поэтому snake_case-идентификаторы из SQL совпадают со словами текста. Вместо морфологии слова длиннее
+ * {@value #STEM_LENGTH} символов обрезаются до префикса: «партиционирование» и «партиционированию»,
+ * partition и partitioning дают один терм.
+ */
+public final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int STEM_LENGTH = 6;
+    private static final int MIN_TERM_LENGTH = 2;
+
+    // терм -> документы и частоты терма в них
+    private final Map<String, int[][]> postings;
+    private final int[] docLengths;
+    private final double avgDocLength;
+
+    public Bm25Index(List<String> documents) {
+        Map<String, Map<Integer, Integer>> tf = new HashMap<>();
+        docLengths = new int[documents.size()];
+        long total = 0;
+        for (int d = 0; d < documents.size(); d++) {
+            List<String> terms = terms(documents.get(d));
+            docLengths[d] = terms.size();
+            total += terms.size();
+            for (String term : terms) {
+                tf.computeIfAbsent(term, t -> new HashMap<>()).merge(d, 1, Integer::sum);
+            }
+        }
+        avgDocLength = documents.isEmpty() ? 0 : Math.max(1.0, (double) total / documents.size());
+        postings = new HashMap<>(tf.size() * 2);
+        tf.forEach((term, byDoc) -> {
+            int[] docs = new int[byDoc.size()];
+            int[] freqs = new int[byDoc.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> e : byDoc.entrySet()) {
+                docs[i] = e.getKey();
+                freqs[i++] = e.getValue();
+            }
+            postings.put(term, new int[][]{docs, freqs});
+        });
+    }
+
+    public int size() {
+        return docLengths.length;
+    }
+
+    /**
+     * До k документов с положительной оценкой по убыванию релевантности; при равной оценке раньше идёт
+     * документ с меньшим номером. Повторы термов запроса не усиливают его вес.
+     */
+    public List<Integer> top(Collection<String> queryTerms, int k) {
+        double[] scores = new double[docLengths.length];
+        Set<String> unique = new LinkedHashSet<>(queryTerms);
+        for (String term : unique) {
+            int[][] posting = postings.get(term);
+            if (posting == null) continue;
+            int[] docs = posting[0];
+            int[] freqs = posting[1];
+            double idf = Math.log(1 + (docLengths.length - docs.length + 0.5) / (docs.length + 0.5));
+            for (int i = 0; i < docs.length; i++) {
+                double f = freqs[i];
+                double norm = K1 * (1 - B + B * docLengths[docs[i]] / avgDocLength);
+                scores[docs[i]] += idf * f * (K1 + 1) / (f + norm);
+            }
+        }
+        List<Integer> ranked = new ArrayList<>();
+        for (int d = 0; d < scores.length; d++) {
+            if (scores[d] > 0) ranked.add(d);
+        }
+        ranked.sort(Comparator.<Integer>comparingDouble(d -> -scores[d]).thenComparingInt(d -> d));
+        return ranked.size() > k ? ranked.subList(0, k) : ranked;
+    }
+
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) i++;
+            int len = i - start;
+            if (len >= MIN_TERM_LENGTH) {
+                terms.add(text.substring(start, start + Math.min(len, STEM_LENGTH)).toLowerCase(Locale.ROOT));
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,42 @@
+package ru.javaboys.vibe_data.util;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PriorityBlockingQueue} that refuses offers beyond a fixed capacity, so a
+ * {@link java.util.concurrent.ThreadPoolExecutor} on top of it rejects work instead of growing without bound.
+ * Elements must be mutually {@link Comparable}.
+ */
+public class BoundedPriorityBlockingQueue<E> extends PriorityBlockingQueue<E> {
+
+    private final int capacity;
+
+    public BoundedPriorityBlockingQueue(int capacity) {
+        super(Math.max(1, Math.min(capacity, 1024)));
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // only offers grow the queue, so serializing them is enough to respect the capacity
+    @Override
+    public synchronized boolean offer(E e) {
+        return size() < capacity && super.offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public void put(E e) {
+        if (!offer(e)) {
+            throw new IllegalStateException("Queue full");
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+}
@@ -0,0 +1,99 @@
+package ru.javaboys.vibe_data.util;
+
+/**
+ * Потоковый MurmurHash3 x64 128 бит: данные подаются по символу, промежуточный буфер не нужен.
+ * Результат совпадает с эталонной реализацией для той же последовательности байтов
+ * (символ подаётся двумя байтами, младший первым). Экземпляр одноразовый и не потокобезопасный.
+ */
+public final class Murmur3Hash128 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private long h1;
+    private long h2;
+    private long k1;
+    private long k2;
+    // байтов в текущем 16-байтовом блоке и всего
+    private int blockBytes;
+    private long length;
+
+    public Murmur3Hash128() {
+        this(0);
+    }
+
+    public Murmur3Hash128(long seed) {
+        this.h1 = seed;
+        this.h2 = seed;
+    }
+
+    public Murmur3Hash128 putByte(int b) {
+        long v = b & 0xFFL;
+        if (blockBytes < 8) {
+            k1 |= v << (8 * blockBytes);
+        } else {
+            k2 |= v << (8 * (blockBytes - 8));
+        }
+        length++;
+        if (++blockBytes == 16) {
+            mixBlock();
+        }
+        return this;
+    }
+
+    public Murmur3Hash128 putChar(char c) {
+        putByte(c);
+        return putByte(c >>> 8);
+    }
+
+    /** Два 64-битных слова хэша: [h1, h2]. */
+    public long[] finish() {
+        if (blockBytes > 0) {
+            h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+            h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    /** Хэш в виде 32 шестнадцатеричных символов (h1, затем h2, старшие разряды первыми). */
+    public String finishHex() {
+        long[] h = finish();
+        char[] out = new char[32];
+        for (int w = 0; w < 2; w++) {
+            for (int i = 0; i < 16; i++) {
+                out[w * 16 + i] = HEX[(int) (h[w] >>> (60 - 4 * i)) & 0xF];
+            }
+        }
+        return new String(out);
+    }
+
+    private void mixBlock() {
+        h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        h1 = Long.rotateLeft(h1, 27) + h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+        h2 = Long.rotateLeft(h2, 31) + h1;
+        h2 = h2 * 5 + 0x38495ab5;
+        k1 = 0;
+        k2 = 0;
+        blockBytes = 0;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,133 @@
+package ru.javaboys.vibe_data.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Лексер SQL (диалект Trino) за один проход: слова, идентификаторы в кавычках, строковые и числовые
+ * литералы, символы. Комментарии и пробелы пропускаются. Позиции токенов указывают на исходный текст,
+ * поэтому по ним можно точечно заменять литералы, не трогая остальной запрос.
+ */
+public final class SqlTokenizer {
+
+    public enum Type {
+        /** Ключевое слово или идентификатор без кавычек. */
+        WORD,
+        /** Идентификатор в двойных кавычках. */
+        QUOTED,
+        /** Строковый литерал в одинарных кавычках ('' внутри — экранированная кавычка). */
+        STRING,
+        /** Числовой литерал: 10, 1.5, .5, 1e-3. */
+        NUMBER,
+        /** Оператор или пунктуация: (, ), ",", <=, ||, ... */
+        SYMBOL
+    }
+
+    public record Token(Type type, String text, int start, int end) {
+        public boolean isLiteral() {
+            return type == Type.STRING || type == Type.NUMBER;
+        }
+    }
+
+    /** Приёмник токенов для {@link #scan}: только тип и границы, без копирования текста. */
+    @FunctionalInterface
+    public interface TokenSink {
+        void token(Type type, int start, int end);
+    }
+
+    private SqlTokenizer() {
+    }
+
+    public static List<Token> tokenize(String sql) {
+        List<Token> tokens = new ArrayList<>();
+        if (sql == null) {
+            return tokens;
+        }
+        scan(sql, (type, start, end) -> tokens.add(new Token(type, sql.substring(start, end), start, end)));
+        return tokens;
+    }
+
+    /** Тот же разбор, что и {@link #tokenize}, но без выделения памяти на токены. */
+    public static void scan(String sql, TokenSink sink) {
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                while (i < n && sql.charAt(i) != '\n' && sql.charAt(i) != '\r') i++;
+            } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? n : close + 2;
+            } else if (c == '\'') {
+                int end = quotedEnd(sql, i, '\'');
+                sink.token(Type.STRING, i, end);
+                i = end;
+            } else if (c == '"') {
+                int end = quotedEnd(sql, i, '"');
+                sink.token(Type.QUOTED, i, end);
+                i = end;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(sql.charAt(i + 1)))) {
+                int end = numberEnd(sql, i);
+                sink.token(Type.NUMBER, i, end);
+                i = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = i + 1;
+                while (end < n && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_' || sql.charAt(end) == '$')) end++;
+                sink.token(Type.WORD, i, end);
+                i = end;
+            } else {
+                int len = i + 1 < n && isTwoCharSymbol(c, sql.charAt(i + 1)) ? 2 : 1;
+                sink.token(Type.SYMBOL, i, i + len);
+                i += len;
+            }
+        }
+    }
+
+    // <=, >=, <>, !=, ||, ->, =>
+    private static boolean isTwoCharSymbol(char a, char b) {
+        return switch (a) {
+            case '<' -> b == '=' || b == '>';
+            case '>', '!' -> b == '=';
+            case '|' -> b == '|';
+            case '-', '=' -> b == '>';
+            default -> false;
+        };
+    }
+
+    // Закрывающая кавычка; удвоенная кавычка — экранирование. Незакрытый литерал тянется до конца текста
+    private static int quotedEnd(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return sql.length();
+    }
+
+    private static int numberEnd(String sql, int start) {
+        int n = sql.length();
+        int i = start;
+        while (i < n && Character.isDigit(sql.charAt(i))) i++;
+        if (i < n && sql.charAt(i) == '.') {
+            i++;
+            while (i < n && Character.isDigit(sql.charAt(i))) i++;
+        }
+        if (i < n && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int j = i + 1;
+            if (j < n && (sql.charAt(j) == '+' || sql.charAt(j) == '-')) j++;
+            if (j < n && Character.isDigit(sql.charAt(j))) {
+                i = j;
+                while (i < n && Character.isDigit(sql.charAt(i))) i++;
+            }
+        }
+        return i;
+    }
+}
@@ -3,6 +3,7 @@ package ru.javaboys.vibe_data.validator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -16,6 +17,8 @@ import ru.javaboys.vibe_data.llm.LlmRequest;
 import ru.javaboys.vibe_data.llm.LlmService;
 import ru.javaboys.vibe_data.validator.dto.SqlFile;
 import ru.javaboys.vibe_data.validator.dto.ValidationModels;
+import ru.javaboys.vibe_data.validator.util.ResultComparator;
+import ru.javaboys.vibe_data.validator.util.ResultFingerprint;
 import ru.javaboys.vibe_data.agent.PromptTemplates;
 import ru.javaboys.vibe_data.dto.AutoFixOutput;
 import ru.javaboys.vibe_data.dto.ValidationPatch;
@@ -25,7 +28,10 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -33,6 +39,11 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -50,13 +61,14 @@ import java.util.stream.Collectors;
  * 6) применяем миграции
  * 7) выполняем новые SQL-запросы → собираем результаты
  * 8) сравниваем результаты из (3) и (7)
+ * Шаги (3) и (4-5) в параллельном режиме выполняются одновременно, если новый DDL не трогает
+ * схемы старого (иначе — последовательно); запросы внутри (3) и (7) идут через общий ограниченный пул.
  */
 @Slf4j
 @Service
 public class DdlSqlValidator {
 
     private static final Set<String> RESERVED = Set.of("year", "month");
-    private final Map<String, Object> stageState = new HashMap<>();
     private static final int SAMPLE_LIMIT = 50;
 
     private final JdbcTemplate localTrino;
@@ -67,11 +79,61 @@ public class DdlSqlValidator {
     @Value("${validation.max-attempts}")
     private int maxValidationAttempts;
 
+    // Сколько строк выборки пишется одним INSERT ... VALUES (каждый INSERT в Iceberg — отдельный снапшот и файл)
+    @Value("${validation.sample.insert-batch-size:500}")
+    private int sampleInsertBatchSize;
+
+    // Независимые стадии (RUN_OLD_SQL и DEPLOY_NEW_DDL) и запросы внутри стадии выполняются параллельно
+    @Value("${validation.parallel.enabled:true}")
+    private boolean parallelEnabled;
+
+    // COMPARE: результаты не держим в памяти, а сворачиваем в отпечатки по мере чтения строк
+    @Value("${validation.compare.tolerance-pct:0.01}")
+    private double compareTolerancePct;
+
+    @Value("${validation.compare.max-diffs:20}")
+    private int compareMaxDiffs;
+
+    @Value("${validation.compare.sketch-size:64}")
+    private int compareSketchSize;
+
+    @Value("${validation.compare.fail-on-diff:true}")
+    private boolean compareFailOnDiff;
+
     private final LlmService llmService;
 
-    public DdlSqlValidator(@Qualifier("trinoLocalJdbcTemplate") JdbcTemplate localTrino, LlmService llmService) {
+    // Общий ограниченный пул для запросов на локальном Trino (на все одновременные прогоны)
+    private final AsyncTaskExecutor queryExecutor;
+
+    public DdlSqlValidator(@Qualifier("trinoLocalJdbcTemplate") JdbcTemplate localTrino,
+                           LlmService llmService,
+                           @Qualifier("validationQueryExecutor") AsyncTaskExecutor queryExecutor) {
         this.localTrino = localTrino;
         this.llmService = llmService;
+        this.queryExecutor = queryExecutor;
+    }
+
+    /**
+     * Состояние одного прогона валидации. Сервис — синглтон, поэтому всё, что относится
+     * к прогону, живёт здесь, а не в полях: параллельные задачи не видят данных друг друга.
+     */
+    private static final class RunState {
+        final List<ValidationModels.StageResult> stages = new ArrayList<>();
+        final List<ValidationModels.ValidationError> errors = new ArrayList<>();
+        List<String> createdOldTables = List.of();
+        List<QueryResult> oldResults = List.of();
+        List<QueryResult> newResults = List.of();
+        ComparisonReport comparison;
+
+        boolean failed() {
+            return !stages.isEmpty() && stages.get(stages.size() - 1).getStatus() == ValidationModels.StageStatus.ERROR;
+        }
+
+        /** Переносит стадии и ошибки параллельной ветки в общий отчёт (в порядке вызова — детерминированно). */
+        void merge(RunState branch) {
+            stages.addAll(branch.stages);
+            errors.addAll(branch.errors);
+        }
     }
 
     /**
@@ -89,14 +151,16 @@ public class DdlSqlValidator {
         final List<String> originalQueryIds = payload.getQueries() == null
                 ? List.of()
                 : payload.getQueries().stream().map(QueryInput::getQueryid).toList();
+        // агент отдаёт запросы в порядке шагов (по весу); LLM-автофикс и сопоставление по позиции ждут порядок payload
+        finalQueries = inPayloadOrder(finalQueries, originalQueryIds);
 
         ValidationModels.ValidationRequest vreq = ValidationModels.ValidationRequest.builder()
                 .prodTrinoJdbcUrl(payload.getUrl())
                 .oldDdl(toSqlFiles(payload.getDdl().stream().map(DdlStatement::getStatement).toList()))
-                .oldSql(toSqlFiles(payload.getQueries().stream().map(QueryInput::getQuery).toList()))
+                .oldSql(toQueryFiles(payload.getQueries()))
                 .newDdl(toSqlFilesFromBlocks(finalDdl))
                 .migrations(toSqlFilesFromBlocks(migrations))
-                .newSql(toSqlFiles(finalQueries.stream().map(RewrittenQuery::getQuery).toList()))
+                .newSql(toRewrittenFiles(finalQueries))
                 .build();
 
         ValidationModels.ValidationReport vrep = null;
@@ -121,16 +185,18 @@ public class DdlSqlValidator {
                         migrations = toSqlBlocks(patch.getMigrations());
                     }
                     if (patch.getNewSql() != null && !patch.getNewSql().isEmpty()) {
-                        finalQueries = mapSqlToRewrittenWithIds(patch.getNewSql(), originalQueryIds);
+                        // NEW_SQL[i] в промпте — finalQueries.get(i), поэтому id берём из того же списка
+                        List<String> sentIds = finalQueries.stream().map(RewrittenQuery::getQueryid).toList();
+                        finalQueries = inPayloadOrder(mapSqlToRewrittenWithIds(patch.getNewSql(), sentIds), originalQueryIds);
                     }
 
                     vreq = ValidationModels.ValidationRequest.builder()
                             .prodTrinoJdbcUrl(resolveProdJdbcUrl(task))
                             .oldDdl(toSqlFiles(payload.getDdl().stream().map(DdlStatement::getStatement).toList()))
-                            .oldSql(toSqlFiles(payload.getQueries().stream().map(QueryInput::getQuery).toList()))
+                            .oldSql(toQueryFiles(payload.getQueries()))
                             .newDdl(toSqlFilesFromBlocks(finalDdl))
                             .migrations(toSqlFilesFromBlocks(migrations))
-                            .newSql(toSqlFiles(finalQueries.stream().map(RewrittenQuery::getQuery).toList()))
+                            .newSql(toRewrittenFiles(finalQueries))
                             .build();
 
                     continue; // следующая попытка
@@ -163,13 +229,14 @@ public class DdlSqlValidator {
         Objects.requireNonNull(request, "request is null");
         log.info("Start validation pipeline");
 
-        List<ValidationModels.StageResult> stages = new ArrayList<>();
-        List<ValidationModels.ValidationError> errors = new ArrayList<>();
+        RunState state = new RunState();
 
         String sourceCatalog = detectSourceCatalog(request);
         String localCatalog = resolveLocalCatalog();
 
-        String runSuffix = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss").format(new java.util.Date());
+        // Случайный хвост — чтобы прогоны, стартовавшие в одну секунду, не делили схемы
+        String runSuffix = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss").format(new java.util.Date())
+                + "_" + UUID.randomUUID().toString().substring(0, 4);
         log.info("Run schema suffix: _{}", runSuffix);
 
         ValidationModels.ValidationRequest normalized =
@@ -178,111 +245,179 @@ public class DdlSqlValidator {
         ensureSchemasExist(normalized);
 
         // 1) OLD DDL
-        stageWrap(stages, errors, ValidationModels.StageName.VALIDATE_OLD_DDL, () -> {
-            List<String> createdOldTables = applyDdlOnLocal(normalized.getOldDdl(), errors, ValidationModels.StageName.VALIDATE_OLD_DDL);
-            stageState.put("createdOldTables", createdOldTables);
+        stageWrap(state, ValidationModels.StageName.VALIDATE_OLD_DDL, () -> {
+            List<String> createdOldTables = applyDdlOnLocal(normalized.getOldDdl(), state.errors, ValidationModels.StageName.VALIDATE_OLD_DDL);
+            state.createdOldTables = createdOldTables;
             return "Applied old DDL locally for tables: " + createdOldTables;
         });
-        if (hasErrors(stages)) {
-            return buildReport(stages, errors);
+        if (state.failed()) {
+            return buildReport(state);
         }
 
         // 2) SAMPLE
-        stageWrap(stages, errors, ValidationModels.StageName.SAMPLE, () -> {
-            @SuppressWarnings("unchecked")
-            List<String> createdOldTables =
-                    (List<String>) stageState.getOrDefault("createdOldTables", List.of());
-            if (createdOldTables.isEmpty()) {
+        stageWrap(state, ValidationModels.StageName.SAMPLE, () -> {
+            if (state.createdOldTables.isEmpty()) {
                 log.warn("No createdOldTables found; skipping sample load");
                 return "No tables to load sample for";
             }
             loadDataForTablesFromProdSafe(
                     normalized.getProdTrinoJdbcUrl(),
-                    createdOldTables,
-                    sourceCatalog, localCatalog, runSuffix, errors
+                    state.createdOldTables,
+                    sourceCatalog, localCatalog, runSuffix, state.errors
             );
             return "Loaded sample data (" + SAMPLE_LIMIT + " rows per table) from PROD";
         });
-        if (hasErrors(stages)) {
-            return buildReport(stages, errors);
+        if (state.failed()) {
+            return buildReport(state);
         }
 
-        // 3) RUN OLD SQL
-        stageWrap(stages, errors, ValidationModels.StageName.RUN_OLD_SQL, () -> {
-            List<QueryResult> oldResults = runQueriesOnLocal("OLD", normalized.getOldSql(), ValidationModels.StageName.RUN_OLD_SQL, errors);
-            stageState.put("oldResults", oldResults); // см. private final Map<String,Object> stageState = new HashMap<>();
+        // 3) RUN OLD SQL и 4-5) NEW SCHEMA + NEW DDL не зависят друг от друга, если новый DDL
+        // не трогает старые схемы: тогда обеим нужны только созданные и заполненные старые таблицы.
+        // Миграции ждут обе ветки, чтобы старые запросы гарантированно видели данные до миграций.
+        RunState oldSqlBranch = new RunState();
+        RunState newDdlBranch = new RunState();
+        Runnable runOldSql = () -> stageWrap(oldSqlBranch, ValidationModels.StageName.RUN_OLD_SQL, () -> {
+            List<QueryResult> oldResults = runQueriesOnLocal("OLD", normalized.getOldSql(), ValidationModels.StageName.RUN_OLD_SQL, oldSqlBranch.errors);
+            state.oldResults = oldResults;
             return "Executed old queries: " + oldResults.stream().map(q -> q.name).toList();
         });
-        if (hasErrors(stages)) {
-            return buildReport(stages, errors);
+        Runnable deployNewDdl = () -> {
+            createNewSchemaIfNeeded(normalized.getNewDdl());
+            stageWrap(newDdlBranch, ValidationModels.StageName.DEPLOY_NEW_DDL, () -> {
+                List<String> createdNewTables = applyDdlOnLocal(normalized.getNewDdl(), newDdlBranch.errors, ValidationModels.StageName.DEPLOY_NEW_DDL);
+                return "Applied new DDL locally for tables: " + createdNewTables;
+            });
+        };
+        boolean independent = parallelEnabled && newDdlOutsideOldSchemas(normalized.getOldDdl(), normalized.getNewDdl());
+        if (parallelEnabled && !independent) {
+            log.info("New DDL targets old schemas (or has unqualified targets); running RUN_OLD_SQL and DEPLOY_NEW_DDL sequentially");
         }
-
-        // 4) NEW SCHEMA (опционально)
-        createNewSchemaIfNeeded(normalized.getNewDdl());
-
-        // 5) NEW DDL
-        stageWrap(stages, errors, ValidationModels.StageName.DEPLOY_NEW_DDL, () -> {
-            List<String> createdNewTables = applyDdlOnLocal(normalized.getNewDdl(), errors, ValidationModels.StageName.DEPLOY_NEW_DDL);
-            return "Applied new DDL locally for tables: " + createdNewTables;
-        });
-        if (hasErrors(stages)) {
-            return buildReport(stages, errors);
+        if (independent) {
+            try (ExecutorService branches = Executors.newVirtualThreadPerTaskExecutor()) {
+                Future<?> oldSql = branches.submit(runOldSql);
+                deployNewDdl.run();
+                awaitBranch(oldSql);
+            }
+        } else {
+            runOldSql.run();
+            deployNewDdl.run();
+        }
+        state.merge(oldSqlBranch);
+        if (oldSqlBranch.failed()) {
+            return buildReport(state);
+        }
+        state.merge(newDdlBranch);
+        if (newDdlBranch.failed()) {
+            return buildReport(state);
         }
 
         // 6) MIGRATIONS
-        stageWrap(stages, errors, ValidationModels.StageName.APPLY_MIGRATIONS, () -> {
-            applyMigrationsOnLocalSafe(normalized.getMigrations(), errors);
+        stageWrap(state, ValidationModels.StageName.APPLY_MIGRATIONS, () -> {
+            applyMigrationsOnLocalSafe(normalized.getMigrations(), state.errors);
             return "Applied migrations";
         });
-        if (hasErrors(stages)) {
-            return buildReport(stages, errors);
+        if (state.failed()) {
+            return buildReport(state);
         }
 
         // 7) RUN NEW SQL
-        stageWrap(stages, errors, ValidationModels.StageName.RUN_NEW_SQL, () -> {
-            List<QueryResult> newResults = runQueriesOnLocal("NEW", normalized.getNewSql(), ValidationModels.StageName.RUN_NEW_SQL, errors);
-            stageState.put("newResults", newResults);
+        stageWrap(state, ValidationModels.StageName.RUN_NEW_SQL, () -> {
+            List<QueryResult> newResults = runQueriesOnLocal("NEW", normalized.getNewSql(), ValidationModels.StageName.RUN_NEW_SQL, state.errors);
+            state.newResults = newResults;
             return "Executed new queries: " + newResults.stream().map(q -> q.name).toList();
         });
-        if (hasErrors(stages)) {
-            return buildReport(stages, errors);
+        if (state.failed()) {
+            return buildReport(state);
         }
 
         // 8) COMPARE
-        stageWrap(stages, errors, ValidationModels.StageName.COMPARE, () -> {
-            List<QueryResult> oldResults = (List<QueryResult>) stageState.getOrDefault("oldResults", List.of());
-            List<QueryResult> newResults = (List<QueryResult>) stageState.getOrDefault("newResults", List.of());
-            ComparisonReport comparison = compareResults(oldResults, newResults);
+        stageWrap(state, ValidationModels.StageName.COMPARE, () -> {
+            ComparisonReport comparison = compareResults(state.oldResults, state.newResults);
+            state.comparison = comparison;
+            if (compareFailOnDiff && !comparison.diffs.isEmpty()) {
+                state.errors.add(ValidationModels.ValidationError.builder()
+                        .stage(ValidationModels.StageName.COMPARE)
+                        .file(null)
+                        .code("RESULT_MISMATCH")
+                        .message(String.join("\n", comparison.diffs))
+                        .hint("новые запросы должны возвращать те же данные, что и исходные")
+                        .build());
+            }
             return "Comparison status=" + comparison.status + ", rowsDiff=" + comparison.diffRows + ", colsDiff=" + comparison.diffCols;
         });
 
-        return buildReport(stages, errors);
+        return buildReport(state);
     }
 
     // вспомогательное
 
-    private boolean hasErrors(List<ValidationModels.StageResult> stages) {
-        ValidationModels.StageResult last = stages.get(stages.size() - 1);
-        return last.getStatus() == ValidationModels.StageStatus.ERROR;
+    private static final Pattern FQTN = Pattern.compile("(?i)\\b([a-z0-9_]+)\\.([a-z0-9_]+)\\.([a-z0-9_]+)\\b");
+    private static final Pattern CREATE_SCHEMA_NAME = Pattern.compile(
+            "(?i)^\\s*CREATE\\s+SCHEMA\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?([a-z0-9_]+)\\.([a-z0-9_]+)\\b");
+
+    /**
+     * Новый DDL можно применять параллельно со старыми запросами, только если каждый его оператор
+     * создаёт или меняет объект вне схем старого DDL. Цель оператора — схема из CREATE SCHEMA
+     * или первое полное имя таблицы (CREATE TABLE [AS], ALTER, DROP, INSERT INTO ...).
+     * Оператор без полного имени считается небезопасным.
+     */
+    protected boolean newDdlOutsideOldSchemas(List<SqlFile> oldDdl, List<SqlFile> newDdl) {
+        Set<String> oldSchemas = new HashSet<>();
+        if (oldDdl != null) {
+            for (SqlFile f : oldDdl) {
+                if (isBlank(f.getContent())) continue;
+                Matcher m = FQTN.matcher(f.getContent());
+                while (m.find()) {
+                    oldSchemas.add((m.group(1) + "." + m.group(2)).toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        if (newDdl == null) return true;
+        for (SqlFile f : newDdl) {
+            if (isBlank(f.getContent())) continue;
+            for (String stmt : f.getContent().split(";")) {
+                if (isBlank(stmt)) continue;
+                String target;
+                Matcher schema = CREATE_SCHEMA_NAME.matcher(stmt);
+                Matcher table = FQTN.matcher(stmt);
+                if (schema.find()) {
+                    target = schema.group(1) + "." + schema.group(2);
+                } else if (table.find()) {
+                    target = table.group(1) + "." + table.group(2);
+                } else {
+                    return false;
+                }
+                if (oldSchemas.contains(target.toLowerCase(Locale.ROOT))) return false;
+            }
+        }
+        return true;
+    }
+
+    private void awaitBranch(Future<?> branch) {
+        try {
+            branch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Validation interrupted", e);
+        } catch (ExecutionException e) {
+            // stageWrap сам ловит исключения стадии, сюда попадают только ошибки самого запуска
+            throw new IllegalStateException("Validation branch failed", e.getCause());
+        }
     }
 
-    private ValidationModels.ValidationReport buildReport(List<ValidationModels.StageResult> stages,
-                                                          List<ValidationModels.ValidationError> errors) {
-        ValidationModels.ValidationStatus overall = errors.isEmpty()
+    private ValidationModels.ValidationReport buildReport(RunState state) {
+        ValidationModels.ValidationStatus overall = state.errors.isEmpty()
                 ? ValidationModels.ValidationStatus.OK
                 : ValidationModels.ValidationStatus.ERROR;
 
-        List<QueryResult> oldResults = (List<QueryResult>) stageState.getOrDefault("oldResults", List.of());
-        List<QueryResult> newResults = (List<QueryResult>) stageState.getOrDefault("newResults", List.of());
-
         return ValidationModels.ValidationReport.builder()
                 .status(overall)
-                .stages(stages)
-                .errors(errors)
+                .stages(state.stages)
+                .errors(state.errors)
                 .artifacts(ValidationModels.ArtifactsInfo.builder()
-                        .oldResults(oldResults.stream().map(r -> r.name).toList())
-                        .newResults(newResults.stream().map(r -> r.name).toList())
-                        .diffs(new ArrayList<>())
+                        .oldResults(state.oldResults.stream().map(r -> r.name).toList())
+                        .newResults(state.newResults.stream().map(r -> r.name).toList())
+                        .diffs(state.comparison == null ? new ArrayList<>() : new ArrayList<>(state.comparison.diffs))
                         .build())
                 .storageInfo(null)
                 .build();
@@ -348,14 +483,14 @@ public class DdlSqlValidator {
     protected List<SqlFile> rewriteListCatalog(List<SqlFile> list, String sourceCatalog, String localCatalog) {
         if (list == null) return List.of();
         return list.stream()
-                .map(sf -> new SqlFile(rewriteSqlCatalogs(sf.getContent(), sourceCatalog, localCatalog)))
+                .map(sf -> sf.withContent(rewriteSqlCatalogs(sf.getContent(), sourceCatalog, localCatalog)))
                 .collect(Collectors.toList());
     }
 
     protected List<SqlFile> rewriteListSchemaSuffix(List<SqlFile> list, String targetCatalog, String runSuffix) {
         if (list == null) return List.of();
         return list.stream()
-                .map(sf -> new SqlFile(addSchemaSuffixToSql(sf.getContent(), targetCatalog, runSuffix)))
+                .map(sf -> sf.withContent(addSchemaSuffixToSql(sf.getContent(), targetCatalog, runSuffix)))
                 .collect(Collectors.toList());
     }
 
@@ -375,7 +510,7 @@ public class DdlSqlValidator {
         if (isBlank(sql) || isBlank(targetCatalog) || isBlank(runSuffix)) return sql;
         // Найти все FQTN вида catalog.schema.table. Если catalog == targetCatalog -> schema += _<suffix> (если ещё не добавлен)
         StringBuffer out = new StringBuffer();
-        Matcher m = Pattern.compile("(?i)\\b([a-z0-9_]+)\\.([a-z0-9_]+)\\.([a-z0-9_]+)\\b").matcher(sql);
+        Matcher m = FQTN.matcher(sql);
         while (m.find()) {
             String catalog = m.group(1);
             String schema = m.group(2);
@@ -396,8 +531,7 @@ public class DdlSqlValidator {
      */
     protected String firstCatalogInSql(String sql) {
         if (isBlank(sql)) return null;
-        Pattern p = Pattern.compile("(?i)\\b([a-z0-9_]+)\\.[a-z0-9_]+\\.[a-z0-9_]+\\b");
-        Matcher m = p.matcher(sql);
+        Matcher m = FQTN.matcher(sql);
         return m.find() ? m.group(1) : null;
     }
 
@@ -413,10 +547,45 @@ public class DdlSqlValidator {
      */
 
     /**
-     * 8) Сравнение результатов — заглушка.
+     * 8) Сравнение результатов: запросы сопоставляются по queryid (без него — по номеру в списке),
+     * сравниваются отпечатки без учёта порядка строк. diffRows — число запросов с расхождениями,
+     * diffCols — число расходящихся колонок. Упавшие запросы уже попали в ошибки и здесь пропускаются.
      */
     protected ComparisonReport compareResults(List<QueryResult> oldResults, List<QueryResult> newResults) {
-        return new ComparisonReport("NOT_IMPLEMENTED", 0, 0);
+        Map<String, QueryResult> newByKey = new LinkedHashMap<>();
+        for (QueryResult r : newResults) newByKey.putIfAbsent(r.key, r);
+        List<String> diffs = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        int diffRows = 0;
+        int diffCols = 0;
+        int compared = 0;
+        for (QueryResult oldResult : oldResults) {
+            QueryResult newResult = newByKey.remove(oldResult.key);
+            if (newResult == null) {
+                missing.add(oldResult.key);
+                continue;
+            }
+            if (oldResult.fingerprint == null || newResult.fingerprint == null) {
+                continue;
+            }
+            compared++;
+            ResultComparator.Result result = ResultComparator.compare(
+                    oldResult.key, oldResult.fingerprint, newResult.fingerprint,
+                    compareTolerancePct, Math.max(0, compareMaxDiffs - diffs.size()));
+            if (!result.matches()) {
+                diffRows++;
+                diffCols += result.columnsDiffer();
+                diffs.addAll(result.diffs());
+            }
+        }
+        if (!missing.isEmpty()) {
+            diffs.add("no new query for " + missing);
+        }
+        if (!newByKey.isEmpty()) {
+            diffs.add("no old query for " + newByKey.keySet());
+        }
+        String status = compared == 0 ? "SKIPPED" : diffs.isEmpty() ? "OK" : "DIFF";
+        return new ComparisonReport(status, diffRows, diffCols, diffs);
     }
 
     // ===== ВСПОМОГАТЕЛЬНОЕ =====
@@ -626,17 +795,20 @@ public class DdlSqlValidator {
 
     public static class QueryResult {
         public String name;
-        public List<Map<String, Object>> rows;
+        /** queryid или номер запроса — ключ сопоставления старого и нового результата */
+        public String key;
+        public ResultFingerprint fingerprint;
 
-        public static QueryResult of(String name, List<Map<String, Object>> rows) {
+        public static QueryResult of(String name, String key, ResultFingerprint fingerprint) {
             QueryResult r = new QueryResult();
             r.name = name;
-            r.rows = rows;
+            r.key = key;
+            r.fingerprint = fingerprint;
             return r;
         }
 
-        public static QueryResult placeholder(String name) {
-            return of(name, List.of());
+        public static QueryResult placeholder(String name, String key) {
+            return of(name, key, null);
         }
     }
 
@@ -644,11 +816,17 @@ public class DdlSqlValidator {
         public String status;
         public int diffRows;
         public int diffCols;
+        public List<String> diffs;
 
         public ComparisonReport(String status, int diffRows, int diffCols) {
+            this(status, diffRows, diffCols, List.of());
+        }
+
+        public ComparisonReport(String status, int diffRows, int diffCols, List<String> diffs) {
             this.status = status;
             this.diffRows = diffRows;
             this.diffCols = diffCols;
+            this.diffs = diffs;
         }
     }
 
@@ -657,10 +835,11 @@ public class DdlSqlValidator {
         Object run() throws Exception;
     }
 
-    private void stageWrap(List<ValidationModels.StageResult> stages,
-                           List<ValidationModels.ValidationError> errors,
+    private void stageWrap(RunState state,
                            ValidationModels.StageName name,
                            StageBody body) {
+        List<ValidationModels.StageResult> stages = state.stages;
+        List<ValidationModels.ValidationError> errors = state.errors;
         try {
             Object details = body.run();
             stages.add(ValidationModels.StageResult.builder()
@@ -764,26 +943,35 @@ public class DdlSqlValidator {
                     String columnList = columns.stream().map(c -> quoteIdent(c.name)).collect(Collectors.joining(", "));
                     String selectSample = "SELECT * FROM " + prodFqtn + " LIMIT " + SAMPLE_LIMIT;
 
+                    String insertPrefix = "INSERT INTO " + localFqtn + " (" + columnList + ") VALUES ";
+                    int batchSize = Math.max(1, sampleInsertBatchSize);
+                    List<String> tuples = new ArrayList<>(Math.min(batchSize, SAMPLE_LIMIT));
+
                     int inserted = 0;
+                    int read = 0;
                     try (PreparedStatement stmt = prodConnection.prepareStatement(selectSample);
                          ResultSet rs = stmt.executeQuery()) {
 
                         while (rs.next()) {
-                            StringBuilder insert = new StringBuilder("INSERT INTO ")
-                                    .append(localFqtn)
-                                    .append(" (").append(columnList).append(") VALUES (");
-
+                            StringBuilder tuple = new StringBuilder("(");
                             for (int i = 0; i < columns.size(); i++) {
-                                if (i > 0) insert.append(", ");
+                                if (i > 0) tuple.append(", ");
                                 Object v = rs.getObject(i + 1);
-                                insert.append(sqlLiteralForType(v, columns.get(i).dataType));
+                                tuple.append(sqlLiteralForType(v, columns.get(i).dataType));
+                            }
+                            tuples.add(tuple.append(")").toString());
+                            read++;
+                            if (tuples.size() >= batchSize) {
+                                inserted += insertSampleBatch(insertPrefix, tuples, localFqtn);
+                                tuples.clear();
                             }
-                            insert.append(")");
-                            localTrino.execute(insert.toString());
-                            inserted++;
                         }
                     }
+                    if (!tuples.isEmpty()) {
+                        inserted += insertSampleBatch(insertPrefix, tuples, localFqtn);
+                    }
                     log.info("Inserted {} sample rows into {}", inserted, localFqtn);
+                    reportRejectedSampleRows(read, inserted, prodFqtn, localFqtn, errors);
                 } catch (Exception ex) {
                     errors.add(ValidationModels.ValidationError.builder()
                             .stage(ValidationModels.StageName.SAMPLE)
@@ -803,23 +991,97 @@ public class DdlSqlValidator {
         }
     }
 
+    /**
+     * Пишет пачку строк одним multi-row INSERT. Если пачка не прошла (например, из-за одной
+     * неприводимой строки), повторяем построчно, чтобы не потерять остальные строки выборки.
+     * Отброшенные строки логируются; сколько строк потеряно, вызывающий пишет в ошибки стадии SAMPLE.
+     */
+    int insertSampleBatch(String insertPrefix, List<String> tuples, String localFqtn) {
+        try {
+            localTrino.execute(insertPrefix + String.join(", ", tuples));
+            return tuples.size();
+        } catch (Exception batchEx) {
+            if (tuples.size() == 1) {
+                throw batchEx;
+            }
+            log.warn("Batch insert of {} rows into {} failed, retrying row by row: {}",
+                    tuples.size(), localFqtn, batchEx.getMessage());
+        }
+        int inserted = 0;
+        Exception last = null;
+        for (String tuple : tuples) {
+            try {
+                localTrino.execute(insertPrefix + tuple);
+                inserted++;
+            } catch (Exception rowEx) {
+                last = rowEx;
+                log.warn("Sample row rejected by {}: {} — {}", localFqtn, left(tuple, 200), rootMessage(rowEx));
+            }
+        }
+        if (inserted == 0 && last != null) {
+            throw new IllegalStateException("No sample rows could be inserted into " + localFqtn, last);
+        }
+        return inserted;
+    }
+
+    // валидация пойдёт по неполной выборке — это должно быть видно в отчёте
+    void reportRejectedSampleRows(int read, int inserted, String prodFqtn, String localFqtn,
+                                  List<ValidationModels.ValidationError> errors) {
+        if (inserted >= read) return;
+        errors.add(ValidationModels.ValidationError.builder()
+                .stage(ValidationModels.StageName.SAMPLE)
+                .code("SAMPLE_ROWS_REJECTED")
+                .message(String.format("%d of %d sample rows from %s were rejected by %s",
+                        read - inserted, read, prodFqtn, localFqtn))
+                .hint("проверь типы колонок таблицы: строки не приводятся к ним")
+                .build());
+        log.warn("Lost {} of {} sample rows for {}", read - inserted, read, localFqtn);
+    }
+
     protected List<QueryResult> runQueriesOnLocal(String tag,
                                                   List<SqlFile> queries,
                                                   ValidationModels.StageName stage,
                                                   List<ValidationModels.ValidationError> errors) {
         if (queries == null || queries.isEmpty()) return List.of();
-        List<QueryResult> results = new ArrayList<>();
 
+        // Запросы независимы: отправляем их в общий ограниченный пул, а результаты и ошибки
+        // собираем в исходном порядке, чтобы отчёт не зависел от порядка завершения
+        List<String> names = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Future<QueryOutcome>> outcomes = new ArrayList<>();
         for (int i = 0; i < queries.size(); i++) {
             String sql = stripTrailingSemicolon(queries.get(i).getContent());
             if (isBlank(sql)) continue;
 
-            String name = tag + "_Q" + (i + 1);
+            String queryId = queries.get(i).getQueryId();
+            String key = isBlank(queryId) ? "Q" + (i + 1) : queryId;
+            String name = tag + "_" + key;
+            names.add(name);
+            keys.add(key);
+            if (parallelEnabled && queryExecutor != null) {
+                outcomes.add(queryExecutor.submit(() -> runQueryOnLocal(name, sql)));
+            } else {
+                outcomes.add(CompletableFuture.completedFuture(runQueryOnLocal(name, sql)));
+            }
+        }
+
+        List<QueryResult> results = new ArrayList<>();
+        for (int i = 0; i < outcomes.size(); i++) {
+            String name = names.get(i);
+            QueryOutcome outcome;
             try {
-                log.info("Running {}", name);
-                List<Map<String, Object>> rows = localTrino.queryForList(sql);
-                results.add(QueryResult.of(name, rows));
-            } catch (Exception ex) {
+                outcome = outcomes.get(i).get();
+            } catch (InterruptedException e) {
+                outcomes.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while running " + name, e);
+            } catch (ExecutionException e) {
+                outcome = new QueryOutcome(null, e.getCause() instanceof Exception ex ? ex : new IllegalStateException(e.getCause()));
+            }
+            if (outcome.error() == null) {
+                results.add(QueryResult.of(name, keys.get(i), outcome.fingerprint()));
+            } else {
+                Exception ex = outcome.error();
                 errors.add(ValidationModels.ValidationError.builder()
                         .stage(stage)
                         .file(null)
@@ -828,12 +1090,26 @@ public class DdlSqlValidator {
                         .hint("убери точку с запятой на конце")
                         .build());
                 log.warn("{} failed: {}", name, ex.getMessage(), ex);
-                results.add(QueryResult.placeholder(name));
+                results.add(QueryResult.placeholder(name, keys.get(i)));
             }
         }
         return results;
     }
 
+    private record QueryOutcome(ResultFingerprint fingerprint, Exception error) {}
+
+    private QueryOutcome runQueryOnLocal(String name, String sql) {
+        try {
+            log.info("Running {}", name);
+            // строки читаются потоком и сразу сворачиваются в отпечаток, весь результат в памяти не лежит
+            ResultFingerprint fingerprint = new ResultFingerprint(compareSketchSize);
+            localTrino.query(sql, fingerprint);
+            return new QueryOutcome(fingerprint, null);
+        } catch (Exception ex) {
+            return new QueryOutcome(null, ex);
+        }
+    }
+
     private String classifySqlError(Exception ex) {
         String msg = (rootMessage(ex) + "").toLowerCase();
         if (msg.contains("line") && msg.contains("mismatched input")) return "SYNTAX_ERROR";
@@ -859,15 +1135,6 @@ public class DdlSqlValidator {
         ensure.accept(normalized.getNewDdl());
     }
 
-    @SuppressWarnings("unchecked")
-    private List<String> extractCreatedTablesFromStage(List<ValidationModels.StageResult> stages,
-                                                       ValidationModels.StageName stage) {
-        // Если нужно — можно хранить список во `stageState`. Сейчас берём из applyDdlOnLocal возврата выше.
-        // Для простоты — верни пустой список; либо сохраняй в stageState внутри stageWrap тела.
-        Object v = stageState.get("createdOldTables");
-        return v instanceof List<?> ? (List<String>) v : List.of();
-    }
-
     public static record ValidatedArtifacts(
             List<SqlBlock> finalDdl,
             List<SqlBlock> migrations,
@@ -987,6 +1254,26 @@ public class DdlSqlValidator {
         }
     }
 
+    private List<SqlFile> toQueryFiles(List<QueryInput> queries) {
+        if (queries == null) return List.of();
+        return queries.stream().map(q -> SqlFile.query(q.getQueryid(), q.getQuery())).toList();
+    }
+
+    private List<SqlFile> toRewrittenFiles(List<RewrittenQuery> queries) {
+        if (queries == null) return List.of();
+        return queries.stream().map(q -> SqlFile.query(q.getQueryid(), q.getQuery())).toList();
+    }
+
+    /** Запросы с известными queryid — в порядке payload, остальные — следом в исходном порядке. */
+    static List<RewrittenQuery> inPayloadOrder(List<RewrittenQuery> queries, List<String> originalIds) {
+        if (queries == null) return List.of();
+        Map<String, Integer> position = new HashMap<>();
+        for (int i = 0; i < originalIds.size(); i++) position.putIfAbsent(originalIds.get(i), i);
+        List<RewrittenQuery> out = new ArrayList<>(queries);
+        out.sort(Comparator.comparingInt(q -> position.getOrDefault(q.getQueryid(), Integer.MAX_VALUE)));
+        return out;
+    }
+
     private List<SqlBlock> toSqlBlocks(List<String> stmts) {
         if (stmts == null) return List.of();
         return stmts.stream()
@@ -9,6 +9,8 @@ import lombok.NoArgsConstructor;
 public class SqlFile {
     private String name;
     private String content;
+    /** queryid исходного запроса: по нему сопоставляются результаты старых и новых запросов. Для DDL — null. */
+    private String queryId;
 
     /**
      * Позволяет присылать вместо объекта просто строку с SQL.
@@ -20,4 +22,18 @@ public class SqlFile {
         // Автогенерация имени, чтобы логи были читабельнее. Необязательное поле.
         this.name = "inline-" + System.currentTimeMillis() + ".sql";
     }
+
+    public static SqlFile query(String queryId, String content) {
+        SqlFile f = new SqlFile(content);
+        f.setQueryId(queryId);
+        return f;
+    }
+
+    /** Тот же файл с другим текстом: переписывание каталогов и схем не теряет queryid. */
+    public SqlFile withContent(String newContent) {
+        SqlFile f = new SqlFile(newContent);
+        f.setName(name);
+        f.setQueryId(queryId);
+        return f;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package ru.javaboys.vibe_data.validator.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two {@link ResultFingerprint}s: exact columns by multiset hash,
+ * floating columns by aggregates via {@link ToleranceComparator}, and reports
+ * concrete differing rows found in the bottom-k sketches. At most maxDiffs lines are returned.
+ */
+public class ResultComparator {
+
+    public record Result(boolean rowsDiffer, int columnsDiffer, List<String> diffs) {
+        public boolean matches() {
+            return !rowsDiffer && columnsDiffer == 0;
+        }
+    }
+
+    public static Result compare(String name,
+                                       ResultFingerprint expected,
+                                       ResultFingerprint actual,
+                                       double tolerancePct,
+                                       int maxDiffs) {
+        List<String> diffs = new ArrayList<>();
+
+        if (expected.rowCount() != actual.rowCount()) {
+            add(diffs, maxDiffs, String.format("%s: row count %d -> %d", name, expected.rowCount(), actual.rowCount()));
+        }
+        // an empty result has no metadata, the row count diff above already covers it
+        if (expected.rowCount() == 0 || actual.rowCount() == 0) {
+            return new Result(expected.rowCount() != actual.rowCount(), 0, diffs);
+        }
+
+        List<String> expectedCols = expected.columnNames();
+        List<String> actualCols = actual.columnNames();
+        if (expectedCols.size() != actualCols.size()) {
+            add(diffs, maxDiffs, String.format("%s: column count %d -> %d (%s -> %s)",
+                    name, expectedCols.size(), actualCols.size(), expectedCols, actualCols));
+            return new Result(true, Math.abs(expectedCols.size() - actualCols.size()), diffs);
+        }
+
+        int columnsDiffer = 0;
+        for (int i = 0; i < expectedCols.size(); i++) {
+            String col = expectedCols.get(i);
+            boolean differs = false;
+            if (!col.equalsIgnoreCase(actualCols.get(i))) {
+                differs = true;
+                add(diffs, maxDiffs, String.format("%s: column #%d name %s -> %s", name, i + 1, col, actualCols.get(i)));
+            }
+            if (expected.isFloating(i) && actual.isFloating(i)) {
+                for (ToleranceComparator.Diff d : ToleranceComparator.compareWithTolerance(
+                        expected.floatAggregates(i), actual.floatAggregates(i), tolerancePct)) {
+                    differs = true;
+                    add(diffs, maxDiffs, String.format("%s: column %s %s %s -> %s (%.4f%%)",
+                            name, col, d.key(), d.expected(), d.actual(), d.relPct()));
+                }
+            } else if (expected.isFloating(i) || actual.isFloating(i)) {
+                differs = true;
+                add(diffs, maxDiffs, String.format("%s: column %s changed between floating and exact type", name, col));
+            } else if (expected.columnHash(i) != actual.columnHash(i)) {
+                differs = true;
+                add(diffs, maxDiffs, String.format("%s: column %s values differ", name, col));
+            }
+            if (differs) columnsDiffer++;
+        }
+
+        boolean rowsDiffer = !expected.sameRows(actual);
+        if (rowsDiffer) {
+            addSketchDiffs(name, expected, actual, diffs, maxDiffs);
+        }
+        return new Result(rowsDiffer || columnsDiffer > 0, columnsDiffer, diffs);
+    }
+
+    /**
+     * Both sketches hold every row whose hash is below their bound, so within the smaller bound
+     * a multiplicity mismatch is a real differing row, not a sampling artefact.
+     */
+    private static void addSketchDiffs(String name,
+                                       ResultFingerprint expected,
+                                       ResultFingerprint actual,
+                                       List<String> diffs,
+                                       int maxDiffs) {
+        Long bound = minBound(expected.sketchBound(), actual.sketchBound());
+        TreeMap<Long, ResultFingerprint.SketchEntry> e = expected.sketch();
+        TreeMap<Long, ResultFingerprint.SketchEntry> a = actual.sketch();
+        List<Long> hashes = new ArrayList<>(e.keySet());
+        for (Long h : a.keySet()) {
+            if (!e.containsKey(h)) hashes.add(h);
+        }
+        hashes.sort(Long::compareUnsigned);
+        for (Long h : hashes) {
+            if (bound != null && Long.compareUnsigned(h, bound) > 0) break;
+            long ec = e.containsKey(h) ? e.get(h).count() : 0;
+            long ac = a.containsKey(h) ? a.get(h).count() : 0;
+            if (ec == ac) continue;
+            String row = e.containsKey(h) ? e.get(h).row() : a.get(h).row();
+            if (!add(diffs, maxDiffs, String.format("%s: row %s x%d -> x%d", name, row, ec, ac))) break;
+        }
+    }
+
+    private static Long minBound(Long x, Long y) {
+        if (x == null) return y;
+        if (y == null) return x;
+        return Long.compareUnsigned(x, y) <= 0 ? x : y;
+    }
+
+    private static boolean add(List<String> diffs, int maxDiffs, String diff) {
+        if (diffs.size() >= maxDiffs) return false;
+        diffs.add(diff);
+        return true;
+    }
+
+    private ResultComparator() {
+    }
+}
@@ -0,0 +1,223 @@
+package ru.javaboys.vibe_data.validator.util;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Streaming, order-insensitive summary of a query result with constant memory.
+ *
+ * Rows are consumed one by one (RowCallbackHandler) and folded into:
+ * - row count and a multiset hash of whole rows (sum of mixed row hashes, so row order does not matter);
+ * - a multiset hash per exact column;
+ * - sum/min/max per floating-point column, compared later with a tolerance instead of hashing;
+ * - a bottom-k sketch: the k rows with the smallest row hash, used to show concrete differing rows.
+ *
+ * Limitation: floating-point values only take part in the column aggregates, and the row hash sees
+ * only whether they are null. Results that differ only by floating values moved between rows (same
+ * column sum/min/max/count, same exact columns) therefore compare as equal.
+ */
+public class ResultFingerprint implements RowCallbackHandler {
+
+    private static final long NULL_HASH = 0x9E3779B97F4A7C15L;
+    private static final int MAX_RENDERED_VALUE = 64;
+
+    private final int sketchSize;
+
+    private List<String> columnNames;
+    private boolean[] floating;
+
+    private long rowCount;
+    private long rowsHashA;
+    private long rowsHashB;
+    private long[] columnHashes;
+    private double[] floatSums;
+    private double[] floatMins;
+    private double[] floatMaxs;
+    private long[] floatCounts;
+
+    // row hash -> (multiplicity, rendered row); at most sketchSize distinct hashes
+    private final TreeMap<Long, SketchEntry> sketch = new TreeMap<>(Long::compareUnsigned);
+
+    public record SketchEntry(long count, String row) {}
+
+    public ResultFingerprint(int sketchSize) {
+        this.sketchSize = Math.max(1, sketchSize);
+    }
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+        if (columnNames == null) {
+            ResultSetMetaData md = rs.getMetaData();
+            List<String> names = new ArrayList<>(md.getColumnCount());
+            boolean[] fl = new boolean[md.getColumnCount()];
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                names.add(md.getColumnLabel(i));
+                int t = md.getColumnType(i);
+                fl[i - 1] = t == Types.DOUBLE || t == Types.FLOAT || t == Types.REAL;
+            }
+            columns(names, fl);
+        }
+        Object[] row = new Object[columnNames.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = rs.getObject(i + 1);
+        }
+        accept(row);
+    }
+
+    /**
+     * Declares the result columns; floating[i] marks columns compared with a tolerance.
+     */
+    public void columns(List<String> names, boolean[] floating) {
+        this.columnNames = List.copyOf(names);
+        this.floating = floating.clone();
+        int n = names.size();
+        this.columnHashes = new long[n];
+        this.floatSums = new double[n];
+        this.floatMins = new double[n];
+        this.floatMaxs = new double[n];
+        this.floatCounts = new long[n];
+        java.util.Arrays.fill(floatMins, Double.POSITIVE_INFINITY);
+        java.util.Arrays.fill(floatMaxs, Double.NEGATIVE_INFINITY);
+    }
+
+    public void accept(Object[] row) {
+        rowCount++;
+        long rowHash = 1;
+        for (int i = 0; i < row.length; i++) {
+            Object v = row[i];
+            if (floating[i]) {
+                // floating values stay out of the hashes: they are compared as aggregates with a tolerance
+                if (v instanceof Number num && !Double.isNaN(num.doubleValue())) {
+                    double d = num.doubleValue();
+                    floatSums[i] += d;
+                    floatMins[i] = Math.min(floatMins[i], d);
+                    floatMaxs[i] = Math.max(floatMaxs[i], d);
+                    floatCounts[i]++;
+                }
+                rowHash = rowHash * 31 + (v == null ? NULL_HASH : 1);
+                continue;
+            }
+            long h = valueHash(v);
+            columnHashes[i] += mix(h ^ i);
+            rowHash = rowHash * 31 + h;
+        }
+        rowsHashA += mix(rowHash);
+        rowsHashB += mix(rowHash ^ 0x5DEECE66DL);
+        addToSketch(mix(rowHash), row);
+    }
+
+    private void addToSketch(long hash, Object[] row) {
+        SketchEntry existing = sketch.get(hash);
+        if (existing != null) {
+            sketch.put(hash, new SketchEntry(existing.count() + 1, existing.row()));
+            return;
+        }
+        if (sketch.size() >= sketchSize && Long.compareUnsigned(hash, sketch.lastKey()) > 0) {
+            return;
+        }
+        sketch.put(hash, new SketchEntry(1, render(row)));
+        if (sketch.size() > sketchSize) {
+            sketch.pollLastEntry();
+        }
+    }
+
+    static long valueHash(Object v) {
+        if (v == null) return NULL_HASH;
+        String canonical;
+        if (v instanceof Byte || v instanceof Short || v instanceof Integer || v instanceof Long || v instanceof BigInteger) {
+            canonical = "n:" + v;
+        } else if (v instanceof BigDecimal bd) {
+            // 1.50 and 1.5 are the same value; integral decimals match integers
+            BigDecimal s = bd.stripTrailingZeros();
+            canonical = "n:" + (s.scale() <= 0 ? s.toBigInteger().toString() : s.toPlainString());
+        } else if (v instanceof byte[] bytes) {
+            canonical = "b:" + java.util.Arrays.toString(bytes);
+        } else {
+            canonical = "s:" + v;
+        }
+        return fnv1a64(canonical);
+    }
+
+    private static long fnv1a64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** SplitMix64 finalizer: spreads bits so that sums of hashes behave as multiset hashes. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String render(Object[] row) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) sb.append(", ");
+            String s = String.valueOf(row[i]);
+            sb.append(s.length() > MAX_RENDERED_VALUE ? s.substring(0, MAX_RENDERED_VALUE) + "…" : s);
+        }
+        return sb.append(")").toString();
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    public List<String> columnNames() {
+        return columnNames == null ? List.of() : columnNames;
+    }
+
+    public boolean isFloating(int column) {
+        return floating != null && floating[column];
+    }
+
+    public long columnHash(int column) {
+        return columnHashes[column];
+    }
+
+    public boolean sameRows(ResultFingerprint other) {
+        return rowCount == other.rowCount && rowsHashA == other.rowsHashA && rowsHashB == other.rowsHashB;
+    }
+
+    /** Aggregates of a floating column as metric -> value (for ToleranceComparator). */
+    public Map<String, Double> floatAggregates(int column) {
+        if (floatCounts[column] == 0) {
+            return Map.of("count", 0d);
+        }
+        return Map.of(
+                "count", (double) floatCounts[column],
+                "sum", dropNoise(floatSums[column]),
+                "min", dropNoise(floatMins[column]),
+                "max", dropNoise(floatMaxs[column]));
+    }
+
+    // summation order leaves ~1e-15 residue where the exact value is 0; a relative tolerance cannot absorb it
+    private static double dropNoise(double d) {
+        return Math.abs(d) < 1e-9 ? 0d : d;
+    }
+
+    TreeMap<Long, SketchEntry> sketch() {
+        return sketch;
+    }
+
+    /** Largest hash kept by the sketch if it is full, otherwise null (all rows are in the sketch). */
+    Long sketchBound() {
+        return sketch.size() >= sketchSize ? sketch.lastKey() : null;
+    }
+}
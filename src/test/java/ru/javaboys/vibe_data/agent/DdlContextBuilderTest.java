@@ -0,0 +1,83 @@
+package ru.javaboys.vibe_data.agent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+import ru.javaboys.vibe_data.domain.jsonb.SqlBlock;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DdlContextBuilderTest {
+
+    private static final String FLIGHTS = "CREATE TABLE flights.public.flights ( flightdate date, airline varchar, "
+            + "origin varchar, dest varchar, depdelay double, arrdelay double ) "
+            + "WITH ( format = 'PARQUET', partitioning = ARRAY['month(flightdate)'], sorted_by = ARRAY['airline'] )";
+    private static final String CARRIERS = "CREATE TABLE flights.public.carriers ( code varchar, name varchar )";
+
+    private final DdlContextBuilder builder = new DdlContextBuilder(new SimpleMeterRegistry(), true);
+
+    private List<DdlContextBuilder.Statement> ddl() {
+        return builder.prepare(List.of(
+                DdlStatement.builder().statement(FLIGHTS).build(),
+                DdlStatement.builder().statement(CARRIERS).build()));
+    }
+
+    @Test
+    void keepsReferencedTablesColumnsAndLayoutKeys() {
+        List<SqlBlock> accumulated = List.of(
+                SqlBlock.builder().statement("ALTER TABLE flights.public.flights SET PROPERTIES sorted_by = ARRAY['origin']").build(),
+                SqlBlock.builder().statement("ALTER TABLE flights.public.carriers SET PROPERTIES format = 'ORC'").build());
+        DdlContextBuilder.Context ctx = builder.build(ddl(), accumulated,
+                "SELECT f.Origin, avg(f.depdelay) FROM flights.public.flights f GROUP BY f.Origin");
+
+        assertFalse(ctx.originalDdl().contains("carriers"));
+        assertTrue(ctx.originalDdl().contains("origin varchar"));
+        assertTrue(ctx.originalDdl().contains("depdelay double"));
+        assertTrue(ctx.originalDdl().contains("flightdate date"));
+        assertTrue(ctx.originalDdl().contains("airline varchar"));
+        assertFalse(ctx.originalDdl().contains("arrdelay"));
+        assertTrue(ctx.originalDdl().contains("partitioning = ARRAY['month(flightdate)']"));
+        assertTrue(ctx.accumulatedDdl().contains("sorted_by = ARRAY['origin']"));
+        assertFalse(ctx.accumulatedDdl().contains("carriers"));
+        assertTrue(ctx.savedTokens() > 0);
+    }
+
+    @Test
+    void selectStarAndUnknownTablesKeepFullContext() {
+        DdlContextBuilder.Context star = builder.build(ddl(), List.of(), "SELECT * FROM flights.public.flights");
+        assertEquals(FLIGHTS, star.originalDdl());
+
+        DdlContextBuilder.Context unknown = builder.build(ddl(), List.of(), "SELECT 1 FROM other.public.t");
+        assertEquals(0, unknown.savedTokens());
+        assertTrue(unknown.originalDdl().contains("carriers"));
+    }
+
+    @Test
+    void newSchemaDdlIsMatchedToSourceTables() {
+        List<SqlBlock> accumulated = List.of(
+                SqlBlock.builder().statement("CREATE SCHEMA flights.optimized").build(),
+                SqlBlock.builder().statement("CREATE TABLE flights.optimized.flights ( flightdate date, origin varchar ) "
+                        + "WITH ( sorted_by = ARRAY['origin'] )").build(),
+                SqlBlock.builder().statement("CREATE TABLE flights.optimized.delay_by_origin AS "
+                        + "SELECT origin, avg(depdelay) AS d FROM flights.public.flights GROUP BY origin").build(),
+                SqlBlock.builder().statement("INSERT INTO flights.optimized.delay_by_origin "
+                        + "SELECT origin, avg(depdelay) FROM flights.optimized.flights GROUP BY origin").build(),
+                SqlBlock.builder().statement("CREATE TABLE flights.optimized.carriers ( code varchar, name varchar ) "
+                        + "WITH ( format = 'ORC' )").build(),
+                SqlBlock.builder().statement("CREATE TABLE flights.optimized.carrier_names AS "
+                        + "SELECT name FROM flights.optimized.carriers").build());
+
+        DdlContextBuilder.Context ctx = builder.build(ddl(), accumulated,
+                "SELECT f.Origin, avg(f.depdelay) FROM flights.public.flights f GROUP BY f.Origin");
+
+        assertTrue(ctx.accumulatedDdl().contains("CREATE SCHEMA flights.optimized"));
+        assertTrue(ctx.accumulatedDdl().contains("CREATE TABLE flights.optimized.flights"));
+        assertTrue(ctx.accumulatedDdl().contains("CREATE TABLE flights.optimized.delay_by_origin"));
+        assertTrue(ctx.accumulatedDdl().contains("INSERT INTO flights.optimized.delay_by_origin"));
+        // копия carriers и построенная из неё таблица к запросу не относятся
+        assertFalse(ctx.accumulatedDdl().contains("carriers"), ctx.accumulatedDdl());
+        assertFalse(ctx.accumulatedDdl().contains("carrier_names"), ctx.accumulatedDdl());
+    }
+}
@@ -0,0 +1,209 @@
+package ru.javaboys.vibe_data.agent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import liquibase.integration.spring.SpringLiquibase;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.javaboys.vibe_data.agent.rules.RuleBasedOptimizer;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainTools;
+import ru.javaboys.vibe_data.domain.Task;
+import ru.javaboys.vibe_data.domain.TaskInput;
+import ru.javaboys.vibe_data.domain.TaskResult;
+import ru.javaboys.vibe_data.domain.TaskStatus;
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+import ru.javaboys.vibe_data.domain.jsonb.TaskInputPayload;
+import ru.javaboys.vibe_data.llm.LlmRequest;
+import ru.javaboys.vibe_data.llm.LlmService;
+import ru.javaboys.vibe_data.repository.TaskResultRepository;
+import ru.javaboys.vibe_data.service.OptimizationIndex;
+import ru.javaboys.vibe_data.service.QueryCheckpointService;
+import ru.javaboys.vibe_data.service.TaskResultQueryService;
+import ru.javaboys.vibe_data.validator.DdlSqlValidator.ValidatedArtifacts;
+import ru.javaboys.vibe_data.validator.ValidationSwitcher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Агент целиком против настоящего Postgres: LLM, Trino и валидация подменены, а прогресс и итог
+ * пишутся через JdbcTemplate внутри внешней транзакции — так же, как в TaskProcessor.processTask.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public class QueryOptimizerAgentPersistenceTest {
+
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final Duration HANG_GUARD = Duration.ofSeconds(60);
+
+    private static DriverManagerDataSource dataSource;
+    private static JdbcTemplate jdbc;
+    private static DataSourceTransactionManager transactionManager;
+
+    private LlmService llm;
+    private QueryOptimizerAgent agent;
+
+    @BeforeAll
+    static void migrate() throws Exception {
+        dataSource = new DriverManagerDataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+        jdbc = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog("classpath:/db/changelog/db.changelog-master.xml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        liquibase.afterPropertiesSet();
+    }
+
+    @BeforeEach
+    void setUp() {
+        llm = mock(LlmService.class);
+        when(llm.callAs(any(), eq(FinalMigrationOutput.class))).thenReturn(new FinalMigrationOutput(List.of(), List.of()));
+
+        OptimizationIndex index = mock(OptimizationIndex.class);
+        when(index.relevant(any())).thenReturn(List.of());
+
+        RuleBasedOptimizer rules = mock(RuleBasedOptimizer.class);
+        when(rules.optimize(any(), any())).thenReturn(new RuleBasedOptimizer.Result(List.of(), Map.of()));
+
+        ValidationSwitcher validation = mock(ValidationSwitcher.class);
+        when(validation.validate(any(), any(), any(), any())).thenAnswer(inv ->
+                new ValidatedArtifacts(inv.getArgument(1), inv.getArgument(2), inv.getArgument(3), null));
+
+        TaskResultRepository results = mock(TaskResultRepository.class);
+        when(results.findByTaskId(any())).thenReturn(Optional.empty());
+        when(results.saveAndFlush(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        TimeBudgetPlanner planner = mock(TimeBudgetPlanner.class);
+        when(planner.plan(any(), anyLong(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt()))
+                .thenReturn(new TimeBudgetPlanner.Plan(1, 1, 1_000_000, 100));
+        when(planner.getQuantile()).thenReturn(0.9);
+
+        agent = new QueryOptimizerAgent(
+                llm,
+                mock(TrinoExplainTools.class),
+                results,
+                transactionManager,
+                index,
+                validation,
+                rules,
+                new QueryCheckpointService(jdbc, new ObjectMapper(), transactionManager),
+                new TaskResultQueryService(jdbc, transactionManager),
+                planner,
+                new DdlContextBuilder(new SimpleMeterRegistry(), true));
+        ReflectionTestUtils.setField(agent, "maxTotalDurationMs", 600_000L);
+        ReflectionTestUtils.setField(agent, "validationMaxAttempts", 0);
+        ReflectionTestUtils.setField(agent, "optimizationConcurrency", 1);
+        ReflectionTestUtils.setField(agent, "fingerprintEnabled", true);
+    }
+
+    private static Task newTask() {
+        UUID id = UUID.randomUUID();
+        jdbc.update("INSERT INTO tasks (id, created_at, updated_at, status) VALUES (?, now(), now(), 'RUNNING')", id);
+        Task task = Task.builder()
+                .llmModel("gpt-4o")
+                .status(TaskStatus.RUNNING)
+                .input(TaskInput.builder()
+                        .payload(TaskInputPayload.builder()
+                                .url("jdbc:trino://localhost:8080")
+                                .ddl(List.of(DdlStatement.builder()
+                                        .statement("CREATE TABLE c.s.t (id INT, name VARCHAR)")
+                                        .build()))
+                                .queries(List.of(
+                                        query("q1", "SELECT id FROM c.s.t WHERE name = 'a'", 100),
+                                        query("q2", "SELECT count(*) FROM c.s.t", 10)))
+                                .build())
+                        .build())
+                .build();
+        task.setId(id);
+        return task;
+    }
+
+    private static QueryInput query(String id, String sql, int runquantity) {
+        return QueryInput.builder().queryid(id).query(sql).runquantity(runquantity).executiontime(1).build();
+    }
+
+    private static PerQueryOptimizationOutput rewrite(LlmRequest request) {
+        String queryid = String.valueOf(request.getUserVariables().get("queryid"));
+        return new PerQueryOptimizationOutput(queryid, "-- optimized " + queryid, List.of());
+    }
+
+    // Внешняя транзакция на весь прогон агента, как @Transactional на processTask
+    private TaskResult optimizeInTaskTransaction(Task task) {
+        return assertTimeoutPreemptively(HANG_GUARD, () -> new TransactionTemplate(transactionManager).execute(status -> {
+            jdbc.update("UPDATE tasks SET updated_at = now() WHERE id = ?", task.getId());
+            return agent.optimize(task);
+        }));
+    }
+
+    @Test
+    void finalSaveDoesNotWaitForProgressRowsOfTheSameTask() {
+        when(llm.callAs(any(), eq(PerQueryOptimizationOutput.class))).thenAnswer(inv -> rewrite(inv.getArgument(0)));
+        Task task = newTask();
+
+        assertNotNull(optimizeInTaskTransaction(task));
+
+        List<String> rows = jdbc.queryForList(
+                "SELECT queryid || ':' || query FROM task_result_query WHERE task_id = ? ORDER BY position",
+                String.class, task.getId());
+        assertEquals(List.of("q1:-- optimized q1", "q2:-- optimized q2"), rows);
+    }
+
+    @Test
+    void restartAfterCrashSkipsCompletedSteps() {
+        Task task = newTask();
+
+        // первый прогон: q1 завершается, на q2 узел «падает» — внешняя транзакция откатывается
+        when(llm.callAs(any(), eq(PerQueryOptimizationOutput.class))).thenAnswer(inv -> {
+            LlmRequest request = inv.getArgument(0);
+            if ("q2".equals(request.getUserVariables().get("queryid"))) {
+                throw new IllegalStateException("узел остановлен");
+            }
+            return rewrite(request);
+        });
+        assertThrows(IllegalStateException.class, () -> optimizeInTaskTransaction(task));
+
+        assertEquals(List.of("q1:DONE", "q2:FAILED"), jdbc.queryForList(
+                "SELECT query_id || ':' || status FROM query_checkpoint WHERE task_id = ? ORDER BY query_id",
+                String.class, task.getId()));
+
+        // повторная попытка: в LLM уходит только незавершённый шаг
+        List<Object> optimized = new ArrayList<>();
+        when(llm.callAs(any(), eq(PerQueryOptimizationOutput.class))).thenAnswer(inv -> {
+            LlmRequest request = inv.getArgument(0);
+            optimized.add(request.getUserVariables().get("queryid"));
+            return rewrite(request);
+        });
+        optimizeInTaskTransaction(task);
+
+        assertEquals(List.of("q2"), optimized);
+        assertEquals(List.of("q1:-- optimized q1", "q2:-- optimized q2"), jdbc.queryForList(
+                "SELECT queryid || ':' || query FROM task_result_query WHERE task_id = ? ORDER BY position",
+                String.class, task.getId()));
+    }
+}
@@ -0,0 +1,99 @@
+package ru.javaboys.vibe_data.agent.rules;
+
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.domain.jsonb.DdlStatement;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryRulesTest {
+
+    private static final TableSchema FLIGHTS = TableSchema.parse(
+            "CREATE TABLE flights.public.flights (FlightDate date, Airline varchar, Origin varchar, "
+                    + "DepDelay double, Cancelled boolean) WITH (format = 'PARQUET');");
+    private static final TableSchema PAYMENTS = TableSchema.parse(
+            "CREATE TABLE quests.public.payments (id bigint, payment_dt timestamp(6), amount decimal(10, 2))");
+
+    @Test
+    void parsesCreateTable() {
+        assertEquals("flights.public.flights", FLIGHTS.name());
+        assertEquals(List.of("flightdate", "airline", "origin", "depdelay", "cancelled"), List.copyOf(FLIGHTS.columns().keySet()));
+        assertEquals("decimal(10,2)", PAYMENTS.columns().get("amount"));
+        assertTrue(PAYMENTS.isTemporal("payment_dt"));
+        assertFalse(FLIGHTS.partitioned());
+    }
+
+    @Test
+    void rewritesYearFilterIntoRange() {
+        String sql = "SELECT count(*) FROM flights.public.flights f WHERE year(f.FlightDate) = 2022 AND Airline = 'AA'";
+        assertEquals("SELECT count(*) FROM flights.public.flights f WHERE (f.FlightDate >= DATE '2022-01-01' "
+                        + "AND f.FlightDate < DATE '2023-01-01') AND Airline = 'AA'",
+                new SargableYearRule().apply(sql, List.of(FLIGHTS)).orElseThrow());
+
+        String ts = "SELECT sum(amount) FROM quests.public.payments WHERE year(payment_dt) BETWEEN 2020 AND 2021";
+        assertEquals("SELECT sum(amount) FROM quests.public.payments WHERE (payment_dt >= TIMESTAMP '2020-01-01 00:00:00' "
+                        + "AND payment_dt < TIMESTAMP '2022-01-01 00:00:00')",
+                new SargableYearRule().apply(ts, List.of(PAYMENTS)).orElseThrow());
+
+        // year() в арифметике и по не-датовой колонке не трогаем
+        assertTrue(new SargableYearRule().apply(
+                "SELECT * FROM flights.public.flights WHERE year(FlightDate) = 2022 + 1", List.of(FLIGHTS)).isEmpty());
+        assertTrue(new SargableYearRule().apply(
+                "SELECT * FROM flights.public.flights WHERE year(Origin) = 2022", List.of(FLIGHTS)).isEmpty());
+    }
+
+    @Test
+    void prunesSelectStarInCte() {
+        String sql = "WITH f AS (SELECT * FROM flights.public.flights WHERE Cancelled) "
+                + "SELECT Origin, avg(DepDelay) FROM f GROUP BY Origin";
+        assertEquals("WITH f AS (SELECT origin, depdelay FROM flights.public.flights WHERE Cancelled) "
+                        + "SELECT Origin, avg(DepDelay) FROM f GROUP BY Origin",
+                new SelectStarCteRule().apply(sql, List.of(FLIGHTS)).orElseThrow());
+
+        // внешний SELECT * зависит от всех колонок CTE
+        assertTrue(new SelectStarCteRule().apply(
+                "WITH f AS (SELECT * FROM flights.public.flights) SELECT * FROM f", List.of(FLIGHTS)).isEmpty());
+    }
+
+    @Test
+    void proposesDatePartitioningForDominantFilter() {
+        DatePartitionRule rule = new DatePartitionRule(0.5, "month");
+        List<DatePartitionRule.Proposal> proposals = rule.propose(List.of(FLIGHTS), List.of(
+                new DatePartitionRule.WeightedQuery(
+                        "SELECT count(*) FROM flights.public.flights WHERE FlightDate >= DATE '2022-01-01'", 80),
+                new DatePartitionRule.WeightedQuery("SELECT Origin FROM flights.public.flights", 20)));
+        assertEquals(1, proposals.size());
+        DatePartitionRule.Proposal p = proposals.get(0);
+        assertEquals("flights.public.flights", p.table());
+        assertEquals("month(flightdate)", p.partitionExpr());
+        assertEquals(0.8, p.share(), 1e-9);
+        // подсказка для LLM, а не CREATE TABLE под старым именем
+        assertEquals("flights.public.flights: в новой схеме задать partitioning = ARRAY['month(flightdate)'] "
+                + "(фильтр по flightdate — 80% веса запросов к таблице)", p.hint());
+
+        assertTrue(rule.propose(List.of(FLIGHTS), List.of(
+                new DatePartitionRule.WeightedQuery(
+                        "SELECT count(*) FROM flights.public.flights WHERE FlightDate >= DATE '2022-01-01'", 20),
+                new DatePartitionRule.WeightedQuery("SELECT Origin FROM flights.public.flights", 80))).isEmpty());
+    }
+
+    @Test
+    void retargetsRuleQueriesToTablesOfNewSchema() {
+        List<DdlStatement> original = List.of(DdlStatement.builder().statement(FLIGHTS.statement()).build());
+        List<String> finalDdl = List.of(
+                "CREATE SCHEMA flights.optimized",
+                "CREATE TABLE flights.optimized.flights (FlightDate date, Airline varchar) "
+                        + "WITH (partitioning = ARRAY['month(flightdate)'])",
+                "CREATE TABLE flights.optimized.daily AS SELECT FlightDate FROM flights.public.flights");
+
+        String sql = "SELECT count(*) FROM flights.public.flights f WHERE f.FlightDate >= DATE '2022-01-01' "
+                + "AND Airline <> 'flights.public.flights'";
+        assertEquals("SELECT count(*) FROM flights.optimized.flights f WHERE f.FlightDate >= DATE '2022-01-01' "
+                        + "AND Airline <> 'flights.public.flights'",
+                RuleBasedOptimizer.retargetToNewSchema(sql, original, finalDdl));
+
+        // в новой схеме нет таблицы с тем же именем — запрос не меняется
+        assertEquals(sql, RuleBasedOptimizer.retargetToNewSchema(sql, original, List.of("CREATE SCHEMA flights.optimized")));
+    }
+}
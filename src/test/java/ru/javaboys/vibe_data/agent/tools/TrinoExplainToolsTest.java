@@ -0,0 +1,37 @@
+package ru.javaboys.vibe_data.agent.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainTools.FullPlanType;
+import ru.javaboys.vibe_data.service.TrinoDbService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TrinoExplainToolsTest {
+
+    @Test
+    void fullPlanMapsToPlanOnlyExplainTypes() {
+        TrinoDbService trino = mock(TrinoDbService.class);
+        TrinoExplainTools tools = new TrinoExplainTools(trino, null);
+
+        assertNotNull(tools.explainFullPlan("SELECT 1", null).getError());
+        verify(trino, never()).explain(anyString(), any());
+
+        tools.explainFullPlan("SELECT 1", FullPlanType.IO);
+        verify(trino).explain("SELECT 1", TrinoExplainType.IO);
+    }
+
+    @Test
+    void fullPlanRejectsAnalyzeArgument() {
+        // аргументы tool call разбираются Jackson: ANALYZE не входит в FullPlanType
+        ObjectMapper mapper = new ObjectMapper();
+        assertThrows(InvalidFormatException.class, () -> mapper.readValue("\"ANALYZE\"", FullPlanType.class));
+        assertThrows(InvalidFormatException.class, () -> mapper.readValue("\"ANALYZE_VERBOSE\"", FullPlanType.class));
+    }
+}
@@ -0,0 +1,77 @@
+package ru.javaboys.vibe_data.agent.tools.plan;
+
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExplainPlanSummarizerTest {
+
+    private static final String LOGICAL = """
+            {
+              "id": "1", "name": "Output", "descriptor": {}, "outputs": [], "details": [],
+              "estimates": [ { "outputRowCount": "NaN", "outputSizeInBytes": "NaN", "cpuCost": 0.0, "memoryCost": 0.0, "networkCost": 0.0 } ],
+              "children": [ {
+                "id": "2", "name": "Aggregate", "descriptor": { "keys": "[origin]" }, "outputs": [], "details": [],
+                "estimates": [ { "outputRowCount": 300, "outputSizeInBytes": 5000, "cpuCost": 9.0E9, "memoryCost": 1.0E6, "networkCost": 0.0 } ],
+                "children": [ {
+                  "id": "3", "name": "ScanFilterProject",
+                  "descriptor": { "table": "flights:public.flights$data@9119431624673072209", "filterPredicate": "(cancelled = boolean 'false')" },
+                  "outputs": [ { "type": "varchar", "name": "origin" }, { "type": "double", "name": "depdelay" } ],
+                  "details": [],
+                  "estimates": [ { "outputRowCount": 2.3E8, "outputSizeInBytes": 2.7E9, "cpuCost": 2.7E9, "memoryCost": 0.0, "networkCost": 0.0 } ],
+                  "children": []
+                } ]
+              } ]
+            }
+            """;
+
+    private static final String IO = """
+            {
+              "inputTableColumnInfos": [ {
+                "table": { "catalog": "flights", "schemaTable": { "schema": "public", "table": "flights" } },
+                "constraint": { "none": false, "columnConstraints": [ { "columnName": "cancelled", "type": "boolean" } ] },
+                "estimate": { "outputRowCount": 2.3E8, "outputSizeInBytes": 2.7E9, "cpuCost": 2.7E9, "maxMemory": 0.0, "networkCost": 0.0 }
+              } ],
+              "estimate": { "outputRowCount": "NaN", "outputSizeInBytes": "NaN", "cpuCost": "NaN", "maxMemory": "NaN", "networkCost": "NaN" }
+            }
+            """;
+
+    private final ExplainPlanParser parser = new ExplainPlanParser();
+    private final ExplainPlanSummarizer summarizer = new ExplainPlanSummarizer(8);
+
+    @Test
+    void parsesNodesWithNaNEstimates() {
+        ExplainPlan plan = parser.parse(LOGICAL, TrinoExplainType.LOGICAL);
+        assertEquals(3, plan.nodes().count());
+        PlanNode output = plan.fragments().get(0);
+        assertTrue(Double.isNaN(output.estimate().outputRowCount()));
+        PlanNode scan = output.children().get(0).children().get(0);
+        assertTrue(scan.isScan());
+        assertEquals("flights.public.flights", scan.scannedTable());
+    }
+
+    @Test
+    void summaryRanksMostExpensiveOperatorFirst() {
+        String summary = summarizer.summarize(parser.parse(LOGICAL, TrinoExplainType.LOGICAL));
+        int aggregate = summary.indexOf("1. Aggregate#2");
+        int scan = summary.indexOf("2. ScanFilterProject#3");
+        assertTrue(aggregate >= 0 && scan > aggregate, summary);
+        assertTrue(summary.contains("flights.public.flights: колонок 2 (origin, depdelay)"), summary);
+        assertTrue(summary.contains("фильтр: (cancelled = boolean 'false')"), summary);
+        assertTrue(summary.length() < LOGICAL.length(), "summary must be shorter than the raw plan");
+    }
+
+    @Test
+    void summarizesIoInputs() {
+        String summary = summarizer.summarize(parser.parse(IO, TrinoExplainType.IO));
+        assertTrue(summary.contains("flights.public.flights"), summary);
+        assertTrue(summary.contains("ограничены предикатами: cancelled"), summary);
+    }
+
+    @Test
+    void rejectsNonJsonOutput() {
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.parse("Fragment 1 [SOURCE]\n  CPU: 1.2s", TrinoExplainType.ANALYZE));
+    }
+}
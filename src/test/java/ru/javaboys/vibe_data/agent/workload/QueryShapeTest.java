@@ -0,0 +1,61 @@
+package ru.javaboys.vibe_data.agent.workload;
+
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryShapeTest {
+
+    private static final String Q1 = "SELECT Origin, COUNT(*) FROM flights.public.flights "
+            + "WHERE FlightDate >= DATE '2022-01-01' AND Airline = 'AA' GROUP BY Origin LIMIT 10";
+    private static final String Q2 = "select origin, count(*)\n  from flights.public.flights -- march\n"
+            + " where flightdate >= date '2022-03-01' and airline = 'DL' group by origin limit 20;";
+
+    @Test
+    void literalsCaseAndWhitespaceDoNotChangeShape() {
+        QueryShape a = QueryShape.of(Q1);
+        QueryShape b = QueryShape.of(Q2);
+        assertEquals(a.shape(), b.shape());
+        assertEquals(List.of("'2022-01-01'", "'AA'", "10"), a.literals());
+        assertNotEquals(a.shape(), QueryShape.of(Q1.replace("Origin,", "Dest,")).shape());
+    }
+
+    @Test
+    void reappliesRewriteWithMemberLiterals() {
+        String rewritten = "SELECT origin, count(*) FROM flights.opt.flights "
+                + "WHERE flightdate >= DATE '2022-01-01' AND airline = 'AA' GROUP BY origin LIMIT 10";
+        String applied = QueryShape.of(Q1).reapply(rewritten, QueryShape.of(Q2)).orElseThrow();
+        assertEquals("SELECT origin, count(*) FROM flights.opt.flights "
+                + "WHERE flightdate >= DATE '2022-03-01' AND airline = 'DL' GROUP BY origin LIMIT 20", applied);
+    }
+
+    @Test
+    void refusesAmbiguousOrDroppedLiterals() {
+        QueryShape rep = QueryShape.of("SELECT * FROM t WHERE a = 1 AND b = 1");
+        QueryShape member = QueryShape.of("SELECT * FROM t WHERE a = 1 AND b = 2");
+        assertTrue(rep.reapply("SELECT * FROM t WHERE a = 1 AND b = 1", member).isEmpty());
+
+        QueryShape rep2 = QueryShape.of("SELECT * FROM t WHERE a = 1 AND b = 'x'");
+        QueryShape member2 = QueryShape.of("SELECT * FROM t WHERE a = 1 AND b = 'y'");
+        assertTrue(rep2.reapply("SELECT * FROM t WHERE a = 1", member2).isEmpty());
+    }
+
+    @Test
+    void groupsByShapeAndSumsWeights() {
+        List<QueryGroup> groups = QueryGroup.group(List.of(
+                new QueryInput("q1", Q1, 10, 2),
+                new QueryInput("q2", Q2, 30, 1),
+                new QueryInput("q3", "SELECT 1", 100, 1)
+        ), true, q -> (long) q.getRunquantity() * q.getExecutiontime());
+
+        assertEquals(2, groups.size());
+        assertEquals("q3", groups.get(0).representative().getQueryid());
+        QueryGroup flights = groups.get(1);
+        assertEquals(50, flights.weight());
+        assertEquals("q2", flights.representative().getQueryid());
+        assertEquals(2, flights.members().size());
+    }
+}
@@ -0,0 +1,104 @@
+package ru.javaboys.vibe_data.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.dto.TrinoResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressingRedisSerializerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private CompressingRedisSerializer<TrinoResponse> serializer(CacheCompression compression) {
+        return serializer(compression, 1 << 20);
+    }
+
+    private CompressingRedisSerializer<TrinoResponse> serializer(CacheCompression compression, int maxRawBytes) {
+        return new CompressingRedisSerializer<>("explain", TrinoResponse.class, new TrinoResponseCodec(),
+                compression, 512, 1, maxRawBytes, registry);
+    }
+
+    private static String plan(int operators) {
+        StringBuilder sb = new StringBuilder("{\"0\":{\"name\":\"Output\",\"children\":[");
+        for (int i = 0; i < operators; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":\"").append(i).append("\",\"name\":\"ScanFilterProject\",\"descriptor\":{\"table\":\"iceberg:db.orders\"},")
+                    .append("\"outputs\":[{\"symbol\":\"orderkey\",\"type\":\"bigint\"}],\"estimates\":[{\"outputRowCount\":\"NaN\"}]}");
+        }
+        return sb.append("]}}").toString();
+    }
+
+    @Test
+    void largePlanIsCompressedAndRoundTrips() {
+        CompressingRedisSerializer<TrinoResponse> s = serializer(CacheCompression.DEFLATE);
+        String json = plan(200);
+        byte[] bytes = s.serialize(TrinoResponse.success(json));
+        assertEquals(CacheCompression.DEFLATE.id(), bytes[3]);
+        assertTrue(bytes.length * 5 < json.length(), "stored=" + bytes.length + ", raw=" + json.length());
+        TrinoResponse back = s.deserialize(bytes);
+        assertEquals(json, back.getResponse());
+        assertNull(back.getError());
+        assertEquals(1, registry.get("cache.codec.bytes").tag("stage", "stored").summary().count());
+    }
+
+    @Test
+    void smallValuesAndErrorsAreStoredUncompressed() {
+        CompressingRedisSerializer<TrinoResponse> s = serializer(CacheCompression.DEFLATE);
+        byte[] bytes = s.serialize(TrinoResponse.error("line 1:8: Table 'x' does not exist — ошибка"));
+        assertEquals(CacheCompression.NONE.id(), bytes[3]);
+        TrinoResponse back = s.deserialize(bytes);
+        assertNull(back.getResponse());
+        assertEquals("line 1:8: Table 'x' does not exist — ошибка", back.getError());
+    }
+
+    @Test
+    void valuesWrittenWithAnotherAlgorithmStayReadable() {
+        byte[] plain = serializer(CacheCompression.NONE).serialize(TrinoResponse.success(plan(50)));
+        assertEquals(plan(50), serializer(CacheCompression.DEFLATE).deserialize(plain).getResponse());
+    }
+
+    @Test
+    void foreignOrCorruptedValuesAreCacheMisses() throws Exception {
+        CompressingRedisSerializer<TrinoResponse> s = serializer(CacheCompression.DEFLATE);
+        ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(jdk)) {
+            out.writeObject(TrinoResponse.success("{}"));
+        }
+        assertNull(s.deserialize(jdk.toByteArray()));
+
+        byte[] bytes = s.serialize(TrinoResponse.success(plan(100)));
+        bytes[bytes.length / 2] ^= 0x5A;
+        bytes[bytes.length / 2 + 1] ^= 0x5A;
+        assertNull(s.deserialize(bytes));
+        assertEquals(2.0, registry.get("cache.codec.rejected").counter().count());
+    }
+
+    @Test
+    void implausibleRawLengthIsCacheMissWithoutAllocation() {
+        CompressingRedisSerializer<TrinoResponse> s = serializer(CacheCompression.DEFLATE, 64 * 1024);
+        byte[] bytes = s.serialize(TrinoResponse.success(plan(100)));
+        assertEquals(CacheCompression.DEFLATE.id(), bytes[3]);
+
+        // длина больше, чем deflate может получить из этих данных
+        byte[] bomb = bytes.clone();
+        ByteBuffer.wrap(bomb, 4, 4).putInt(Integer.MAX_VALUE);
+        assertNull(s.deserialize(bomb));
+
+        // правдоподобно для deflate, но выше настроенного предела
+        assertTrue(plan(100).length() > 1024);
+        assertNull(serializer(CacheCompression.DEFLATE, 1024).deserialize(bytes));
+
+        // несжатое значение не может быть длиннее своих данных
+        byte[] plain = s.serialize(TrinoResponse.error("x"));
+        ByteBuffer.wrap(plain, 4, 4).putInt(plain.length);
+        assertNull(s.deserialize(plain));
+
+        assertEquals(3.0, registry.get("cache.codec.rejected").counter().count());
+        assertEquals(plan(100), s.deserialize(bytes).getResponse());
+    }
+}
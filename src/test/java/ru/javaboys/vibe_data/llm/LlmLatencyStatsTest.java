@@ -0,0 +1,52 @@
+package ru.javaboys.vibe_data.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LlmLatencyStatsTest {
+
+    @Test
+    void needsMinSamplesPerModel() {
+        LlmLatencyStats stats = new LlmLatencyStats(50);
+        stats.record("gpt-4o", 1000, 2000);
+        assertTrue(stats.estimate("gpt-4o", 1000, 0.9, 2).isEmpty());
+        assertTrue(stats.estimate("gpt-4o-mini", 1000, 0.9, 1).isEmpty());
+        assertEquals(2000, stats.estimate("gpt-4o", 1000, 0.9, 1).getAsDouble(), 1e-9);
+    }
+
+    @Test
+    void quantileFollowsTailNotMean() {
+        LlmLatencyStats stats = new LlmLatencyStats(100);
+        for (int i = 0; i < 90; i++) stats.record("m", 1000, 1000);
+        for (int i = 0; i < 10; i++) stats.record("m", 1000, 10_000);
+
+        double p50 = stats.estimate("m", 1000, 0.5, 5).getAsDouble();
+        double p95 = stats.estimate("m", 1000, 0.95, 5).getAsDouble();
+        // среднее здесь 1900 мс: медиана ниже него, p95 попадает в медленный хвост
+        assertTrue(p50 < 1900, "p50=" + p50);
+        assertTrue(p95 > 5000, "p95=" + p95);
+    }
+
+    @Test
+    void scalesWithPromptSize() {
+        LlmLatencyStats stats = new LlmLatencyStats(100);
+        for (int i = 0; i < 20; i++) {
+            stats.record("m", 1000, 2000);
+            stats.record("m", 5000, 6000);
+        }
+        double small = stats.estimate("m", 1000, 0.9, 5).getAsDouble();
+        double large = stats.estimate("m", 9000, 0.9, 5).getAsDouble();
+        assertEquals(2000, small, 1.0);
+        assertEquals(10_000, large, 1.0);
+    }
+
+    @Test
+    void keepsOnlyRecentWindow() {
+        LlmLatencyStats stats = new LlmLatencyStats(8);
+        for (int i = 0; i < 8; i++) stats.record("m", 100, 60_000);
+        for (int i = 0; i < 8; i++) stats.record("m", 100, 1_000);
+        assertEquals(8, stats.sampleCount("m"));
+        assertEquals(1_000, stats.estimate("m", 100, 0.99, 1).getAsDouble(), 1e-9);
+    }
+}
@@ -0,0 +1,43 @@
+package ru.javaboys.vibe_data.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingJsonFieldsTest {
+
+    private static void feedByChars(StreamingJsonFields json, String text) {
+        for (int i = 0; i < text.length(); i += 3) {
+            json.append(text.substring(i, Math.min(text.length(), i + 3)));
+        }
+    }
+
+    @Test
+    void completesFieldsAsTheyArrive() {
+        StreamingJsonFields json = new StreamingJsonFields();
+        feedByChars(json, "```json\n{\"queryid\": \"q1\", \"rewrittenQuery\": \"SELECT '{\\\"a\\\"}' FROM t, u\", \"ddlChanges\": [\"CREATE TABLE x");
+
+        Map<String, String> fields = json.completedFields();
+        assertFalse(json.isComplete());
+        assertEquals("\"q1\"", fields.get("queryid"));
+        assertEquals("\"SELECT '{\\\"a\\\"}' FROM t, u\"", fields.get("rewrittenQuery"));
+        assertFalse(fields.containsKey("ddlChanges"));
+        assertTrue(json.hasFields(List.of("rewrittenQuery")));
+        assertEquals("{\"queryid\":\"q1\",\"rewrittenQuery\":\"SELECT '{\\\"a\\\"}' FROM t, u\"}", json.completedFieldsJson());
+    }
+
+    @Test
+    void handlesNestedValuesScalarsAndClosingBrace() {
+        StreamingJsonFields json = new StreamingJsonFields();
+        feedByChars(json, "{\"ddl\": [\"a\", {\"b\": [1, 2]}], \"n\": 42, \"ok\" : true}\n```");
+
+        assertTrue(json.isComplete());
+        Map<String, String> fields = json.completedFields();
+        assertEquals("[\"a\", {\"b\": [1, 2]}]", fields.get("ddl"));
+        assertEquals("42", fields.get("n"));
+        assertEquals("true", fields.get("ok"));
+    }
+}
@@ -0,0 +1,206 @@
+package ru.javaboys.vibe_data.llm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBudgetChatMemoryTest {
+
+    private static ToolResponseMessage explain(String data) {
+        return new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("1", "explain", data)), Map.of());
+    }
+
+    private static TokenBudgetChatMemory memory(int maxTokens, int toolOutputChars) {
+        return new TokenBudgetChatMemory(
+                new WriteBehindChatMemoryRepository(new InMemoryChatMemoryRepository(), 60_000, 60_000),
+                maxTokens, toolOutputChars);
+    }
+
+    @Test
+    void keepsHistoryWithinBudget() {
+        TokenBudgetChatMemory memory = memory(1000, 100);
+        List<Message> history = List.of(new SystemMessage("sys"), new UserMessage("q"), new AssistantMessage("a"));
+        assertSame(history, memory.compact(history));
+    }
+
+    @Test
+    void shortensOldToolOutputsBeforeDroppingTurns() {
+        TokenBudgetChatMemory memory = memory(200, 40);
+        List<Message> history = List.of(
+                new SystemMessage("sys"),
+                new UserMessage("first"),
+                explain("x".repeat(2000)),
+                new AssistantMessage("done"),
+                new UserMessage("second"),
+                explain("y".repeat(400)));
+
+        List<Message> compacted = memory.compact(history);
+
+        assertEquals(history.size(), compacted.size());
+        String shortened = ((ToolResponseMessage) compacted.get(2)).getResponses().get(0).responseData();
+        assertTrue(shortened.startsWith("x".repeat(40)));
+        assertTrue(shortened.contains("2000"));
+        // последний ход не сокращается
+        assertSame(history.get(5), compacted.get(5));
+    }
+
+    @Test
+    void dropsOldestTurnsButKeepsSystemAndLatestTurn() {
+        TokenBudgetChatMemory memory = memory(60, 0);
+        List<Message> history = List.of(
+                new SystemMessage("sys"),
+                new UserMessage("a".repeat(100)),
+                new AssistantMessage("b".repeat(100)),
+                new UserMessage("c".repeat(100)),
+                new AssistantMessage("d".repeat(100)),
+                new UserMessage("latest"));
+
+        List<Message> compacted = memory.compact(history);
+
+        assertEquals(List.of(history.get(0), history.get(3), history.get(4), history.get(5)), compacted);
+    }
+
+    @Test
+    void newSystemMessageReplacesPrevious() {
+        TokenBudgetChatMemory memory = memory(1000, 100);
+        memory.add("c", List.of(new SystemMessage("old"), new UserMessage("q")));
+        memory.add("c", List.of(new SystemMessage("new"), new UserMessage("q2")));
+
+        List<Message> messages = memory.get("c");
+        assertEquals(1, messages.stream().filter(m -> m instanceof SystemMessage).count());
+        assertTrue(messages.stream().anyMatch(m -> "new".equals(m.getText())));
+    }
+
+    @Test
+    void writeBehindCoalescesSavesIntoOneWrite() {
+        CountingRepository store = new CountingRepository();
+        WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(store, 60_000, 60_000);
+        TokenBudgetChatMemory memory = new TokenBudgetChatMemory(repository, 1000, 100);
+
+        for (int i = 0; i < 5; i++) {
+            memory.add("c", List.of(new UserMessage("q" + i), new AssistantMessage("a" + i)));
+        }
+        assertEquals(0, store.saves);
+        assertEquals(10, memory.get("c").size());
+
+        repository.flush(Long.MAX_VALUE);
+        assertEquals(1, store.saves);
+        assertEquals(10, store.delegate.findByConversationId("c").size());
+
+        // сброшенный и выгруженный диалог читается из хранилища
+        assertEquals(10, repository.findByConversationId("c").size());
+        repository.flush(Long.MAX_VALUE);
+        assertEquals(1, store.saves);
+    }
+
+    @Test
+    void concurrentAddsToOneConversationLoseNothing() throws Exception {
+        TokenBudgetChatMemory memory = memory(1_000_000, 100);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 0; i < 100; i++) memory.add("c", List.of(new UserMessage(thread + ":" + i)));
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(800, memory.get("c").size());
+    }
+
+    @Test
+    void flushWritesOutsideMapLockAndKeepsNewerChangesDirty() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingRepository store = new CountingRepository() {
+            @Override
+            public void saveAll(String conversationId, List<Message> messages) {
+                if (saves == 0) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.saveAll(conversationId, messages);
+            }
+        };
+        WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(store, 60_000, 60_000);
+        repository.saveAll("c", List.of(new UserMessage("v1")));
+
+        Thread flusher = new Thread(() -> repository.flush(Long.MAX_VALUE));
+        flusher.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // пока сброс висит на записи, диалог читается и меняется без ожидания
+        repository.saveAll("c", List.of(new UserMessage("v2")));
+        repository.deleteByConversationId("other");
+        assertEquals("v2", repository.findByConversationId("c").get(0).getText());
+
+        release.countDown();
+        flusher.join(5_000);
+        assertEquals("v1", store.delegate.findByConversationId("c").get(0).getText());
+
+        // v2 пришла во время записи v1 и осталась несохранённой
+        repository.flush(Long.MAX_VALUE);
+        assertEquals("v2", store.delegate.findByConversationId("c").get(0).getText());
+        assertEquals(2, store.saves);
+    }
+
+    @Test
+    void deleteReachesStoreOnFlush() {
+        CountingRepository store = new CountingRepository();
+        WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(store, 60_000, 60_000);
+        repository.saveAll("c", List.of(new UserMessage("q")));
+        repository.flush(Long.MAX_VALUE);
+
+        repository.deleteByConversationId("c");
+        assertTrue(repository.findByConversationId("c").isEmpty());
+        assertFalse(repository.findConversationIds().contains("c"));
+
+        repository.flush(Long.MAX_VALUE);
+        assertTrue(store.delegate.findByConversationId("c").isEmpty());
+    }
+
+    private static class CountingRepository implements ChatMemoryRepository {
+        final InMemoryChatMemoryRepository delegate = new InMemoryChatMemoryRepository();
+        int saves;
+
+        @Override
+        public List<String> findConversationIds() {
+            return delegate.findConversationIds();
+        }
+
+        @Override
+        public List<Message> findByConversationId(String conversationId) {
+            return new ArrayList<>(delegate.findByConversationId(conversationId));
+        }
+
+        @Override
+        public void saveAll(String conversationId, List<Message> messages) {
+            saves++;
+            delegate.saveAll(conversationId, messages);
+        }
+
+        @Override
+        public void deleteByConversationId(String conversationId) {
+            delegate.deleteByConversationId(conversationId);
+        }
+    }
+}
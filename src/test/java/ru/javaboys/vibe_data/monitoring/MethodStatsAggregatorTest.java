@@ -0,0 +1,114 @@
+package ru.javaboys.vibe_data.monitoring;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodStatsAggregatorTest {
+
+    @Test
+    void drainReturnsDeltasOnceAndFoldsEwma() {
+        AvgTimeCalculator calc = new AvgTimeCalculator(0.5);
+        MethodStatsAggregator agg = new MethodStatsAggregator(calc, 60_000);
+        agg.record("k", 100, true);
+        agg.record("k", 100, false);
+
+        List<MethodStatsAggregator.Delta> first = agg.drain();
+        assertEquals(1, first.size());
+        MethodStatsAggregator.Delta d = first.get(0);
+        assertEquals(100.0, d.avgTimeMs(), 1e-9);
+        assertEquals(List.of(2L, 1L, 1L, 200L), List.of(d.total(), d.success(), d.error(), d.sumMs()));
+        assertTrue(agg.drain().isEmpty());
+
+        agg.record("k", 300, true);
+        // один шаг EWMA с alpha = 0.5
+        assertEquals(200.0, agg.drain().get(0).avgTimeMs(), 1e-9);
+    }
+
+    @Test
+    void restoredDeltasAreRetried() {
+        MethodStatsAggregator agg = new MethodStatsAggregator(new AvgTimeCalculator(0.2), 60_000);
+        agg.record("k", 10, true);
+        agg.restore(agg.drain());
+        agg.record("k", 30, true);
+        MethodStatsAggregator.Delta d = agg.drain().get(0);
+        assertEquals(2, d.total());
+        assertEquals(40, d.sumMs());
+    }
+
+    @Test
+    void restoredDrainDoesNotFoldEwmaTwice() {
+        MethodStatsAggregator agg = new MethodStatsAggregator(new AvgTimeCalculator(0.5), 60_000);
+        agg.seed("k", 100);
+        agg.record("k", 200, true);
+        List<MethodStatsAggregator.Delta> failed = agg.drain();
+        assertEquals(150.0, failed.get(0).avgTimeMs(), 1e-9);
+        agg.restore(failed);
+        assertEquals(100.0, agg.avgTimeMs("k").getAsDouble(), 1e-9);
+
+        agg.record("k", 200, false);
+        MethodStatsAggregator.Delta d = agg.drain().get(0);
+        // два шага EWMA от исходного среднего: 0.25 * 100 + 0.75 * 200
+        assertEquals(175.0, d.avgTimeMs(), 1e-9);
+        assertEquals(List.of(2L, 1L, 1L), List.of(d.total(), d.success(), d.error()));
+    }
+
+    @Test
+    void concurrentWritersLoseNothing() throws Exception {
+        MethodStatsAggregator agg = new MethodStatsAggregator(new AvgTimeCalculator(0.2), 60_000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.submit(() -> {
+                for (int i = 0; i < 10_000; i++) agg.record("k", i % 50, true);
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(80_000, agg.drain().get(0).total());
+    }
+
+    @Test
+    void percentileUsesHistogramBuckets() {
+        MethodStatsAggregator agg = new MethodStatsAggregator(new AvgTimeCalculator(0.2), 60_000);
+        for (int i = 0; i < 90; i++) agg.record("k", 1_000, true);
+        for (int i = 0; i < 10; i++) agg.record("k", 30_000, true);
+        long p50 = agg.percentileMs("k", 0.5).getAsLong();
+        long p95 = agg.percentileMs("k", 0.95).getAsLong();
+        assertTrue(p50 >= 1_000 && p50 < 1_250, "p50=" + p50);
+        assertTrue(p95 >= 30_000 && p95 < 37_500, "p95=" + p95);
+        assertTrue(agg.percentileMs("missing", 0.5).isEmpty());
+    }
+
+    @Test
+    void windowedPercentilesForgetOldFlushes() {
+        MethodStatsAggregator agg = new MethodStatsAggregator(new AvgTimeCalculator(0.2), 60_000);
+        for (int i = 0; i < 100; i++) agg.record("k", 20_000, true);
+        assertTrue(agg.drain(0).get(0).p99Ms() >= 20_000);
+
+        for (int i = 0; i < 100; i++) agg.record("k", 100, true);
+        MethodStatsAggregator.Delta later = agg.drain(120_000).get(0);
+        // медленные вызовы старше окна в перцентили уже не попадают
+        assertTrue(later.p99Ms() < 200, "p99=" + later.p99Ms());
+        assertTrue(agg.percentileMs("k", 0.99).getAsLong() >= 20_000);
+    }
+
+    @Test
+    void idleKeyPercentilesAreClearedOnceWindowEmpties() {
+        MethodStatsAggregator agg = new MethodStatsAggregator(new AvgTimeCalculator(0.2), 60_000);
+        agg.record("k", 500, true);
+        assertNotNull(agg.drain(0).get(0).p99Ms());
+        assertTrue(agg.drain(30_000).isEmpty());
+
+        // новых замеров нет, но окно опустело — перцентили стираются один раз
+        MethodStatsAggregator.Delta idle = agg.drain(120_000).get(0);
+        assertEquals(0, idle.total());
+        assertNull(idle.p50Ms());
+        assertNull(idle.p99Ms());
+        assertTrue(agg.drain(180_000).isEmpty());
+    }
+}
@@ -0,0 +1,39 @@
+package ru.javaboys.vibe_data.service;
+
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.util.Murmur3Hash128;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheKeyUtilsTest {
+
+    private final CacheKeyUtils utils = new CacheKeyUtils();
+
+    @Test
+    void murmurMatchesReferenceVectors() {
+        assertArrayEquals(new long[]{0L, 0L}, new Murmur3Hash128().finish());
+        Murmur3Hash128 hash = new Murmur3Hash128();
+        for (byte b : "hello".getBytes(StandardCharsets.UTF_8)) hash.putByte(b);
+        assertArrayEquals(new long[]{0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L}, hash.finish());
+    }
+
+    @Test
+    void insignificantWhitespaceCommentsAndKeywordCaseDoNotChangeKey() {
+        String key = utils.normalize("SELECT a, b FROM t WHERE x >= 1");
+        assertEquals(32, key.length());
+        assertEquals(key, utils.normalize("select a,b\n  from T -- comment\n where x>=1 /* block */"));
+    }
+
+    @Test
+    void literalsAndQuotedIdentifiersAreKeptIntact() {
+        assertNotEquals(utils.normalize("SELECT * FROM t WHERE city = 'New York'"),
+                utils.normalize("SELECT * FROM t WHERE city = 'NewYork'"));
+        assertNotEquals(utils.normalize("SELECT * FROM t WHERE city = 'a'"),
+                utils.normalize("SELECT * FROM t WHERE city = 'A'"));
+        assertNotEquals(utils.normalize("SELECT \"Col\" FROM t"), utils.normalize("SELECT \"col\" FROM t"));
+        // границы токенов значимы: пробел между словами не «схлопывается» в одно слово
+        assertNotEquals(utils.normalize("SELECT a b FROM t"), utils.normalize("SELECT ab FROM t"));
+    }
+}
@@ -0,0 +1,103 @@
+package ru.javaboys.vibe_data.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
+import ru.javaboys.vibe_data.config.AsyncConfig;
+import ru.javaboys.vibe_data.domain.Task;
+import ru.javaboys.vibe_data.domain.TaskInput;
+import ru.javaboys.vibe_data.domain.jsonb.QueryInput;
+import ru.javaboys.vibe_data.domain.jsonb.TaskInputPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExplainPrefetcherTest {
+
+    private final ThreadPoolTaskExecutor executor = new AsyncConfig().explainPrefetchExecutor(1, 100);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    private static Task task(String... queries) {
+        List<QueryInput> inputs = new ArrayList<>();
+        for (int i = 0; i < queries.length; i++) {
+            inputs.add(QueryInput.builder().queryid("q" + i).query(queries[i]).runquantity(10 - i).executiontime(1).build());
+        }
+        Task task = Task.builder()
+                .input(TaskInput.builder().payload(TaskInputPayload.builder().queries(inputs).build()).build())
+                .build();
+        task.setId(UUID.randomUUID());
+        return task;
+    }
+
+    @Test
+    void cheapPlansOfLaterTaskRunBeforeAnalyzeOfEarlierTask() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> calls = new CopyOnWriteArrayList<>();
+        TrinoDbService trino = mock(TrinoDbService.class);
+        when(trino.explain(anyString(), any())).thenAnswer(inv -> {
+            calls.add(inv.getArgument(0) + ":" + inv.getArgument(1));
+            firstStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+        ExplainPrefetcher prefetcher = new ExplainPrefetcher(trino, executor, new SimpleMeterRegistry());
+
+        // единственный поток занят первым планом задачи A, остальное ждёт в очереди
+        ExplainPrefetcher.Prefetch a = prefetcher.start(task("SELECT 1", "SELECT 2"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        ExplainPrefetcher.Prefetch b = prefetcher.start(task("SELECT 3"));
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (a.getDone() + b.getDone() < a.getTotal() + b.getTotal() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(15, calls.size());
+
+        // все LOGICAL раньше IO, все IO раньше DISTRIBUTED и т.д. — независимо от задачи
+        int logicalOfB = calls.indexOf("SELECT 3:" + TrinoExplainType.LOGICAL);
+        int firstAnalyze = calls.indexOf("SELECT 1:" + TrinoExplainType.ANALYZE);
+        assertTrue(logicalOfB < calls.indexOf("SELECT 1:" + TrinoExplainType.IO), calls.toString());
+        assertTrue(logicalOfB < firstAnalyze, calls.toString());
+        // внутри типа — по убыванию веса
+        assertTrue(calls.indexOf("SELECT 1:" + TrinoExplainType.IO) < calls.indexOf("SELECT 2:" + TrinoExplainType.IO));
+    }
+
+    @Test
+    void cancelRemovesQueuedItemsFromSharedQueue() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TrinoDbService trino = mock(TrinoDbService.class);
+        when(trino.explain(anyString(), any())).thenAnswer(inv -> {
+            firstStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+        ExplainPrefetcher prefetcher = new ExplainPrefetcher(trino, executor, new SimpleMeterRegistry());
+
+        ExplainPrefetcher.Prefetch a = prefetcher.start(task("SELECT 1", "SELECT 2"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        assertEquals(9, executor.getQueueSize());
+
+        a.cancel();
+        assertEquals(0, executor.getQueueSize());
+        release.countDown();
+    }
+}
@@ -0,0 +1,46 @@
+package ru.javaboys.vibe_data.service;
+
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.domain.Optimization;
+import ru.javaboys.vibe_data.repository.OptimizationRepository;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OptimizationIndexTest {
+
+    private static final List<String> TEXTS = List.of(
+            "Для фильтров по дате используйте партиционирование по month(flightdate)",
+            "Большие JOIN переписывайте так, чтобы меньшая таблица была справа",
+            "Оконные функции rank() считайте после агрегации, а не до неё",
+            "Перечисляйте нужные колонки вместо звёздочки в подзапросах");
+
+    private static OptimizationIndex index(int topK) {
+        OptimizationRepository repository = mock(OptimizationRepository.class);
+        when(repository.findAllByActiveIsTrue())
+                .thenReturn(TEXTS.stream().map(t -> Optimization.builder().text(t).active(true).build()).toList());
+        OptimizationIndex index = new OptimizationIndex(repository, topK, 60_000);
+        index.init();
+        return index;
+    }
+
+    private static List<String> texts(List<Optimization> optimizations) {
+        return optimizations.stream().map(Optimization::getText).toList();
+    }
+
+    @Test
+    void matchedRulesComeFirstAndRestPadsToK() {
+        List<Optimization> relevant = index(3).relevant(List.of("SELECT a.x FROM c.s.a a JOIN c.s.b b ON a.id = b.id"));
+        assertEquals(List.of(TEXTS.get(1), TEXTS.get(0), TEXTS.get(2)), texts(relevant));
+    }
+
+    @Test
+    void queryMatchingNothingStillGetsKRules() {
+        // идентификаторы запроса не встречаются в текстах рекомендаций
+        List<Optimization> relevant = index(2).relevant(List.of("SELECT amount FROM c.s.payments WHERE id = 1"));
+        assertEquals(List.of(TEXTS.get(0), TEXTS.get(1)), texts(relevant));
+    }
+}
@@ -0,0 +1,84 @@
+package ru.javaboys.vibe_data.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.javaboys.vibe_data.agent.tools.TrinoExplainType;
+import ru.javaboys.vibe_data.dto.TrinoResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TrinoDbServiceTest {
+
+    private final JdbcTemplate trino = mock(JdbcTemplate.class);
+    private final CacheManager cacheManager = new ConcurrentMapCacheManager(TrinoDbService.CACHE_NAME);
+    private final TrinoDbService service = new TrinoDbService(trino, new CacheKeyUtils(), cacheManager);
+
+    @Test
+    void concurrentRequestsRunOneExplainAndOnePut() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(trino.queryForObject(anyString(), eq(String.class))).thenAnswer(inv -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return "{}";
+        });
+        org.springframework.cache.Cache cache = spy(cacheManager.getCache(TrinoDbService.CACHE_NAME));
+        CacheManager spied = mock(CacheManager.class);
+        when(spied.getCache(TrinoDbService.CACHE_NAME)).thenReturn(cache);
+        TrinoDbService service = new TrinoDbService(trino, new CacheKeyUtils(), spied);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<TrinoResponse>> results = new ArrayList<>();
+            results.add(pool.submit(() -> service.explain("SELECT 1", TrinoExplainType.LOGICAL)));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(pool.submit(() -> service.explain("select   1", TrinoExplainType.LOGICAL)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<TrinoResponse> r : results) {
+                assertEquals("{}", r.get(5, TimeUnit.SECONDS).getResponse());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        verify(trino, times(1)).queryForObject(anyString(), eq(String.class));
+        verify(cache, times(1)).put(any(), any());
+        // следующий запрос обслуживается из кэша
+        service.explain("SELECT 1", TrinoExplainType.LOGICAL);
+        verify(trino, times(1)).queryForObject(anyString(), eq(String.class));
+    }
+
+    @Test
+    void errorsAreNotCached() {
+        when(trino.queryForObject(anyString(), eq(String.class)))
+                .thenThrow(new DataAccessResourceFailureException("down"))
+                .thenReturn("{}");
+
+        assertNull(service.explain("SELECT 1", TrinoExplainType.IO).getResponse());
+        assertEquals("{}", service.explain("SELECT 1", TrinoExplainType.IO).getResponse());
+        assertEquals("{}", service.explain("SELECT 1", TrinoExplainType.IO).getResponse());
+        verify(trino, times(2)).queryForObject(anyString(), eq(String.class));
+    }
+}
@@ -0,0 +1,31 @@
+package ru.javaboys.vibe_data.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Bm25IndexTest {
+
+    private final Bm25Index index = new Bm25Index(List.of(
+            "Для фильтров по дате используйте партиционирование по month(flightdate)",
+            "Большие JOIN переписывайте так, чтобы меньшая таблица была справа",
+            "Оконные функции rank() считайте после агрегации, а не до неё",
+            "Не используйте SELECT * в подзапросах"));
+
+    @Test
+    void ranksDocumentsByQueryTerms() {
+        List<String> terms = Bm25Index.terms("SELECT month(flightdate), count(*) FROM flights.public.flights GROUP BY 1");
+        assertEquals(List.of(0, 3), index.top(terms, 5));
+        assertEquals(List.of(1), index.top(Bm25Index.terms("a JOIN b ON a.id = b.id"), 5));
+        assertEquals(List.of(0), index.top(terms, 1));
+    }
+
+    @Test
+    void termsAreSplitLowercasedAndStemmedByPrefix() {
+        assertEquals(List.of("partit", "partit", "flight", "date"), Bm25Index.terms("Partitioning partition_flight_DATE"));
+        assertEquals(Bm25Index.terms("партиционирование"), Bm25Index.terms("партиционированию"));
+        assertTrue(index.top(List.of("unknown"), 3).isEmpty());
+    }
+}
@@ -0,0 +1,174 @@
+package ru.javaboys.vibe_data.validator;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.javaboys.vibe_data.domain.jsonb.RewrittenQuery;
+import ru.javaboys.vibe_data.validator.DdlSqlValidator.ComparisonReport;
+import ru.javaboys.vibe_data.validator.DdlSqlValidator.QueryResult;
+import ru.javaboys.vibe_data.validator.dto.SqlFile;
+import ru.javaboys.vibe_data.validator.dto.ValidationModels;
+import ru.javaboys.vibe_data.validator.util.ResultFingerprint;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DdlSqlValidatorTest {
+
+    private final DdlSqlValidator validator = new DdlSqlValidator(null, null, null);
+
+    private static final List<SqlFile> OLD_DDL = List.of(
+            new SqlFile("CREATE TABLE iceberg.flights_1.flights (id INT, flightdate DATE)"));
+
+    @Test
+    void newSchemaDdlRunsAlongsideOldQueries() {
+        List<SqlFile> newDdl = List.of(
+                new SqlFile("CREATE SCHEMA iceberg.optimized_1"),
+                new SqlFile("CREATE TABLE iceberg.optimized_1.flights AS SELECT * FROM iceberg.flights_1.flights"));
+        assertTrue(validator.newDdlOutsideOldSchemas(OLD_DDL, newDdl));
+    }
+
+    @Test
+    void ddlAimedAtOldSchemaIsSequential() {
+        assertFalse(validator.newDdlOutsideOldSchemas(OLD_DDL,
+                List.of(new SqlFile("ALTER TABLE iceberg.flights_1.flights ADD COLUMN month INT"))));
+        assertFalse(validator.newDdlOutsideOldSchemas(OLD_DDL,
+                List.of(new SqlFile("CREATE SCHEMA iceberg.optimized_1; DROP TABLE iceberg.FLIGHTS_1.flights"))));
+        assertFalse(validator.newDdlOutsideOldSchemas(OLD_DDL,
+                List.of(new SqlFile("CREATE TABLE flights_copy (id INT)"))));
+    }
+
+    private static ResultFingerprint rows(long... ids) {
+        ResultFingerprint f = new ResultFingerprint(16);
+        f.columns(List.of("id"), new boolean[]{false});
+        for (long id : ids) f.accept(new Object[]{id});
+        return f;
+    }
+
+    private static RewrittenQuery rewritten(String id) {
+        return RewrittenQuery.builder().queryid(id).query("SELECT " + id).build();
+    }
+
+    @Test
+    void resultsArePairedByQueryIdNotPosition() {
+        ReflectionTestUtils.setField(validator, "compareMaxDiffs", 20);
+        // новые запросы пришли в порядке шагов агента, а не payload
+        List<QueryResult> oldResults = List.of(
+                QueryResult.of("OLD_a", "a", rows(1, 2)),
+                QueryResult.of("OLD_b", "b", rows(3)),
+                QueryResult.of("OLD_c", "c", rows(4, 5, 6)));
+        List<QueryResult> newResults = List.of(
+                QueryResult.of("NEW_c", "c", rows(6, 5, 4)),
+                QueryResult.of("NEW_a", "a", rows(2, 1)),
+                QueryResult.of("NEW_b", "b", rows(3)));
+
+        ComparisonReport report = validator.compareResults(oldResults, newResults);
+
+        assertEquals("OK", report.status, () -> String.valueOf(report.diffs));
+    }
+
+    @Test
+    void missingRewrittenQueryIsReportedByIdWithoutShiftingPairs() {
+        ReflectionTestUtils.setField(validator, "compareMaxDiffs", 20);
+        List<QueryResult> oldResults = List.of(
+                QueryResult.of("OLD_a", "a", rows(1)),
+                QueryResult.of("OLD_b", "b", rows(2)),
+                QueryResult.of("OLD_c", "c", rows(3)));
+        // пустой новый запрос b пропущен при запуске
+        List<QueryResult> newResults = List.of(
+                QueryResult.of("NEW_a", "a", rows(1)),
+                QueryResult.of("NEW_c", "c", rows(4)));
+
+        ComparisonReport report = validator.compareResults(oldResults, newResults);
+
+        assertEquals("DIFF", report.status);
+        assertEquals(1, report.diffRows);
+        assertTrue(report.diffs.stream().anyMatch(d -> d.startsWith("c")), () -> String.valueOf(report.diffs));
+        assertTrue(report.diffs.contains("no new query for [b]"), () -> String.valueOf(report.diffs));
+    }
+
+    @Test
+    void finalQueriesAreReorderedToPayloadOrder() {
+        List<RewrittenQuery> byWeight = List.of(rewritten("c"), rewritten("x"), rewritten("a"), rewritten("b"));
+        List<String> ids = DdlSqlValidator.inPayloadOrder(byWeight, List.of("a", "b", "c")).stream()
+                .map(RewrittenQuery::getQueryid).toList();
+        assertEquals(List.of("a", "b", "c", "x"), ids);
+    }
+
+    private static final String INSERT = "INSERT INTO iceberg.flights_1_x.flights (\"id\", \"flightdate\") VALUES ";
+    private static final String LOCAL = "iceberg.flights_1_x.flights";
+
+    // локальный Trino, который отвергает INSERT, содержащий любую из строк bad
+    private static JdbcTemplate trinoRejecting(String... bad) {
+        JdbcTemplate trino = mock(JdbcTemplate.class);
+        doAnswer(inv -> {
+            String sql = inv.getArgument(0);
+            for (String b : bad) {
+                if (sql.contains(b)) {
+                    throw new BadSqlGrammarException("insert", sql, new SQLException("Cannot cast '" + b + "' to date"));
+                }
+            }
+            return null;
+        }).when(trino).execute(anyString());
+        return trino;
+    }
+
+    @Test
+    void sampleBatchIsInsertedWithOneStatement() {
+        JdbcTemplate trino = trinoRejecting();
+        DdlSqlValidator v = new DdlSqlValidator(trino, null, null);
+        List<String> tuples = List.of("(1, DATE '2024-01-01')", "(2, DATE '2024-01-02')", "(3, DATE '2024-01-03')");
+
+        assertEquals(3, v.insertSampleBatch(INSERT, tuples, LOCAL));
+        verify(trino, times(1)).execute(anyString());
+
+        List<ValidationModels.ValidationError> errors = new ArrayList<>();
+        v.reportRejectedSampleRows(3, 3, "prod.flights_1.flights", LOCAL, errors);
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    void mixedSampleBatchFallsBackToRowsAndReportsRejected() {
+        JdbcTemplate trino = trinoRejecting("'2024-13-45'");
+        DdlSqlValidator v = new DdlSqlValidator(trino, null, null);
+        List<String> tuples = List.of("(1, DATE '2024-01-01')", "(2, DATE '2024-13-45')", "(3, DATE '2024-01-03')");
+
+        int inserted = v.insertSampleBatch(INSERT, tuples, LOCAL);
+
+        assertEquals(2, inserted);
+        // пачка целиком и затем каждая строка
+        verify(trino, times(4)).execute(anyString());
+        List<ValidationModels.ValidationError> errors = new ArrayList<>();
+        v.reportRejectedSampleRows(tuples.size(), inserted, "prod.flights_1.flights", LOCAL, errors);
+        assertEquals(1, errors.size());
+        assertEquals("SAMPLE_ROWS_REJECTED", errors.get(0).getCode());
+        assertEquals(ValidationModels.StageName.SAMPLE, errors.get(0).getStage());
+        assertEquals("1 of 3 sample rows from prod.flights_1.flights were rejected by " + LOCAL, errors.get(0).getMessage());
+    }
+
+    @Test
+    void fullyRejectedSampleBatchFails() {
+        JdbcTemplate trino = trinoRejecting("'bad-1'", "'bad-2'");
+        DdlSqlValidator v = new DdlSqlValidator(trino, null, null);
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class,
+                () -> v.insertSampleBatch(INSERT, List.of("(1, DATE 'bad-1')", "(2, DATE 'bad-2')"), LOCAL));
+        assertTrue(ex.getMessage().contains(LOCAL));
+        assertInstanceOf(BadSqlGrammarException.class, ex.getCause());
+        verify(trino, times(3)).execute(anyString());
+
+        // одиночная строка не повторяется: ошибка пачки и есть ошибка строки
+        assertThrows(BadSqlGrammarException.class,
+                () -> v.insertSampleBatch(INSERT, List.of("(1, DATE 'bad-1')"), LOCAL));
+        verify(trino, times(4)).execute(anyString());
+    }
+}
@@ -0,0 +1,62 @@
+package ru.javaboys.vibe_data.validator;
+
+import org.junit.jupiter.api.Test;
+import ru.javaboys.vibe_data.validator.util.ResultComparator;
+import ru.javaboys.vibe_data.validator.util.ResultFingerprint;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultComparatorTest {
+
+    private static ResultFingerprint fingerprint(Object[]... rows) {
+        ResultFingerprint f = new ResultFingerprint(16);
+        f.columns(List.of("id", "name", "amount"), new boolean[]{false, false, true});
+        for (Object[] row : rows) {
+            f.accept(row);
+        }
+        return f;
+    }
+
+    @Test
+    void rowOrderDoesNotMatter() {
+        ResultFingerprint a = fingerprint(
+                new Object[]{1L, "a", 0.1},
+                new Object[]{2L, "b", 0.2},
+                new Object[]{3L, "c", 0.3});
+        ResultFingerprint b = fingerprint(
+                new Object[]{new BigDecimal("3.00"), "c", 0.3},
+                new Object[]{1, "a", 0.1},
+                new Object[]{2L, "b", 0.2});
+        ResultComparator.Result result = ResultComparator.compare("Q1", a, b, 0.01, 20);
+        assertTrue(result.matches(), () -> "unexpected diffs: " + result.diffs());
+    }
+
+    @Test
+    void floatingColumnsUseTolerance() {
+        ResultFingerprint a = fingerprint(new Object[]{1L, "a", 100.0});
+        ResultFingerprint b = fingerprint(new Object[]{1L, "a", 100.0000001});
+        assertTrue(ResultComparator.compare("Q1", a, b, 0.01, 20).matches());
+
+        ResultFingerprint c = fingerprint(new Object[]{1L, "a", 105.0});
+        ResultComparator.Result result = ResultComparator.compare("Q1", a, c, 0.01, 20);
+        assertFalse(result.matches());
+        assertEquals(1, result.columnsDiffer());
+    }
+
+    @Test
+    void reportsDifferingRow() {
+        ResultFingerprint a = fingerprint(
+                new Object[]{1L, "a", 1.0},
+                new Object[]{2L, "b", 1.0});
+        ResultFingerprint b = fingerprint(
+                new Object[]{1L, "a", 1.0},
+                new Object[]{2L, "x", 1.0});
+        ResultComparator.Result result = ResultComparator.compare("Q1", a, b, 0.01, 20);
+        assertTrue(result.rowsDiffer());
+        assertTrue(result.diffs().stream().anyMatch(d -> d.contains("(2, b, 1.0) x1 -> x0")), () -> result.diffs().toString());
+        assertTrue(result.diffs().stream().anyMatch(d -> d.contains("(2, x, 1.0) x0 -> x1")), () -> result.diffs().toString());
+    }
+}